@@ -2,8 +2,9 @@ package pw.avvero.spring.sandbox;
 
 import org.apache.kafka.clients.admin.AdminClient;
 import org.apache.kafka.clients.admin.NewTopic;
-import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.*;
 import pw.avvero.emk.EmbeddedKafkaContainer;
+import pw.avvero.test.kafka.AdminClientRegistry;
 import pw.avvero.test.kafka.KafkaSupport;
 
 import java.util.ArrayList;
@@ -13,6 +14,11 @@ import java.util.concurrent.ExecutionException;
 import static java.util.Collections.singletonMap;
 import static org.apache.kafka.clients.admin.AdminClientConfig.BOOTSTRAP_SERVERS_CONFIG;
 
+@BenchmarkMode(Mode.SingleShotTime)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10, batchSize = 1)
+@Fork(1)
+@Threads(1)
 public class KafkaSupportBenchmark {
 
     @Benchmark
@@ -52,6 +58,7 @@ public class KafkaSupportBenchmark {
         container.start();
         createTopics(container.getBootstrapServers(), 1);
         KafkaSupport.waitForPartitionOffsetCommit(List.of(container.getBootstrapServers()));
+        AdminClientRegistry.close(List.of(container.getBootstrapServers()));
         container.stop();
     }
 
@@ -61,9 +68,38 @@ public class KafkaSupportBenchmark {
         container.start();
         createTopics(container.getBootstrapServers(), 100);
         KafkaSupport.waitForPartitionOffsetCommit(List.of(container.getBootstrapServers()));
+        AdminClientRegistry.close(List.of(container.getBootstrapServers()));
         container.stop();
     }
 
+    @State(Scope.Benchmark)
+    public static class StartedKafka {
+        EmbeddedKafkaContainer container;
+        List<String> bootstrapServers;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            container = new EmbeddedKafkaContainer("avvero/emk-native:1.0.0");
+            container.start();
+            bootstrapServers = List.of(container.getBootstrapServers());
+            createTopics(container.getBootstrapServers(), 1);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            AdminClientRegistry.close(bootstrapServers);
+            container.stop();
+        }
+    }
+
+    /**
+     * Measures the barrier itself on an already started cluster, AdminClient is shared between invocations.
+     */
+    @Benchmark
+    public void waitForPartitionOffsetCommitForOneTopicOnStartedKafka(StartedKafka kafka) {
+        KafkaSupport.waitForPartitionOffsetCommit(kafka.bootstrapServers);
+    }
+
     //
 
     private void checkKafkaReadiness(String bootstrapServers) throws ExecutionException, InterruptedException {
@@ -72,7 +108,7 @@ public class KafkaSupportBenchmark {
         }
     }
 
-    private void createTopics(String bootstrapServers, int number) {
+    private static void createTopics(String bootstrapServers, int number) {
         List<NewTopic> topics = new ArrayList<>(number);
         for (int i = 0; i < number; i++) {
             topics.add(new NewTopic("topic" + i, 1, (short) 1));
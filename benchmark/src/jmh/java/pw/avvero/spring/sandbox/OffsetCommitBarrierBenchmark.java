@@ -0,0 +1,114 @@
+package pw.avvero.spring.sandbox;
+
+import org.apache.kafka.clients.admin.AdminClient;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.openjdk.jmh.annotations.*;
+import pw.avvero.test.kafka.InMemoryKafka;
+import pw.avvero.test.kafka.KafkaSupport;
+import pw.avvero.test.kafka.KafkaSupportSettings;
+import pw.avvero.test.kafka.OffsetWatermarkStore;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the offset commit barrier against the AdminClient of {@link InMemoryKafka}, so the cost of the library is
+ * measured without a broker. All offsets are committed, the barrier completes with the first attempt.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class OffsetCommitBarrierBenchmark {
+
+    @Param({"10", "100", "1000", "10000"})
+    int partitions;
+    @Param({"1", "10"})
+    int groups;
+
+    InMemoryKafka kafka;
+    AdminClient adminClient;
+    Set<TopicPartition> topicPartitions;
+    Set<String> consumerGroups;
+    KafkaSupportSettings settings;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        int topics = Math.max(1, partitions / 10);
+        int partitionsPerTopic = partitions / topics;
+        kafka = new InMemoryKafka();
+        adminClient = kafka.getAdminClient();
+        topicPartitions = new HashSet<>();
+        for (int t = 0; t < topics; t++) {
+            kafka.createTopic("topic" + t, partitionsPerTopic);
+            for (int p = 0; p < partitionsPerTopic; p++) {
+                topicPartitions.add(new TopicPartition("topic" + t, p));
+            }
+        }
+        consumerGroups = new HashSet<>();
+        for (int g = 0; g < groups; g++) {
+            consumerGroups.add("group" + g);
+        }
+        commitEndOffsets(10);
+        settings = KafkaSupportSettings.builder().offsetCommitTimeout(Duration.ofSeconds(10)).build();
+    }
+
+    /**
+     * Appends records to every partition and commits the end offsets for every consumer group.
+     */
+    private void commitEndOffsets(int records) {
+        try (Producer<byte[], byte[]> producer = kafka.createProducer(Collections.emptyMap(),
+                new ByteArraySerializer(), new ByteArraySerializer())) {
+            for (TopicPartition topicPartition : topicPartitions) {
+                for (int i = 0; i < records; i++) {
+                    producer.send(new ProducerRecord<>(topicPartition.topic(), topicPartition.partition(), null,
+                            new byte[0]));
+                }
+            }
+        }
+        Map<TopicPartition, OffsetAndMetadata> offsets = new HashMap<>();
+        for (TopicPartition topicPartition : topicPartitions) {
+            offsets.put(topicPartition, new OffsetAndMetadata(records));
+        }
+        for (String group : consumerGroups) {
+            try (Consumer<byte[], byte[]> consumer = kafka.createConsumer(
+                    Collections.singletonMap(ConsumerConfig.GROUP_ID_CONFIG, group),
+                    new ByteArrayDeserializer(), new ByteArrayDeserializer())) {
+                consumer.commitSync(offsets);
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        kafka.close();
+    }
+
+    /**
+     * Every partition is compared with committed offsets of every group.
+     */
+    @Benchmark
+    public void unsettledPartitions() throws ExecutionException, InterruptedException {
+        OffsetWatermarkStore.forAdminClient(adminClient).reset();
+        KafkaSupport.waitForPartitionOffsetCommitForPartitions(adminClient, topicPartitions, consumerGroups, settings);
+    }
+
+    /**
+     * End offsets are not changed since the previous barrier, only end offsets are requested.
+     */
+    @Benchmark
+    public void settledPartitions() throws ExecutionException, InterruptedException {
+        KafkaSupport.waitForPartitionOffsetCommitForPartitions(adminClient, topicPartitions, consumerGroups, settings);
+    }
+}
@@ -0,0 +1,121 @@
+package pw.avvero.spring.sandbox;
+
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.common.Metric;
+import org.apache.kafka.common.MetricName;
+import org.apache.kafka.common.TopicPartition;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.support.GenericApplicationContext;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.listener.ContainerProperties;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import pw.avvero.test.kafka.KafkaSupport;
+import pw.avvero.test.kafka.KafkaSupportSettings;
+import pw.avvero.test.kafka.PartitionAssignmentListener;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the overhead of waiting for partition assignment with a fake {@link KafkaListenerEndpointRegistry} which
+ * containers have partitions assigned already.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PartitionAssignmentBenchmark {
+
+    @Param({"1", "10", "100"})
+    int containers;
+
+    GenericApplicationContext applicationContext;
+    KafkaSupportSettings settings;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        List<MessageListenerContainer> listenerContainers = new ArrayList<>(containers);
+        for (int i = 0; i < containers; i++) {
+            listenerContainers.add(new AssignedContainer("listener" + i, "topic" + i));
+        }
+        applicationContext = new GenericApplicationContext();
+        applicationContext.registerBean(KafkaListenerEndpointRegistry.class, () -> new KafkaListenerEndpointRegistry() {
+            @Override
+            public Collection<MessageListenerContainer> getListenerContainers() {
+                return listenerContainers;
+            }
+        });
+        applicationContext.refresh();
+        settings = KafkaSupportSettings.defaults();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        applicationContext.close();
+    }
+
+    @Benchmark
+    public void waitForPartitionAssignment() throws Exception {
+        KafkaSupport.waitForPartitionAssignment(applicationContext, settings);
+    }
+
+    /**
+     * Container with {@link PartitionAssignmentListener} which has one partition assigned.
+     */
+    static class AssignedContainer implements MessageListenerContainer {
+
+        private final String listenerId;
+        private final ContainerProperties containerProperties;
+        private final Collection<TopicPartition> assignedPartitions;
+
+        AssignedContainer(String listenerId, String topic) {
+            this.listenerId = listenerId;
+            this.containerProperties = new ContainerProperties(topic);
+            this.containerProperties.setGroupId(listenerId);
+            this.assignedPartitions = Collections.singletonList(new TopicPartition(topic, 0));
+            PartitionAssignmentListener.install(containerProperties);
+            ((PartitionAssignmentListener) containerProperties.getConsumerRebalanceListener())
+                    .onPartitionsAssigned(new MockConsumer<>(OffsetResetStrategy.EARLIEST), assignedPartitions);
+        }
+
+        @Override
+        public void setupMessageListener(Object messageListener) {
+        }
+
+        @Override
+        public Map<String, Map<MetricName, ? extends Metric>> metrics() {
+            return Collections.emptyMap();
+        }
+
+        @Override
+        public ContainerProperties getContainerProperties() {
+            return containerProperties;
+        }
+
+        @Override
+        public Collection<TopicPartition> getAssignedPartitions() {
+            return assignedPartitions;
+        }
+
+        @Override
+        public String getListenerId() {
+            return listenerId;
+        }
+
+        @Override
+        public void start() {
+        }
+
+        @Override
+        public void stop() {
+        }
+
+        @Override
+        public boolean isRunning() {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package pw.avvero.spring.sandbox;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import pw.avvero.test.kafka.RecordCaptor;
+import pw.avvero.test.kafka.RecordSnapshot;
+
+import java.util.Collections;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures capturing and reading of records by {@link RecordCaptor} when listener threads and the test thread access
+ * it concurrently.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Group)
+public class RecordCaptorBenchmark {
+
+    /**
+     * Number of distinct keys, 1 is the case of a constant key such as a tenant id.
+     */
+    @Param({"1", "1000"})
+    int keys;
+
+    RecordCaptor recordCaptor;
+    RecordSnapshot[] records;
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        recordCaptor = new RecordCaptor(100_000, 10_000);
+        records = new RecordSnapshot[keys];
+        for (int i = 0; i < keys; i++) {
+            records[i] = RecordSnapshot.builder()
+                    .topic("topic1")
+                    .key("key" + i)
+                    .headers(Collections.emptyMap())
+                    .value("value")
+                    .build();
+        }
+        for (int i = 0; i < 10_000; i++) {
+            recordCaptor.capture(records[i % keys]);
+        }
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(3)
+    public void capture() {
+        recordCaptor.capture(records[ThreadLocalRandom.current().nextInt(keys)]);
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(1)
+    public void getRecordsByKey(Blackhole blackhole) {
+        blackhole.consume(recordCaptor.getRecords("topic1", "key0").size());
+    }
+
+    @Benchmark
+    @Group("uncontended")
+    @GroupThreads(1)
+    public void captureAlone() {
+        recordCaptor.capture(records[ThreadLocalRandom.current().nextInt(keys)]);
+    }
+
+    @Benchmark
+    @Group("topic")
+    @GroupThreads(1)
+    public void getRecordsByTopic(Blackhole blackhole) {
+        blackhole.consume(recordCaptor.getRecords("topic1").size());
+    }
+}
@@ -0,0 +1,74 @@
+package pw.avvero.spring.sandbox;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.kafka.support.DefaultKafkaHeaderMapper;
+import org.springframework.kafka.support.KafkaHeaderMapper;
+import pw.avvero.test.kafka.OffsetSnapshotFrame;
+import pw.avvero.test.kafka.RecordSnapshot;
+import pw.avvero.test.kafka.RecordSnapshotMapper;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures mapping of consumed records to snapshots and rendering of the offset snapshot frame.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RecordMappingBenchmark {
+
+    @Param({"10", "1000"})
+    int rows;
+
+    RecordSnapshotMapper mapper;
+    ConsumerRecord<Object, Object> record;
+    Map<String, Object> convertedHeaders;
+    List<ConsumerRecord<Object, Object>> batch;
+    KafkaHeaderMapper headerMapper;
+    List<TopicPartition> topicPartitions;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        mapper = new RecordSnapshotMapper();
+        record = new ConsumerRecord<>("topic1", 0, 0, "key", "{\"id\":1,\"name\":\"value\"}");
+        convertedHeaders = new HashMap<>();
+        for (int i = 0; i < 3; i++) {
+            record.headers().add("header" + i, ("value" + i).getBytes(StandardCharsets.UTF_8));
+            convertedHeaders.put("header" + i, "value" + i);
+        }
+        convertedHeaders.put("kafka_receivedTopic", "topic1");
+        batch = Collections.nCopies(rows, record);
+        headerMapper = new DefaultKafkaHeaderMapper();
+        topicPartitions = new ArrayList<>(rows);
+        for (int i = 0; i < rows; i++) {
+            topicPartitions.add(new TopicPartition("topic" + i / 10, i % 10));
+        }
+    }
+
+    @Benchmark
+    public RecordSnapshot recordToSnapshot() {
+        return mapper.recordToSnapshot(record, convertedHeaders);
+    }
+
+    @Benchmark
+    public List<RecordSnapshot> recordsToSnapshots() {
+        return mapper.recordsToSnapshots(batch, headerMapper);
+    }
+
+    @Benchmark
+    public String offsetSnapshotFrame() {
+        OffsetSnapshotFrame frame = new OffsetSnapshotFrame();
+        for (TopicPartition topicPartition : topicPartitions) {
+            frame.append("group1", topicPartition, 10L, 10L);
+        }
+        frame.split();
+        return frame.toString();
+    }
+}
@@ -0,0 +1,165 @@
+package pw.avvero.test.kafka;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.admin.AdminClient;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.event.ContextClosedEvent;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static java.util.Collections.singletonMap;
+import static org.apache.kafka.clients.admin.AdminClientConfig.BOOTSTRAP_SERVERS_CONFIG;
+
+/**
+ * Registry of long-lived {@link AdminClient} instances keyed by bootstrap servers. Clients are created lazily on the
+ * first request and reused by subsequent barrier calls, so connection setup is paid once per cluster instead of once
+ * per test. Clients are closed on JVM shutdown or when the last application context that requested them is closed, so
+ * contexts sharing the cluster keep the client as long as any of them is running.
+ */
+@Slf4j
+public final class AdminClientRegistry {
+
+    private static final Duration CLOSE_TIMEOUT = Duration.ofSeconds(5);
+    private static final Map<String, AdminClient> adminClients = new ConcurrentHashMap<>();
+    private static final Map<String, Set<ApplicationContext>> contextsPerCluster = new HashMap<>();
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(AdminClientRegistry::closeAll, "kts-admin-client-shutdown"));
+    }
+
+    private AdminClientRegistry() {
+        // private ctor
+    }
+
+    /**
+     * Returns the shared {@link AdminClient} for the bootstrap servers, creating it if necessary. For servers of
+     * {@link InMemoryKafka} the AdminClient of the in-memory broker is returned.
+     *
+     * @param bootstrapServers the list of bootstrap servers for the Kafka cluster.
+     * @return the shared AdminClient
+     */
+    public static AdminClient getAdminClient(List<String> bootstrapServers) {
+        InMemoryKafka inMemoryKafka = InMemoryKafka.forBootstrapServers(bootstrapServers);
+        if (inMemoryKafka != null) {
+            return inMemoryKafka.getAdminClient();
+        }
+        return adminClients.computeIfAbsent(key(bootstrapServers), k -> {
+            log.debug("[KTS] Creating AdminClient for {}", k);
+            return AdminClient.create(singletonMap(BOOTSTRAP_SERVERS_CONFIG, bootstrapServers));
+        });
+    }
+
+    /**
+     * Returns the shared {@link AdminClient} for the bootstrap servers and closes it when the last application
+     * context that requested it is closed.
+     *
+     * @param applicationContext the Spring application context which uses the cluster.
+     * @param bootstrapServers   the list of bootstrap servers for the Kafka cluster.
+     * @return the shared AdminClient
+     */
+    public static AdminClient getAdminClient(ApplicationContext applicationContext, List<String> bootstrapServers) {
+        if (!(applicationContext instanceof ConfigurableApplicationContext)) {
+            return getAdminClient(bootstrapServers);
+        }
+        String key = key(bootstrapServers);
+        synchronized (contextsPerCluster) {
+            if (contextsPerCluster.computeIfAbsent(key, k -> new HashSet<>()).add(applicationContext)) {
+                ((ConfigurableApplicationContext) applicationContext).addApplicationListener(event -> {
+                    if (event instanceof ContextClosedEvent
+                            && ((ContextClosedEvent) event).getApplicationContext() == applicationContext) {
+                        release(applicationContext, bootstrapServers);
+                    }
+                });
+            }
+            return getAdminClient(bootstrapServers);
+        }
+    }
+
+    private static void release(ApplicationContext applicationContext, List<String> bootstrapServers) {
+        String key = key(bootstrapServers);
+        synchronized (contextsPerCluster) {
+            Set<ApplicationContext> contexts = contextsPerCluster.get(key);
+            if (contexts == null || !contexts.remove(applicationContext) || !contexts.isEmpty()) {
+                return;
+            }
+            contextsPerCluster.remove(key);
+            close(bootstrapServers);
+        }
+    }
+
+    /**
+     * Closes and evicts the shared {@link AdminClient} for the bootstrap servers, if any.
+     *
+     * @param bootstrapServers the list of bootstrap servers for the Kafka cluster.
+     */
+    public static void close(List<String> bootstrapServers) {
+        AdminClient adminClient = adminClients.remove(key(bootstrapServers));
+        if (adminClient != null) {
+            log.debug("[KTS] Closing AdminClient for {}", key(bootstrapServers));
+            adminClient.close(CLOSE_TIMEOUT);
+        }
+    }
+
+    /**
+     * Returns the key of the cluster the AdminClient is connected to. Offsets reported by in-process consumers and
+     * producers are kept per cluster key, see {@link OffsetCommitTracker} and {@link ProducedPartitionsTracker}.
+     *
+     * @param adminClient the AdminClient
+     * @return the key or null if the AdminClient is neither shared by the registry nor the one of {@link InMemoryKafka}
+     */
+    public static String clusterKeyOf(AdminClient adminClient) {
+        if (adminClient instanceof InMemoryAdminClient) {
+            return clusterKey(((InMemoryAdminClient) adminClient).getBootstrapServers());
+        }
+        for (Map.Entry<String, AdminClient> entry : adminClients.entrySet()) {
+            if (entry.getValue() == adminClient) {
+                return entry.getKey();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the key of the cluster of the {@code bootstrap.servers} client property. Keys don't depend on the order
+     * of servers.
+     *
+     * @param bootstrapServers list of servers or comma-separated servers
+     * @return the key or null if servers are not set
+     */
+    public static String clusterKey(Object bootstrapServers) {
+        Collection<?> servers;
+        if (bootstrapServers instanceof Collection) {
+            servers = (Collection<?>) bootstrapServers;
+        } else if (bootstrapServers instanceof String) {
+            servers = Arrays.asList(((String) bootstrapServers).split(","));
+        } else {
+            return null;
+        }
+        StringJoiner key = new StringJoiner(",");
+        servers.stream()
+                .map(server -> server.toString().trim())
+                .filter(server -> !server.isEmpty())
+                .sorted()
+                .forEach(key::add);
+        return key.length() > 0 ? key.toString() : null;
+    }
+
+    /**
+     * Closes and evicts all shared {@link AdminClient} instances.
+     */
+    public static void closeAll() {
+        for (String key : new ArrayList<>(adminClients.keySet())) {
+            AdminClient adminClient = adminClients.remove(key);
+            if (adminClient != null) {
+                adminClient.close(CLOSE_TIMEOUT);
+            }
+        }
+    }
+
+    private static String key(List<String> bootstrapServers) {
+        return String.valueOf(clusterKey(bootstrapServers));
+    }
+}
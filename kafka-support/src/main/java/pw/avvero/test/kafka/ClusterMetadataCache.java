@@ -0,0 +1,236 @@
+package pw.avvero.test.kafka;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.admin.AdminClient;
+import org.apache.kafka.clients.admin.ConsumerGroupDescription;
+import org.apache.kafka.clients.admin.ConsumerGroupListing;
+import org.apache.kafka.clients.admin.DescribeTopicsResult;
+import org.apache.kafka.clients.admin.MemberDescription;
+import org.apache.kafka.common.ConsumerGroupState;
+import org.apache.kafka.common.KafkaFuture;
+import org.apache.kafka.common.TopicPartition;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Collectors;
+
+/**
+ * Cache of topic, partition and consumer group layout of a Kafka cluster used by the offset commit barrier.
+ * <p>
+ * Topic names and consumer groups are requested concurrently, consumer groups that have members are described to find
+ * out partitions assigned to them. Partitions of a topic are described once per refresh of the layout, so partitions
+ * added to existing topics are seen after the time-to-live expires. Within the time-to-live the cached layout is
+ * returned without any request to the cluster. The cache can be invalidated explicitly when the layout is known to be
+ * changed.
+ */
+@Slf4j
+public class ClusterMetadataCache {
+
+    private static final Map<AdminClient, ClusterMetadataCache> caches =
+            Collections.synchronizedMap(new WeakHashMap<>());
+
+    private final Map<String, Integer> partitionsPerTopic = new ConcurrentHashMap<>();
+    private volatile ClusterMetadata metadata;
+
+    /**
+     * Returns the metadata cache of the cluster the AdminClient is connected to.
+     *
+     * @param adminClient the AdminClient
+     * @return the cache
+     */
+    public static ClusterMetadataCache forAdminClient(AdminClient adminClient) {
+        return caches.computeIfAbsent(adminClient, k -> new ClusterMetadataCache());
+    }
+
+    /**
+     * Invalidates caches of all clusters.
+     */
+    public static void invalidateAll() {
+        synchronized (caches) {
+            caches.values().forEach(ClusterMetadataCache::invalidate);
+        }
+    }
+
+    /**
+     * Returns topics, consumer groups and assignments of consumer groups of the cluster, the cached value is returned
+     * if it is not older than {@code ttlMillis}.
+     *
+     * @param adminClient the AdminClient connected to the cluster
+     * @param ttlMillis   time-to-live of the cached value, 0 to request the cluster on every call
+     * @return topics, consumer groups and their assignments
+     * @throws ExecutionException   if an error occurs during the fetching of consumer group or topic information.
+     * @throws InterruptedException if the current thread is interrupted while waiting.
+     */
+    public ClusterMetadata getMetadata(AdminClient adminClient, long ttlMillis)
+            throws ExecutionException, InterruptedException {
+        ClusterMetadata current = metadata;
+        if (current != null && System.currentTimeMillis() - current.getTimestamp() < ttlMillis) {
+            return current;
+        }
+        MetricsRecorder recorder = KafkaSupportMetrics.getRecorder();
+        MetricsSample sample = recorder.startAdminCall();
+        KafkaFuture<Set<String>> topicsFuture = adminClient.listTopics().names();
+        KafkaFuture<Collection<ConsumerGroupListing>> groupsFuture = adminClient.listConsumerGroups().all();
+        Set<String> topics = topicsFuture.get();
+        Map<String, ConsumerGroupState> consumerGroupStates = new HashMap<>();
+        for (ConsumerGroupListing listing : groupsFuture.get()) {
+            consumerGroupStates.put(listing.groupId(), listing.state().orElse(ConsumerGroupState.UNKNOWN));
+        }
+        Set<String> consumerGroups = consumerGroupStates.keySet();
+        recorder.adminCall("listTopicsAndConsumerGroups", sample);
+        Map<String, Set<TopicPartition>> consumerGroupAssignments = describeAssignments(adminClient,
+                consumerGroupStates);
+        // Partition counts are described again, partitions could be added to existing topics
+        partitionsPerTopic.clear();
+        if (current != null && (!current.getTopics().equals(topics)
+                || !current.getConsumerGroups().equals(consumerGroups))) {
+            log.debug("[KTS] Cluster layout is changed: {} topics and {} consumer groups", topics.size(),
+                    consumerGroups.size());
+        }
+        ClusterMetadata refreshed = new ClusterMetadata(System.currentTimeMillis(),
+                AdminClientRegistry.clusterKeyOf(adminClient), topics, consumerGroups, consumerGroupStates,
+                consumerGroupAssignments);
+        metadata = refreshed;
+        return refreshed;
+    }
+
+    /**
+     * Describes consumer groups that have members.
+     *
+     * @return partitions assigned to members of stable consumer groups
+     */
+    private static Map<String, Set<TopicPartition>> describeAssignments(AdminClient adminClient,
+                                                                        Map<String, ConsumerGroupState> consumerGroupStates)
+            throws ExecutionException, InterruptedException {
+        Set<String> activeGroups = consumerGroupStates.entrySet().stream()
+                .filter(e -> !isIdle(e.getValue()))
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toSet());
+        if (activeGroups.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        MetricsRecorder recorder = KafkaSupportMetrics.getRecorder();
+        MetricsSample sample = recorder.startAdminCall();
+        Map<String, ConsumerGroupDescription> descriptions = adminClient.describeConsumerGroups(activeGroups).all().get();
+        recorder.adminCall("describeConsumerGroups", sample);
+        Map<String, Set<TopicPartition>> assignments = new HashMap<>();
+        descriptions.forEach((groupId, description) -> {
+            consumerGroupStates.put(groupId, description.state());
+            // Assignment of a rebalancing group is not final
+            if (description.state() == ConsumerGroupState.STABLE) {
+                Set<TopicPartition> assigned = new HashSet<>();
+                for (MemberDescription member : description.members()) {
+                    assigned.addAll(member.assignment().topicPartitions());
+                }
+                assignments.put(groupId, assigned);
+            }
+        });
+        return assignments;
+    }
+
+    private static boolean isIdle(ConsumerGroupState state) {
+        return state == ConsumerGroupState.EMPTY || state == ConsumerGroupState.DEAD;
+    }
+
+    /**
+     * Returns partitions of the topics. Only topics which partitions are not described since the last refresh of the
+     * layout are described.
+     *
+     * @param adminClient the AdminClient connected to the cluster
+     * @param topics      the topics
+     * @return partitions of the topics
+     * @throws ExecutionException   if an error occurs during the fetching of topic information.
+     * @throws InterruptedException if the current thread is interrupted while waiting.
+     */
+    public Set<TopicPartition> getPartitions(AdminClient adminClient, Set<String> topics)
+            throws ExecutionException, InterruptedException {
+        Map<String, Integer> partitionCounts = new HashMap<>();
+        Set<String> unknownTopics = new HashSet<>();
+        for (String topic : topics) {
+            Integer partitions = partitionsPerTopic.get(topic);
+            if (partitions != null) {
+                partitionCounts.put(topic, partitions);
+            } else {
+                unknownTopics.add(topic);
+            }
+        }
+        if (!unknownTopics.isEmpty()) {
+            MetricsRecorder recorder = KafkaSupportMetrics.getRecorder();
+            MetricsSample sample = recorder.startAdminCall();
+            DescribeTopicsResult topicInfo = adminClient.describeTopics(unknownTopics);
+            for (String topic : unknownTopics) {
+                int partitions = topicInfo.topicNameValues().get(topic).get().partitions().size();
+                partitionCounts.put(topic, partitions);
+                partitionsPerTopic.put(topic, partitions);
+            }
+            recorder.adminCall("describeTopics", sample);
+        }
+        Set<TopicPartition> topicPartitions = new HashSet<>();
+        for (String topic : topics) {
+            int partitions = partitionCounts.getOrDefault(topic, 0);
+            for (int i = 0; i < partitions; i++) {
+                topicPartitions.add(new TopicPartition(topic, i));
+            }
+        }
+        return topicPartitions;
+    }
+
+    /**
+     * Drops cached layout, it is requested from the cluster on the next call.
+     */
+    public void invalidate() {
+        metadata = null;
+        partitionsPerTopic.clear();
+    }
+
+    @Getter
+    @RequiredArgsConstructor
+    public static class ClusterMetadata {
+        private final long timestamp;
+        /**
+         * Key of the cluster, null if the AdminClient is not known to {@link AdminClientRegistry}.
+         */
+        private final String cluster;
+        private final Set<String> topics;
+        private final Set<String> consumerGroups;
+        private final Map<String, ConsumerGroupState> consumerGroupStates;
+        /**
+         * Partitions assigned to members of stable consumer groups.
+         */
+        private final Map<String, Set<TopicPartition>> consumerGroupAssignments;
+
+        /**
+         * Returns partitions to check per consumer group. Stable consumer groups are checked only for partitions
+         * assigned to their members, groups in other states are checked for all partitions. Idle groups (EMPTY or
+         * DEAD) are either left over by stopped consumers or used by consumers with manually assigned partitions.
+         * They are skipped only if idle groups are not included, groups with consumers of the cluster in the current
+         * JVM are checked anyway, see {@link OffsetCommitTracker}.
+         *
+         * @param topicPartitions partitions to check
+         * @param includeIdle     true to check idle consumer groups for all partitions
+         * @return partitions per consumer group, groups with nothing to check are omitted
+         */
+        public Map<String, Set<TopicPartition>> getConsumerGroupPartitions(Set<TopicPartition> topicPartitions,
+                                                                           boolean includeIdle) {
+            OffsetCommitTracker tracker = OffsetCommitTracker.getInstance();
+            Map<String, Set<TopicPartition>> consumerGroupPartitions = new HashMap<>();
+            for (String consumerGroup : consumerGroups) {
+                ConsumerGroupState state = consumerGroupStates.getOrDefault(consumerGroup, ConsumerGroupState.UNKNOWN);
+                Set<TopicPartition> assigned = consumerGroupAssignments.get(consumerGroup);
+                if (assigned != null) {
+                    Set<TopicPartition> partitions = new HashSet<>(assigned);
+                    partitions.retainAll(topicPartitions);
+                    if (!partitions.isEmpty()) {
+                        consumerGroupPartitions.put(consumerGroup, partitions);
+                    }
+                } else if (!isIdle(state) || includeIdle || tracker.isTracked(cluster, consumerGroup)) {
+                    consumerGroupPartitions.put(consumerGroup, topicPartitions);
+                }
+            }
+            return consumerGroupPartitions;
+        }
+    }
+}
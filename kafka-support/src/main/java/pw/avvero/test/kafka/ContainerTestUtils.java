@@ -15,24 +15,26 @@
  *
  * Modified by Belyaev Anton - modified methods:
  * - pw.avvero.test.kafka.ContainerTestUtils.waitForAssignment,
- * - pw.avvero.test.kafka.ContainerTestUtils.waitForSingleContainerAssignment.
+ * - pw.avvero.test.kafka.ContainerTestUtils.awaitAssignment,
+ * - pw.avvero.test.kafka.ContainerTestUtils.pollAssignment,
+ * - pw.avvero.test.kafka.ContainerTestUtils.pause.
  */
 
 package pw.avvero.test.kafka;
 
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
+import java.time.Duration;
 import java.util.Collection;
-import java.util.List;
-import java.util.concurrent.atomic.AtomicReference;
 
-import org.springframework.kafka.test.utils.KafkaTestUtils;
-import org.springframework.util.ReflectionUtils;
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
+import org.springframework.kafka.listener.ConcurrentMessageListenerContainer;
+import org.springframework.kafka.listener.MessageListenerContainer;
 
 /**
- * Utilities for testing listener containers. No hard references to container
- * classes are used to avoid circular project dependencies.
+ * Utilities for testing listener containers.
  * Based on {@link org.springframework.kafka.test.utils.ContainerTestUtils}
+ * <p>
+ * If the container has {@link PartitionAssignmentListener} installed, the waiting thread is woken up by the rebalance
+ * callback as soon as partitions are assigned. Otherwise assigned partitions of the container are polled.
  *
  * @author Gary Russell
  * @since 1.0.3
@@ -48,108 +50,127 @@ public final class ContainerTestUtils {
      * and return the actual number of assigned partitions.
      * This method has been modified from the original version:
      * - The method now returns an integer representing the number of assigned partitions.
-     * - The method no longer throws an IllegalStateException if the actual number of
-     *   assigned partitions does not match the expected number. Instead, it returns the actual
+     * - The method no longer throws an IllegalStateException for a concurrent container if the actual number of
+     *   assigned partitions is less than the expected number. Instead, it returns the actual
      *   count of assigned partitions.
      *
      * @param container the container.
      * @param partitions the number of partitions.
-     * @return an integer value representing [описание возвращаемого значения].
-     * @throws IllegalStateException if the operation cannot be completed (since 2.3.4) as
-     * expected.
-     * @throws ContainerTestUtilsException if the call to the container's
-     * getAssignedPartitions() method fails.
+     * @return the actual number of assigned partitions.
+     * @throws IllegalStateException if the single container does not get the required number of partitions in time.
      */
-    public static int waitForAssignment(Object container, int partitions) { // NOSONAR complexity
-        if (container.getClass().getSimpleName().contains("KafkaMessageListenerContainer")) {
-            return waitForSingleContainerAssignment(container, partitions);
+    public static int waitForAssignment(MessageListenerContainer container, int partitions) {
+        KafkaSupportSettings settings = KafkaSupportSettings.defaults();
+        return waitForAssignment(container, partitions, settings.getAssignmentTimeout(), settings.getWaitStrategy());
+    }
+
+    /**
+     * Wait until the container has the required number of assigned partitions or the timeout is elapsed
+     * and return the actual number of assigned partitions.
+     *
+     * @param container the container.
+     * @param partitions the number of partitions.
+     * @param timeout maximum time to wait.
+     * @param waitStrategy strategy of pausing between checks, used if the container has no
+     * {@link PartitionAssignmentListener}.
+     * @return the actual number of assigned partitions.
+     * @throws IllegalStateException if the single container does not get the required number of partitions in time.
+     */
+    public static int waitForAssignment(MessageListenerContainer container, int partitions, Duration timeout,
+                                        WaitStrategy waitStrategy) {
+        Deadline deadline = Deadline.after(timeout);
+        ConsumerRebalanceListener listener = container.getContainerProperties().getConsumerRebalanceListener();
+        int count = listener instanceof PartitionAssignmentListener
+                ? awaitAssignment((PartitionAssignmentListener) listener, partitions, deadline)
+                : pollAssignment(container, partitions, deadline, waitStrategy);
+        if (count < partitions && !(container instanceof ConcurrentMessageListenerContainer)) {
+            throw new IllegalStateException(String.format("Expected %d but got %d partitions", partitions, count));
         }
-        List<?> containers = KafkaTestUtils.getPropertyValue(container, "containers", List.class);
-        int n = 0;
-        int count = 0;
-        Method getAssignedPartitions = null;
-        while (n++ < 600 && count < partitions) { // NOSONAR magic #
-            count = 0;
-            for (Object aContainer : containers) {
-                if (getAssignedPartitions == null) {
-                    getAssignedPartitions = getAssignedPartitionsMethod(aContainer.getClass());
-                }
-                Collection<?> assignedPartitions;
-                try {
-                    assignedPartitions = (Collection<?>) getAssignedPartitions.invoke(aContainer);
-                }
-                catch (IllegalAccessException | IllegalArgumentException | InvocationTargetException e) {
-                    throw new ContainerTestUtilsException("Failed to invoke container method", e);
-                }
-                if (assignedPartitions != null) {
-                    count += assignedPartitions.size();
-                }
-            }
-            if (count < partitions) {
-                try {
-                    Thread.sleep(100); // NOSONAR magic #
-                }
-                catch (@SuppressWarnings("unused") InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                }
-            }
+        return count;
+    }
+
+    /**
+     * Wait until the container has the required number of assigned partitions
+     * and return the actual number of assigned partitions.
+     *
+     * @param container the container, must be a {@link MessageListenerContainer}.
+     * @param partitions the number of partitions.
+     * @return the actual number of assigned partitions.
+     * @throws IllegalArgumentException if the container is not a {@link MessageListenerContainer}.
+     * @throws IllegalStateException if the single container does not get the required number of partitions in time.
+     * @see #waitForAssignment(MessageListenerContainer, int)
+     */
+    public static int waitForAssignment(Object container, int partitions) {
+        return waitForAssignment(asContainer(container), partitions);
+    }
+
+    /**
+     * Wait until the container has the required number of assigned partitions or the timeout is elapsed
+     * and return the actual number of assigned partitions.
+     *
+     * @param container the container, must be a {@link MessageListenerContainer}.
+     * @param partitions the number of partitions.
+     * @param timeout maximum time to wait.
+     * @param waitStrategy strategy of pausing between checks.
+     * @return the actual number of assigned partitions.
+     * @throws IllegalArgumentException if the container is not a {@link MessageListenerContainer}.
+     * @throws IllegalStateException if the single container does not get the required number of partitions in time.
+     * @see #waitForAssignment(MessageListenerContainer, int, Duration, WaitStrategy)
+     */
+    public static int waitForAssignment(Object container, int partitions, Duration timeout,
+                                        WaitStrategy waitStrategy) {
+        return waitForAssignment(asContainer(container), partitions, timeout, waitStrategy);
+    }
+
+    private static MessageListenerContainer asContainer(Object container) {
+        if (!(container instanceof MessageListenerContainer)) {
+            throw new IllegalArgumentException("Expected MessageListenerContainer but got "
+                    + (container != null ? container.getClass().getName() : null));
         }
-        if (count != partitions) {
-            //throw new IllegalStateException(String.format("Expected %d but got %d partitions", partitions, count));
+        return (MessageListenerContainer) container;
+    }
+
+    private static int awaitAssignment(PartitionAssignmentListener listener, int partitions, Deadline deadline) {
+        try {
+            return listener.awaitAssignment(partitions, deadline);
+        }
+        catch (@SuppressWarnings("unused") InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return 0;
         }
-        return count;
     }
 
-    private static int waitForSingleContainerAssignment(Object container, int partitions) {
+    private static int pollAssignment(MessageListenerContainer container, int partitions, Deadline deadline,
+                                      WaitStrategy waitStrategy) {
         int n = 0;
         int count = 0;
-        Method getAssignedPartitions = getAssignedPartitionsMethod(container.getClass());
-        while (n++ < 600 && count < partitions) { // NOSONAR magic #
-            count = 0;
-            Collection<?> assignedPartitions;
-            try {
-                assignedPartitions = (Collection<?>) getAssignedPartitions.invoke(container);
-            }
-            catch (IllegalAccessException | IllegalArgumentException | InvocationTargetException e1) {
-                throw new ContainerTestUtilsException("Failed to invoke container method", e1);
-            }
-            if (assignedPartitions != null) {
-                count = assignedPartitions.size();
+        while (count < partitions) {
+            Collection<?> assignedPartitions = container.getAssignedPartitions();
+            count = assignedPartitions != null ? assignedPartitions.size() : 0;
+            if (count < partitions && !pause(++n, deadline, waitStrategy)) {
+                break;
             }
-            if (count < partitions) {
-                try {
-                    Thread.sleep(100); // NOSONAR magic #
-                }
-                catch (@SuppressWarnings("unused") InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                }
-            }
-        }
-        if (count != partitions) {
-            throw new IllegalStateException(String.format("Expected %d but got %d partitions", partitions, count));
         }
         return count;
     }
 
-    private static Method getAssignedPartitionsMethod(Class<?> clazz) {
-        final AtomicReference<Method> theMethod = new AtomicReference<Method>();
-        ReflectionUtils.doWithMethods(clazz,
-                method -> theMethod.set(method),
-                method -> method.getName().equals("getAssignedPartitions") && method.getParameterTypes().length == 0);
-        if (theMethod.get() == null) {
-            throw new IllegalStateException(clazz + " has no getAssignedPartitions() method");
+    /**
+     * Pauses before the next check.
+     *
+     * @return false if the deadline is expired or the thread is interrupted, so there should be no more checks.
+     */
+    private static boolean pause(int attempt, Deadline deadline, WaitStrategy waitStrategy) {
+        if (deadline.isExpired()) {
+            return false;
         }
-        return theMethod.get();
-    }
-
-    private static class ContainerTestUtilsException extends RuntimeException {
-
-        private static final long serialVersionUID = 1L;
-
-        ContainerTestUtilsException(String message, Throwable cause) {
-            super(message, cause);
+        try {
+            waitStrategy.pause(attempt, deadline);
+            return true;
+        }
+        catch (@SuppressWarnings("unused") InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
         }
-
     }
 
 }
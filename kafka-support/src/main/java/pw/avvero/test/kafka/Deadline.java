@@ -0,0 +1,43 @@
+package pw.avvero.test.kafka;
+
+import java.time.Duration;
+
+/**
+ * Wall-clock deadline of a wait operation.
+ */
+public final class Deadline {
+
+    private final Duration timeout;
+    private final long deadlineNanos;
+
+    private Deadline(Duration timeout) {
+        this.timeout = timeout;
+        this.deadlineNanos = System.nanoTime() + timeout.toNanos();
+    }
+
+    /**
+     * Creates the deadline which expires after the timeout starting from now.
+     *
+     * @param timeout the timeout
+     * @return the deadline
+     */
+    public static Deadline after(Duration timeout) {
+        return new Deadline(timeout);
+    }
+
+    public Duration getTimeout() {
+        return timeout;
+    }
+
+    public boolean isExpired() {
+        return remainingNanos() <= 0L;
+    }
+
+    public long remainingNanos() {
+        return deadlineNanos - System.nanoTime();
+    }
+
+    public long remainingMillis() {
+        return Math.max(0L, Duration.ofNanos(remainingNanos()).toMillis());
+    }
+}
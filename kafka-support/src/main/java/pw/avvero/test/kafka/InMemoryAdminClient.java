@@ -0,0 +1,186 @@
+package pw.avvero.test.kafka;
+
+import org.apache.kafka.clients.admin.*;
+import org.apache.kafka.clients.admin.internals.CoordinatorKey;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.ConsumerGroupState;
+import org.apache.kafka.common.KafkaFuture;
+import org.apache.kafka.common.Node;
+import org.apache.kafka.common.TopicCollection;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.TopicPartitionInfo;
+import org.apache.kafka.common.Uuid;
+import org.apache.kafka.common.errors.TopicExistsException;
+import org.apache.kafka.common.errors.UnknownTopicOrPartitionException;
+import org.apache.kafka.common.errors.UnsupportedVersionException;
+import org.apache.kafka.common.internals.KafkaFutureImpl;
+
+import java.lang.reflect.Constructor;
+import java.util.*;
+
+/**
+ * AdminClient facade of {@link InMemoryKafka}. Operations used by {@link KafkaSupport}, {@link ClusterMetadataCache}
+ * and {@link OffsetSnapshot} read the broker directly and return completed futures, other operations are served by
+ * {@link MockAdminClient} and don't see the broker. Offsets for timestamps are not listed, see
+ * {@link InMemoryConsumer#offsetsForTimes(Map)} instead.
+ * <p>
+ * Results of listing topics are served by {@link MockAdminClient} which is kept in sync with topics of the broker.
+ * Results of listing consumer groups and their offsets have no public constructor and are instantiated reflectively.
+ */
+class InMemoryAdminClient extends MockAdminClient {
+
+    private final InMemoryKafka kafka;
+    private final Set<String> listedTopics = new HashSet<>();
+
+    InMemoryAdminClient(InMemoryKafka kafka) {
+        super(Collections.singletonList(kafka.getNode()), kafka.getNode());
+        this.kafka = kafka;
+    }
+
+    String getBootstrapServers() {
+        return kafka.getBootstrapServers();
+    }
+
+    @Override
+    public synchronized ListTopicsResult listTopics(ListTopicsOptions options) {
+        for (String topic : kafka.getTopics()) {
+            if (listedTopics.add(topic)) {
+                addTopic(false, topic, partitionInfos(kafka.getPartitions(topic)), null);
+            }
+        }
+        return super.listTopics(options);
+    }
+
+    @Override
+    public DescribeTopicsResult describeTopics(TopicCollection topics, DescribeTopicsOptions options) {
+        if (!(topics instanceof TopicCollection.TopicNameCollection)) {
+            return super.describeTopics(topics, options);
+        }
+        Map<String, KafkaFuture<TopicDescription>> descriptions = new HashMap<>();
+        for (String topic : ((TopicCollection.TopicNameCollection) topics).topicNames()) {
+            int partitions = kafka.getPartitions(topic);
+            if (partitions == 0) {
+                descriptions.put(topic, failed(new UnknownTopicOrPartitionException(
+                        "Topic " + topic + " not found.")));
+                continue;
+            }
+            descriptions.put(topic, KafkaFuture.completedFuture(new TopicDescription(topic, false,
+                    partitionInfos(partitions))));
+        }
+        return new DescribeTopicsResult(null, descriptions) {
+        };
+    }
+
+    private List<TopicPartitionInfo> partitionInfos(int partitions) {
+        Node node = kafka.getNode();
+        List<Node> replicas = Collections.singletonList(node);
+        List<TopicPartitionInfo> partitionInfos = new ArrayList<>(partitions);
+        for (int p = 0; p < partitions; p++) {
+            partitionInfos.add(new TopicPartitionInfo(p, node, replicas, replicas));
+        }
+        return partitionInfos;
+    }
+
+    @Override
+    public CreateTopicsResult createTopics(Collection<NewTopic> newTopics, CreateTopicsOptions options) {
+        Map<String, KafkaFuture<CreateTopicsResult.TopicMetadataAndConfig>> results = new HashMap<>();
+        for (NewTopic newTopic : newTopics) {
+            String topic = newTopic.name();
+            int partitions = newTopic.numPartitions() > 0 ? newTopic.numPartitions() : kafka.getDefaultPartitions();
+            boolean created = options.shouldValidateOnly()
+                    ? kafka.getPartitions(topic) == 0
+                    : kafka.createTopic(topic, partitions);
+            results.put(topic, created
+                    ? KafkaFuture.completedFuture(new CreateTopicsResult.TopicMetadataAndConfig(Uuid.ZERO_UUID,
+                    partitions, 1, new Config(Collections.emptyList())))
+                    : failed(new TopicExistsException("Topic '" + topic + "' already exists.")));
+        }
+        return new CreateTopicsResult(results) {
+        };
+    }
+
+    @Override
+    public ListOffsetsResult listOffsets(Map<TopicPartition, OffsetSpec> topicPartitionOffsets,
+                                         ListOffsetsOptions options) {
+        Map<TopicPartition, KafkaFuture<ListOffsetsResult.ListOffsetsResultInfo>> results = new HashMap<>();
+        topicPartitionOffsets.forEach((partition, spec) -> results.put(partition, listOffset(partition, spec)));
+        return new ListOffsetsResult(results);
+    }
+
+    private KafkaFuture<ListOffsetsResult.ListOffsetsResultInfo> listOffset(TopicPartition partition, OffsetSpec spec) {
+        if (kafka.getPartitions(partition.topic()) <= partition.partition()) {
+            return failed(new UnknownTopicOrPartitionException("Partition " + partition + " not found."));
+        }
+        long offset;
+        if (spec instanceof OffsetSpec.LatestSpec) {
+            offset = kafka.endOffset(partition);
+        } else if (spec instanceof OffsetSpec.EarliestSpec) {
+            offset = 0L;
+        } else {
+            return failed(new UnsupportedVersionException("Offset spec is not supported: " + spec));
+        }
+        return KafkaFuture.completedFuture(new ListOffsetsResult.ListOffsetsResultInfo(offset, -1L,
+                Optional.empty()));
+    }
+
+    @Override
+    public ListConsumerGroupsResult listConsumerGroups(ListConsumerGroupsOptions options) {
+        List<ConsumerGroupListing> listings = new ArrayList<>();
+        for (InMemoryKafka.GroupSnapshot group : kafka.describeGroups()) {
+            if (options.states().isEmpty() || options.states().contains(group.state)) {
+                listings.add(new ConsumerGroupListing(group.groupId, false, Optional.of(group.state)));
+            }
+        }
+        return newResult(ListConsumerGroupsResult.class, KafkaFuture.class,
+                KafkaFuture.completedFuture(listings));
+    }
+
+    @Override
+    public DescribeConsumerGroupsResult describeConsumerGroups(Collection<String> groupIds,
+                                                               DescribeConsumerGroupsOptions options) {
+        Map<String, InMemoryKafka.GroupSnapshot> groups = new HashMap<>();
+        for (InMemoryKafka.GroupSnapshot group : kafka.describeGroups()) {
+            groups.put(group.groupId, group);
+        }
+        Map<String, KafkaFuture<ConsumerGroupDescription>> descriptions = new HashMap<>();
+        for (String groupId : groupIds) {
+            InMemoryKafka.GroupSnapshot group = groups.get(groupId);
+            List<MemberDescription> members = new ArrayList<>();
+            if (group != null) {
+                group.assignments.forEach((memberId, partitions) -> members.add(new MemberDescription(memberId,
+                        group.clientIds.get(memberId), "/127.0.0.1", new MemberAssignment(partitions))));
+            }
+            // Like the broker, unknown groups are described as dead
+            descriptions.put(groupId, KafkaFuture.completedFuture(new ConsumerGroupDescription(groupId, false,
+                    members, "range", group != null ? group.state : ConsumerGroupState.DEAD,
+                    kafka.getNode())));
+        }
+        return new DescribeConsumerGroupsResult(descriptions);
+    }
+
+    @Override
+    public ListConsumerGroupOffsetsResult listConsumerGroupOffsets(Map<String, ListConsumerGroupOffsetsSpec> groupSpecs,
+                                                                   ListConsumerGroupOffsetsOptions options) {
+        Map<CoordinatorKey, KafkaFuture<Map<TopicPartition, OffsetAndMetadata>>> offsets = new HashMap<>();
+        groupSpecs.forEach((group, spec) -> offsets.put(CoordinatorKey.byGroupId(group),
+                KafkaFuture.completedFuture(kafka.committed(group, spec.topicPartitions()))));
+        return newResult(ListConsumerGroupOffsetsResult.class, Map.class, offsets);
+    }
+
+    private static <T> T newResult(Class<T> type, Class<?> parameterType, Object value) {
+        try {
+            Constructor<T> constructor = type.getDeclaredConstructor(parameterType);
+            constructor.setAccessible(true);
+            return constructor.newInstance(value);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            throw new IllegalStateException("[KTS] Can't create " + type.getSimpleName() + " of in-memory Kafka, " +
+                    "constructor " + type.getSimpleName() + "(" + parameterType.getSimpleName() + ") is expected", e);
+        }
+    }
+
+    private static <T> KafkaFuture<T> failed(Exception exception) {
+        KafkaFutureImpl<T> future = new KafkaFutureImpl<>();
+        future.completeExceptionally(exception);
+        return future;
+    }
+}
@@ -0,0 +1,649 @@
+package pw.avvero.test.kafka;
+
+import org.apache.kafka.clients.consumer.*;
+import org.apache.kafka.clients.consumer.internals.ConsumerInterceptors;
+import org.apache.kafka.clients.consumer.internals.NoOpConsumerRebalanceListener;
+import org.apache.kafka.common.Metric;
+import org.apache.kafka.common.MetricName;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.InvalidGroupIdException;
+import org.apache.kafka.common.errors.WakeupException;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.apache.kafka.common.serialization.Deserializer;
+import org.apache.kafka.common.utils.Utils;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+import static org.apache.kafka.clients.consumer.ConsumerConfig.*;
+
+/**
+ * Consumer of {@link InMemoryKafka}. Like {@link KafkaConsumer} it joins the consumer group on the first poll and
+ * takes changes of the assignment in poll, calling the {@link ConsumerRebalanceListener} from the polling thread.
+ * Partitions which are kept by the member keep their positions, the listener is called with revoked and added
+ * partitions only. Poll waits for changes of the broker, not for a fetch interval. Interceptors of
+ * {@code interceptor.classes} are applied, so {@link OffsetCommitInterceptor} reports commits as with a real consumer.
+ * <p>
+ * The consumer is not thread-safe, only {@link #wakeup()} can be called from another thread.
+ */
+class InMemoryConsumer<K, V> implements Consumer<K, V> {
+
+    private static final AtomicInteger clientCounter = new AtomicInteger();
+
+    private final InMemoryKafka kafka;
+    private final String groupId;
+    private final String clientId;
+    private final Deserializer<K> keyDeserializer;
+    private final Deserializer<V> valueDeserializer;
+    private final ConsumerInterceptors<K, V> interceptors;
+    private final int maxPollRecords;
+    private final String autoOffsetReset;
+    private final boolean autoCommit;
+    private final long autoCommitIntervalMs;
+    private final AtomicBoolean wakeup = new AtomicBoolean();
+
+    private Collection<String> subscribedTopics;
+    private Pattern subscribedPattern;
+    private ConsumerRebalanceListener rebalanceListener;
+    private String memberId;
+    private int generation = -1;
+    private final Set<TopicPartition> assignment = new LinkedHashSet<>();
+    private final Map<TopicPartition, Long> positions = new HashMap<>();
+    private final Set<TopicPartition> paused = new HashSet<>();
+    private long nextAutoCommitMs;
+    private int fetchStart;
+    private boolean closed;
+
+    @SuppressWarnings("unchecked")
+    InMemoryConsumer(InMemoryKafka kafka, Map<String, Object> configs, Deserializer<K> keyDeserializer,
+                     Deserializer<V> valueDeserializer) {
+        this.kafka = kafka;
+        Map<String, Object> withDeserializers = new HashMap<>(configs);
+        if (keyDeserializer != null) {
+            withDeserializers.put(KEY_DESERIALIZER_CLASS_CONFIG, keyDeserializer.getClass());
+        }
+        if (valueDeserializer != null) {
+            withDeserializers.put(VALUE_DESERIALIZER_CLASS_CONFIG, valueDeserializer.getClass());
+        }
+        ConsumerConfig config = new ConsumerConfig(withDeserializers);
+        if (keyDeserializer == null) {
+            keyDeserializer = config.getConfiguredInstance(KEY_DESERIALIZER_CLASS_CONFIG, Deserializer.class);
+            keyDeserializer.configure(config.originals(), true);
+        }
+        if (valueDeserializer == null) {
+            valueDeserializer = config.getConfiguredInstance(VALUE_DESERIALIZER_CLASS_CONFIG, Deserializer.class);
+            valueDeserializer.configure(config.originals(), false);
+        }
+        this.keyDeserializer = keyDeserializer;
+        this.valueDeserializer = valueDeserializer;
+        this.groupId = config.getString(GROUP_ID_CONFIG);
+        String configuredClientId = config.getString(CLIENT_ID_CONFIG);
+        this.clientId = configuredClientId == null || configuredClientId.isEmpty()
+                ? "consumer-" + (groupId != null ? groupId + "-" : "") + clientCounter.incrementAndGet()
+                : configuredClientId;
+        List<ConsumerInterceptor<K, V>> interceptorList = (List) config.getConfiguredInstances(
+                INTERCEPTOR_CLASSES_CONFIG, ConsumerInterceptor.class,
+                Collections.singletonMap(CLIENT_ID_CONFIG, clientId));
+        this.interceptors = new ConsumerInterceptors<>(interceptorList);
+        this.maxPollRecords = config.getInt(MAX_POLL_RECORDS_CONFIG);
+        this.autoOffsetReset = config.getString(AUTO_OFFSET_RESET_CONFIG);
+        this.autoCommit = groupId != null && config.getBoolean(ENABLE_AUTO_COMMIT_CONFIG);
+        this.autoCommitIntervalMs = config.getInt(AUTO_COMMIT_INTERVAL_MS_CONFIG);
+    }
+
+    //
+
+    @Override
+    public void subscribe(Collection<String> topics) {
+        subscribe(topics, new NoOpConsumerRebalanceListener());
+    }
+
+    @Override
+    public void subscribe(Collection<String> topics, ConsumerRebalanceListener listener) {
+        if (topics == null || topics.isEmpty()) {
+            unsubscribe();
+            return;
+        }
+        subscribe(new HashSet<>(topics), null, listener);
+    }
+
+    @Override
+    public void subscribe(Pattern pattern) {
+        subscribe(pattern, new NoOpConsumerRebalanceListener());
+    }
+
+    @Override
+    public void subscribe(Pattern pattern, ConsumerRebalanceListener listener) {
+        subscribe(null, pattern, listener);
+    }
+
+    private void subscribe(Collection<String> topics, Pattern pattern, ConsumerRebalanceListener listener) {
+        ensureOpen();
+        ensureGroupId();
+        if (memberId == null && !assignment.isEmpty()) {
+            throw new IllegalStateException("Subscription to topics, partitions and pattern are mutually exclusive");
+        }
+        leaveGroup();
+        this.subscribedTopics = topics;
+        this.subscribedPattern = pattern;
+        this.rebalanceListener = listener;
+    }
+
+    @Override
+    public void assign(Collection<TopicPartition> partitions) {
+        ensureOpen();
+        if (subscribedTopics != null || subscribedPattern != null) {
+            throw new IllegalStateException("Subscription to topics, partitions and pattern are mutually exclusive");
+        }
+        for (TopicPartition partition : partitions) {
+            kafka.partitionsFor(partition.topic());
+        }
+        assignment.clear();
+        assignment.addAll(partitions);
+        positions.keySet().retainAll(assignment);
+        paused.retainAll(assignment);
+    }
+
+    @Override
+    public void unsubscribe() {
+        ensureOpen();
+        leaveGroup();
+        subscribedTopics = null;
+        subscribedPattern = null;
+        rebalanceListener = null;
+        assignment.clear();
+        positions.clear();
+        paused.clear();
+    }
+
+    /**
+     * Revokes the assignment and leaves the group, the member joins again on the next poll.
+     */
+    private void leaveGroup() {
+        if (memberId == null) {
+            return;
+        }
+        if (!assignment.isEmpty() && rebalanceListener != null) {
+            rebalanceListener.onPartitionsRevoked(new ArrayList<>(assignment));
+        }
+        kafka.leave(groupId, memberId);
+        memberId = null;
+        generation = -1;
+        assignment.clear();
+        positions.clear();
+        paused.clear();
+    }
+
+    @Override
+    public Set<TopicPartition> assignment() {
+        return Collections.unmodifiableSet(new HashSet<>(assignment));
+    }
+
+    @Override
+    public Set<String> subscription() {
+        if (subscribedTopics != null) {
+            return Collections.unmodifiableSet(new HashSet<>(subscribedTopics));
+        }
+        if (subscribedPattern != null) {
+            Set<String> topics = new HashSet<>();
+            for (TopicPartition partition : assignment) {
+                topics.add(partition.topic());
+            }
+            return Collections.unmodifiableSet(topics);
+        }
+        return Collections.emptySet();
+    }
+
+    //
+
+    @Override
+    @Deprecated
+    public ConsumerRecords<K, V> poll(long timeoutMs) {
+        return poll(Duration.ofMillis(timeoutMs));
+    }
+
+    @Override
+    public ConsumerRecords<K, V> poll(Duration timeout) {
+        ensureOpen();
+        if (assignment.isEmpty() && subscribedTopics == null && subscribedPattern == null) {
+            throw new IllegalStateException("Consumer is not subscribed to any topics or assigned any partitions");
+        }
+        long deadline = System.nanoTime() + timeout.toNanos();
+        while (true) {
+            if (wakeup.getAndSet(false)) {
+                throw new WakeupException();
+            }
+            long version = kafka.getVersion();
+            maybeAutoCommit();
+            updateAssignment();
+            ConsumerRecords<K, V> records = fetch();
+            if (!records.isEmpty()) {
+                return interceptors.onConsume(records);
+            }
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0L) {
+                return ConsumerRecords.empty();
+            }
+            kafka.awaitChange(version, Math.min(remaining, autoCommitWaitNanos()));
+        }
+    }
+
+    private long autoCommitWaitNanos() {
+        return autoCommit ? Math.max(0L, nextAutoCommitMs - System.currentTimeMillis()) * 1_000_000L : Long.MAX_VALUE;
+    }
+
+    /**
+     * Joins the group and takes the assignment of the current generation, the listener is called with the partitions
+     * which are revoked from and added to the member.
+     */
+    private void updateAssignment() {
+        if (subscribedTopics == null && subscribedPattern == null) {
+            return;
+        }
+        if (memberId == null) {
+            memberId = kafka.join(groupId, clientId, subscribedTopics, subscribedPattern);
+        }
+        InMemoryKafka.Assignment current = kafka.assignment(groupId, memberId);
+        if (current.generation == generation) {
+            return;
+        }
+        List<TopicPartition> revoked = new ArrayList<>();
+        for (TopicPartition partition : assignment) {
+            if (!current.partitions.contains(partition)) {
+                revoked.add(partition);
+            }
+        }
+        List<TopicPartition> added = new ArrayList<>();
+        for (TopicPartition partition : current.partitions) {
+            if (!assignment.contains(partition)) {
+                added.add(partition);
+            }
+        }
+        if (!revoked.isEmpty()) {
+            rebalanceListener.onPartitionsRevoked(revoked);
+        }
+        assignment.retainAll(current.partitions);
+        assignment.addAll(added);
+        positions.keySet().retainAll(assignment);
+        paused.retainAll(assignment);
+        generation = current.generation;
+        rebalanceListener.onPartitionsAssigned(added);
+        kafka.acknowledge(groupId, memberId, generation);
+    }
+
+    /**
+     * Fetches records of assigned partitions which are not paused. The first partition rotates between polls, so a
+     * busy partition doesn't starve the others.
+     */
+    private ConsumerRecords<K, V> fetch() {
+        List<TopicPartition> fetchable = new ArrayList<>(assignment.size());
+        for (TopicPartition partition : assignment) {
+            if (!paused.contains(partition)) {
+                fetchable.add(partition);
+            }
+        }
+        if (fetchable.isEmpty()) {
+            return ConsumerRecords.empty();
+        }
+        Map<TopicPartition, List<ConsumerRecord<K, V>>> records = new LinkedHashMap<>();
+        int remaining = maxPollRecords;
+        int start = fetchStart++;
+        for (int i = 0; i < fetchable.size() && remaining > 0; i++) {
+            TopicPartition partition = fetchable.get(Utils.toPositive(start + i) % fetchable.size());
+            long position = position(partition);
+            List<ConsumerRecord<byte[], byte[]>> stored = kafka.read(partition, position, remaining);
+            if (stored.isEmpty()) {
+                continue;
+            }
+            List<ConsumerRecord<K, V>> deserialized = new ArrayList<>(stored.size());
+            for (ConsumerRecord<byte[], byte[]> record : stored) {
+                deserialized.add(deserialize(record));
+            }
+            records.put(partition, deserialized);
+            positions.put(partition, position + stored.size());
+            remaining -= stored.size();
+        }
+        return records.isEmpty() ? ConsumerRecords.empty() : new ConsumerRecords<>(records);
+    }
+
+    private ConsumerRecord<K, V> deserialize(ConsumerRecord<byte[], byte[]> record) {
+        RecordHeaders headers = new RecordHeaders(record.headers().toArray());
+        K key = keyDeserializer.deserialize(record.topic(), headers, record.key());
+        V value = valueDeserializer.deserialize(record.topic(), headers, record.value());
+        return new ConsumerRecord<>(record.topic(), record.partition(), record.offset(), record.timestamp(),
+                record.timestampType(), record.serializedKeySize(), record.serializedValueSize(), key, value, headers,
+                Optional.empty());
+    }
+
+    private void maybeAutoCommit() {
+        if (!autoCommit || memberId == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (now >= nextAutoCommitMs) {
+            nextAutoCommitMs = now + autoCommitIntervalMs;
+            if (!positions.isEmpty()) {
+                commitSync();
+            }
+        }
+    }
+
+    //
+
+    @Override
+    public void commitSync() {
+        commitSync(currentOffsets());
+    }
+
+    @Override
+    public void commitSync(Duration timeout) {
+        commitSync();
+    }
+
+    @Override
+    public void commitSync(Map<TopicPartition, OffsetAndMetadata> offsets) {
+        ensureOpen();
+        ensureGroupId();
+        if (offsets.isEmpty()) {
+            return;
+        }
+        kafka.commit(groupId, offsets);
+        interceptors.onCommit(offsets);
+    }
+
+    @Override
+    public void commitSync(Map<TopicPartition, OffsetAndMetadata> offsets, Duration timeout) {
+        commitSync(offsets);
+    }
+
+    @Override
+    public void commitAsync() {
+        commitAsync(null);
+    }
+
+    @Override
+    public void commitAsync(OffsetCommitCallback callback) {
+        commitAsync(currentOffsets(), callback);
+    }
+
+    @Override
+    public void commitAsync(Map<TopicPartition, OffsetAndMetadata> offsets, OffsetCommitCallback callback) {
+        Exception exception = null;
+        try {
+            commitSync(offsets);
+        } catch (RuntimeException e) {
+            exception = e;
+        }
+        if (callback != null) {
+            callback.onComplete(offsets, exception);
+        }
+    }
+
+    private Map<TopicPartition, OffsetAndMetadata> currentOffsets() {
+        Map<TopicPartition, OffsetAndMetadata> offsets = new HashMap<>();
+        positions.forEach((partition, position) -> offsets.put(partition, new OffsetAndMetadata(position)));
+        return offsets;
+    }
+
+    @Deprecated
+    @Override
+    public OffsetAndMetadata committed(TopicPartition partition) {
+        return committed(Collections.singleton(partition)).get(partition);
+    }
+
+    @Deprecated
+    @Override
+    public OffsetAndMetadata committed(TopicPartition partition, Duration timeout) {
+        return committed(partition);
+    }
+
+    @Override
+    public Map<TopicPartition, OffsetAndMetadata> committed(Set<TopicPartition> partitions) {
+        ensureOpen();
+        ensureGroupId();
+        return kafka.committed(groupId, partitions);
+    }
+
+    @Override
+    public Map<TopicPartition, OffsetAndMetadata> committed(Set<TopicPartition> partitions, Duration timeout) {
+        return committed(partitions);
+    }
+
+    //
+
+    @Override
+    public void seek(TopicPartition partition, long offset) {
+        if (offset < 0) {
+            throw new IllegalArgumentException("seek offset must not be a negative number");
+        }
+        ensureAssigned(partition);
+        positions.put(partition, offset);
+    }
+
+    @Override
+    public void seek(TopicPartition partition, OffsetAndMetadata offsetAndMetadata) {
+        seek(partition, offsetAndMetadata.offset());
+    }
+
+    @Override
+    public void seekToBeginning(Collection<TopicPartition> partitions) {
+        for (TopicPartition partition : partitions.isEmpty() ? assignment : partitions) {
+            ensureAssigned(partition);
+            positions.put(partition, 0L);
+        }
+    }
+
+    @Override
+    public void seekToEnd(Collection<TopicPartition> partitions) {
+        for (TopicPartition partition : partitions.isEmpty() ? assignment : partitions) {
+            ensureAssigned(partition);
+            positions.put(partition, kafka.endOffset(partition));
+        }
+    }
+
+    /**
+     * Returns the position of the partition, an unknown position is resolved from the committed offset or reset
+     * according to {@code auto.offset.reset}.
+     */
+    @Override
+    public long position(TopicPartition partition) {
+        ensureOpen();
+        ensureAssigned(partition);
+        Long position = positions.get(partition);
+        if (position == null) {
+            OffsetAndMetadata committed = groupId != null ? kafka.committed(groupId,
+                    Collections.singleton(partition)).get(partition) : null;
+            if (committed != null) {
+                position = committed.offset();
+            } else if ("earliest".equals(autoOffsetReset)) {
+                position = 0L;
+            } else if ("latest".equals(autoOffsetReset)) {
+                position = kafka.endOffset(partition);
+            } else {
+                throw new NoOffsetForPartitionException(partition);
+            }
+            positions.put(partition, position);
+        }
+        return position;
+    }
+
+    @Override
+    public long position(TopicPartition partition, Duration timeout) {
+        return position(partition);
+    }
+
+    private void ensureAssigned(TopicPartition partition) {
+        if (!assignment.contains(partition)) {
+            throw new IllegalStateException("No current assignment for partition " + partition);
+        }
+    }
+
+    @Override
+    public Set<TopicPartition> paused() {
+        return Collections.unmodifiableSet(new HashSet<>(paused));
+    }
+
+    @Override
+    public void pause(Collection<TopicPartition> partitions) {
+        for (TopicPartition partition : partitions) {
+            ensureAssigned(partition);
+            paused.add(partition);
+        }
+    }
+
+    @Override
+    public void resume(Collection<TopicPartition> partitions) {
+        for (TopicPartition partition : partitions) {
+            ensureAssigned(partition);
+            paused.remove(partition);
+        }
+    }
+
+    //
+
+    @Override
+    public List<PartitionInfo> partitionsFor(String topic) {
+        return kafka.partitionInfos(topic);
+    }
+
+    @Override
+    public List<PartitionInfo> partitionsFor(String topic, Duration timeout) {
+        return partitionsFor(topic);
+    }
+
+    @Override
+    public Map<String, List<PartitionInfo>> listTopics() {
+        Map<String, List<PartitionInfo>> topics = new HashMap<>();
+        for (String topic : kafka.getTopics()) {
+            topics.put(topic, kafka.partitionInfos(topic));
+        }
+        return topics;
+    }
+
+    @Override
+    public Map<String, List<PartitionInfo>> listTopics(Duration timeout) {
+        return listTopics();
+    }
+
+    @Override
+    public Map<TopicPartition, OffsetAndTimestamp> offsetsForTimes(Map<TopicPartition, Long> timestampsToSearch) {
+        Map<TopicPartition, OffsetAndTimestamp> offsets = new HashMap<>();
+        timestampsToSearch.forEach((partition, timestamp) -> {
+            ConsumerRecord<byte[], byte[]> record = kafka.recordForTimestamp(partition, timestamp);
+            offsets.put(partition, record != null ? new OffsetAndTimestamp(record.offset(), record.timestamp()) : null);
+        });
+        return offsets;
+    }
+
+    @Override
+    public Map<TopicPartition, OffsetAndTimestamp> offsetsForTimes(Map<TopicPartition, Long> timestampsToSearch,
+                                                                   Duration timeout) {
+        return offsetsForTimes(timestampsToSearch);
+    }
+
+    @Override
+    public Map<TopicPartition, Long> beginningOffsets(Collection<TopicPartition> partitions) {
+        Map<TopicPartition, Long> offsets = new HashMap<>();
+        for (TopicPartition partition : partitions) {
+            kafka.endOffset(partition);
+            offsets.put(partition, 0L);
+        }
+        return offsets;
+    }
+
+    @Override
+    public Map<TopicPartition, Long> beginningOffsets(Collection<TopicPartition> partitions, Duration timeout) {
+        return beginningOffsets(partitions);
+    }
+
+    @Override
+    public Map<TopicPartition, Long> endOffsets(Collection<TopicPartition> partitions) {
+        Map<TopicPartition, Long> offsets = new HashMap<>();
+        for (TopicPartition partition : partitions) {
+            offsets.put(partition, kafka.endOffset(partition));
+        }
+        return offsets;
+    }
+
+    @Override
+    public Map<TopicPartition, Long> endOffsets(Collection<TopicPartition> partitions, Duration timeout) {
+        return endOffsets(partitions);
+    }
+
+    @Override
+    public OptionalLong currentLag(TopicPartition partition) {
+        Long position = positions.get(partition);
+        return position != null ? OptionalLong.of(kafka.endOffset(partition) - position) : OptionalLong.empty();
+    }
+
+    @Override
+    public ConsumerGroupMetadata groupMetadata() {
+        ensureOpen();
+        ensureGroupId();
+        return new ConsumerGroupMetadata(groupId, generation,
+                memberId != null ? memberId : "", Optional.empty());
+    }
+
+    @Override
+    public void enforceRebalance() {
+        // Assignment is recomputed on every change of the group
+    }
+
+    @Override
+    public void enforceRebalance(String reason) {
+        enforceRebalance();
+    }
+
+    @Override
+    public Map<MetricName, ? extends Metric> metrics() {
+        return Collections.emptyMap();
+    }
+
+    //
+
+    @Override
+    public void wakeup() {
+        wakeup.set(true);
+        kafka.signal();
+    }
+
+    @Override
+    public void close() {
+        close(Duration.ZERO);
+    }
+
+    @Override
+    public void close(Duration timeout) {
+        if (closed) {
+            return;
+        }
+        try {
+            if (autoCommit && memberId != null) {
+                commitSync();
+            }
+            leaveGroup();
+        } finally {
+            closed = true;
+            Utils.closeQuietly(interceptors, "consumer interceptors");
+            Utils.closeQuietly(keyDeserializer, "consumer key deserializer");
+            Utils.closeQuietly(valueDeserializer, "consumer value deserializer");
+        }
+    }
+
+    private void ensureGroupId() {
+        if (groupId == null) {
+            throw new InvalidGroupIdException("To use the group management or offset commit APIs, you must "
+                    + "provide a valid group.id in the consumer configuration.");
+        }
+    }
+
+    private void ensureOpen() {
+        if (closed) {
+            throw new IllegalStateException("This consumer has already been closed.");
+        }
+    }
+}
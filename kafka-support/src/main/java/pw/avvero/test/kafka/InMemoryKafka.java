@@ -0,0 +1,632 @@
+package pw.avvero.test.kafka;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.admin.AdminClient;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.ConsumerGroupState;
+import org.apache.kafka.common.Node;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.InterruptException;
+import org.apache.kafka.common.errors.UnknownTopicOrPartitionException;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.apache.kafka.common.record.TimestampType;
+import org.apache.kafka.common.serialization.Deserializer;
+import org.apache.kafka.common.serialization.Serializer;
+import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
+import org.springframework.kafka.core.DefaultKafkaProducerFactory;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Pattern;
+
+import static org.apache.kafka.clients.CommonClientConfigs.BOOTSTRAP_SERVERS_CONFIG;
+
+/**
+ * In-JVM stand-in of a Kafka broker for tests that need topic semantics but not a real cluster. Topics consist of
+ * partitioned append-only logs, consumer groups keep members, their assignments and committed offsets. Clients are
+ * created with {@link #producerFactory(Map)} and {@link #consumerFactory(Map)}, the cluster is inspected with
+ * {@link #getAdminClient()}:
+ * <pre>
+ * &#64;Bean
+ * InMemoryKafka inMemoryKafka() {
+ *     return new InMemoryKafka();
+ * }
+ *
+ * &#64;Bean
+ * KafkaConnectionDetails kafkaConnectionDetails(InMemoryKafka kafka) {
+ *     return () -&gt; List.of(kafka.getBootstrapServers());
+ * }
+ *
+ * &#64;Bean
+ * ProducerFactory&lt;Object, Object&gt; kafkaProducerFactory(InMemoryKafka kafka, KafkaProperties properties) {
+ *     return kafka.producerFactory(properties.buildProducerProperties(null));
+ * }
+ *
+ * &#64;Bean
+ * ConsumerFactory&lt;Object, Object&gt; kafkaConsumerFactory(InMemoryKafka kafka, KafkaProperties properties) {
+ *     return kafka.consumerFactory(properties.buildConsumerProperties(null));
+ * }
+ * </pre>
+ * The broker is registered by its bootstrap servers, so {@link AdminClientRegistry} returns the in-memory
+ * AdminClient and {@link KafkaSupport#waitForPartitionOffsetCommit} reads offsets directly from memory. Topics are
+ * created on the first use with {@link #getDefaultPartitions()} partitions, like on a broker with
+ * {@code auto.create.topics.enable}.
+ * <p>
+ * Rebalances are immediate: a member takes its new assignment on the next poll, the group is reported as stable once
+ * every member has taken the assignment of the current generation. Transactions are not isolated, records of a
+ * transaction are visible at once.
+ */
+@Slf4j
+public class InMemoryKafka implements AutoCloseable {
+
+    public static final int DEFAULT_PARTITIONS = 1;
+
+    private static final AtomicInteger counter = new AtomicInteger();
+    private static final Map<String, InMemoryKafka> brokers = new ConcurrentHashMap<>();
+
+    private final String bootstrapServers;
+    private final Node node;
+    private final int defaultPartitions;
+    private final InMemoryAdminClient adminClient;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    /**
+     * Number of changes, consumers wait for it to change instead of polling the logs.
+     */
+    private volatile long version;
+    private final Map<String, Partition[]> topics = new ConcurrentHashMap<>();
+    private final Map<String, ConsumerGroup> groups = new HashMap<>();
+    private final AtomicInteger memberCounter = new AtomicInteger();
+
+    public InMemoryKafka() {
+        this(DEFAULT_PARTITIONS);
+    }
+
+    /**
+     * @param defaultPartitions number of partitions of topics created on the first use
+     */
+    public InMemoryKafka(int defaultPartitions) {
+        if (defaultPartitions < 1) {
+            throw new IllegalArgumentException("Number of partitions must be positive: " + defaultPartitions);
+        }
+        int id = counter.incrementAndGet();
+        this.node = new Node(0, "in-memory-" + id, 9092);
+        this.bootstrapServers = node.host() + ":" + node.port();
+        this.defaultPartitions = defaultPartitions;
+        this.adminClient = new InMemoryAdminClient(this);
+        brokers.put(bootstrapServers, this);
+        log.debug("[KTS] In-memory Kafka is started at {}", bootstrapServers);
+    }
+
+    /**
+     * Returns the in-memory broker for the bootstrap servers.
+     *
+     * @param bootstrapServers the list of bootstrap servers
+     * @return the broker or null if none of the servers is an in-memory broker
+     */
+    public static InMemoryKafka forBootstrapServers(List<String> bootstrapServers) {
+        for (String server : bootstrapServers) {
+            InMemoryKafka kafka = brokers.get(server.trim());
+            if (kafka != null) {
+                return kafka;
+            }
+        }
+        return null;
+    }
+
+    public String getBootstrapServers() {
+        return bootstrapServers;
+    }
+
+    public int getDefaultPartitions() {
+        return defaultPartitions;
+    }
+
+    /**
+     * @return AdminClient facade of the broker, it is shared and stays usable after close
+     */
+    public AdminClient getAdminClient() {
+        return adminClient;
+    }
+
+    /**
+     * Creates a producer factory which producers write to the broker. Serializers are taken from the factory or
+     * instantiated from the configuration, as with {@link DefaultKafkaProducerFactory}.
+     *
+     * @param configs producer configuration, bootstrap servers are replaced with the servers of the broker
+     * @return the factory
+     */
+    public <K, V> DefaultKafkaProducerFactory<K, V> producerFactory(Map<String, Object> configs) {
+        return new DefaultKafkaProducerFactory<K, V>(withBootstrapServers(configs)) {
+            @Override
+            protected Producer<K, V> createRawProducer(Map<String, Object> rawConfigs) {
+                return InMemoryKafka.this.createProducer(rawConfigs, getKeySerializer(), getValueSerializer());
+            }
+        };
+    }
+
+    /**
+     * Creates a consumer factory which consumers read from the broker. Deserializers are taken from the factory or
+     * instantiated from the configuration, as with {@link DefaultKafkaConsumerFactory}.
+     *
+     * @param configs consumer configuration, bootstrap servers are replaced with the servers of the broker
+     * @return the factory
+     */
+    public <K, V> DefaultKafkaConsumerFactory<K, V> consumerFactory(Map<String, Object> configs) {
+        return new DefaultKafkaConsumerFactory<K, V>(withBootstrapServers(configs)) {
+            @Override
+            protected Consumer<K, V> createRawConsumer(Map<String, Object> rawConfigs) {
+                return InMemoryKafka.this.createConsumer(rawConfigs, getKeyDeserializer(), getValueDeserializer());
+            }
+        };
+    }
+
+    /**
+     * @param configs         producer configuration
+     * @param keySerializer   the key serializer or null to instantiate it from the configuration
+     * @param valueSerializer the value serializer or null to instantiate it from the configuration
+     * @return producer writing to the broker
+     */
+    public <K, V> Producer<K, V> createProducer(Map<String, Object> configs, Serializer<K> keySerializer,
+                                                Serializer<V> valueSerializer) {
+        return new InMemoryProducer<>(this, withBootstrapServers(configs), keySerializer, valueSerializer);
+    }
+
+    /**
+     * @param configs           consumer configuration
+     * @param keyDeserializer   the key deserializer or null to instantiate it from the configuration
+     * @param valueDeserializer the value deserializer or null to instantiate it from the configuration
+     * @return consumer reading from the broker
+     */
+    public <K, V> Consumer<K, V> createConsumer(Map<String, Object> configs, Deserializer<K> keyDeserializer,
+                                                Deserializer<V> valueDeserializer) {
+        return new InMemoryConsumer<>(this, withBootstrapServers(configs), keyDeserializer, valueDeserializer);
+    }
+
+    private Map<String, Object> withBootstrapServers(Map<String, Object> configs) {
+        Map<String, Object> result = new HashMap<>(configs);
+        result.put(BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
+        return result;
+    }
+
+    /**
+     * Creates the topic.
+     *
+     * @param topic      the topic
+     * @param partitions number of partitions
+     * @return false if the topic already exists
+     */
+    public boolean createTopic(String topic, int partitions) {
+        if (partitions < 1) {
+            throw new IllegalArgumentException("Number of partitions must be positive: " + partitions);
+        }
+        lock.lock();
+        try {
+            if (topics.containsKey(topic)) {
+                return false;
+            }
+            Partition[] topicPartitions = new Partition[partitions];
+            for (int p = 0; p < partitions; p++) {
+                topicPartitions[p] = new Partition();
+            }
+            topics.put(topic, topicPartitions);
+            log.debug("[KTS] Topic {} is created with {} partitions", topic, partitions);
+            // Pattern subscriptions may match the new topic
+            for (ConsumerGroup group : groups.values()) {
+                rebalance(group, false);
+            }
+            signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Set<String> getTopics() {
+        return new TreeSet<>(topics.keySet());
+    }
+
+    /**
+     * @return number of partitions of the topic or 0 if the topic doesn't exist
+     */
+    public int getPartitions(String topic) {
+        Partition[] partitions = topics.get(topic);
+        return partitions != null ? partitions.length : 0;
+    }
+
+    /**
+     * Returns records of the partition as they are stored.
+     *
+     * @param topicPartition the partition
+     * @return records in the order of offsets
+     */
+    public List<ConsumerRecord<byte[], byte[]>> getRecords(TopicPartition topicPartition) {
+        return new ArrayList<>(partition(topicPartition).log.snapshot());
+    }
+
+    /**
+     * @return number of partitions of the topic, the topic is created if it doesn't exist
+     */
+    int partitionsFor(String topic) {
+        Partition[] partitions = topics.get(topic);
+        if (partitions == null) {
+            createTopic(topic, defaultPartitions);
+            partitions = topics.get(topic);
+        }
+        return partitions.length;
+    }
+
+    List<PartitionInfo> partitionInfos(String topic) {
+        int partitions = partitionsFor(topic);
+        List<PartitionInfo> infos = new ArrayList<>(partitions);
+        Node[] replicas = {node};
+        for (int p = 0; p < partitions; p++) {
+            infos.add(new PartitionInfo(topic, p, node, replicas, replicas));
+        }
+        return infos;
+    }
+
+    Node getNode() {
+        return node;
+    }
+
+    private Partition partition(TopicPartition topicPartition) {
+        Partition[] partitions = topics.get(topicPartition.topic());
+        if (partitions == null || topicPartition.partition() < 0
+                || topicPartition.partition() >= partitions.length) {
+            throw new UnknownTopicOrPartitionException("Partition " + topicPartition + " not found.");
+        }
+        return partitions[topicPartition.partition()];
+    }
+
+    RecordMetadata append(TopicPartition topicPartition, Long timestamp, byte[] key, byte[] value, Headers headers) {
+        Partition partition = partition(topicPartition);
+        long recordTimestamp = timestamp != null ? timestamp : System.currentTimeMillis();
+        int keySize = key != null ? key.length : -1;
+        int valueSize = value != null ? value.length : -1;
+        long offset;
+        lock.lock();
+        try {
+            offset = partition.log.size();
+            partition.log.append(new ConsumerRecord<>(topicPartition.topic(), topicPartition.partition(), offset,
+                    recordTimestamp, TimestampType.CREATE_TIME, keySize, valueSize, key, value,
+                    new RecordHeaders(headers.toArray()), Optional.empty()));
+            signal();
+        } finally {
+            lock.unlock();
+        }
+        return new RecordMetadata(topicPartition, offset, 0, recordTimestamp, keySize, valueSize);
+    }
+
+    /**
+     * Reads records of the partition, the log is not locked.
+     *
+     * @return up to {@code max} records starting from the offset
+     */
+    List<ConsumerRecord<byte[], byte[]>> read(TopicPartition topicPartition, long offset, int max) {
+        List<ConsumerRecord<byte[], byte[]>> log = partition(topicPartition).log.snapshot();
+        if (offset >= log.size()) {
+            return Collections.emptyList();
+        }
+        return log.subList((int) offset, (int) Math.min(log.size(), offset + max));
+    }
+
+    long endOffset(TopicPartition topicPartition) {
+        return partition(topicPartition).log.size();
+    }
+
+    /**
+     * @return the first record which timestamp is not less than the given one, null if there is no such record
+     */
+    ConsumerRecord<byte[], byte[]> recordForTimestamp(TopicPartition topicPartition, long timestamp) {
+        for (ConsumerRecord<byte[], byte[]> record : partition(topicPartition).log.snapshot()) {
+            if (record.timestamp() >= timestamp) {
+                return record;
+            }
+        }
+        return null;
+    }
+
+    //
+
+    String join(String groupId, String clientId, Collection<String> subscribedTopics, Pattern pattern) {
+        if (subscribedTopics != null) {
+            subscribedTopics.forEach(this::partitionsFor);
+        }
+        lock.lock();
+        try {
+            ConsumerGroup group = groups.computeIfAbsent(groupId, ConsumerGroup::new);
+            String memberId = clientId + "-" + memberCounter.incrementAndGet();
+            group.members.put(memberId, new Member(memberId, clientId, subscribedTopics, pattern));
+            rebalance(group, true);
+            log.trace("[KTS] Member {} joined group {}, generation {}", memberId, groupId, group.generation);
+            signal();
+            return memberId;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void leave(String groupId, String memberId) {
+        lock.lock();
+        try {
+            ConsumerGroup group = groups.get(groupId);
+            if (group != null && group.members.remove(memberId) != null) {
+                rebalance(group, true);
+                log.trace("[KTS] Member {} left group {}, generation {}", memberId, groupId, group.generation);
+                signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return assignment of the member in the current generation of the group
+     */
+    Assignment assignment(String groupId, String memberId) {
+        lock.lock();
+        try {
+            ConsumerGroup group = groups.get(groupId);
+            Member member = group != null ? group.members.get(memberId) : null;
+            if (member == null) {
+                throw new IllegalStateException("Member " + memberId + " is not in group " + groupId);
+            }
+            return new Assignment(group.generation, member.assignment);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Marks the generation as taken by the member, the group is stable once all members have taken it.
+     */
+    void acknowledge(String groupId, String memberId, int generation) {
+        lock.lock();
+        try {
+            ConsumerGroup group = groups.get(groupId);
+            Member member = group != null ? group.members.get(memberId) : null;
+            if (member != null) {
+                member.generation = generation;
+                signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Assigns partitions of subscribed topics to members of the group, partitions of every topic are spread across
+     * the members subscribed to it. The generation is increased if members or the assignment are changed.
+     */
+    private void rebalance(ConsumerGroup group, boolean membersChanged) {
+        Map<String, Set<TopicPartition>> assignments = new HashMap<>();
+        for (String memberId : group.members.keySet()) {
+            assignments.put(memberId, new HashSet<>());
+        }
+        for (String topic : new TreeSet<>(topics.keySet())) {
+            List<Member> subscribers = new ArrayList<>();
+            for (Member member : group.members.values()) {
+                if (member.isSubscribed(topic)) {
+                    subscribers.add(member);
+                }
+            }
+            if (subscribers.isEmpty()) {
+                continue;
+            }
+            int partitions = topics.get(topic).length;
+            for (int p = 0; p < partitions; p++) {
+                assignments.get(subscribers.get(p % subscribers.size()).memberId).add(new TopicPartition(topic, p));
+            }
+        }
+        boolean changed = false;
+        for (Member member : group.members.values()) {
+            Set<TopicPartition> assignment = Collections.unmodifiableSet(assignments.get(member.memberId));
+            if (!assignment.equals(member.assignment)) {
+                member.assignment = assignment;
+                changed = true;
+            }
+        }
+        if (changed || membersChanged) {
+            group.generation++;
+        }
+    }
+
+    void commit(String groupId, Map<TopicPartition, OffsetAndMetadata> offsets) {
+        lock.lock();
+        try {
+            groups.computeIfAbsent(groupId, ConsumerGroup::new).committed.putAll(offsets);
+            signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return committed offsets of the partitions, partitions without committed offset are mapped to null
+     */
+    Map<TopicPartition, OffsetAndMetadata> committed(String groupId, Collection<TopicPartition> topicPartitions) {
+        lock.lock();
+        try {
+            ConsumerGroup group = groups.get(groupId);
+            Map<TopicPartition, OffsetAndMetadata> offsets = new HashMap<>();
+            if (topicPartitions == null) {
+                if (group != null) {
+                    offsets.putAll(group.committed);
+                }
+                return offsets;
+            }
+            for (TopicPartition topicPartition : topicPartitions) {
+                offsets.put(topicPartition, group != null ? group.committed.get(topicPartition) : null);
+            }
+            return offsets;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return snapshots of consumer groups in the order of group ids
+     */
+    List<GroupSnapshot> describeGroups() {
+        lock.lock();
+        try {
+            List<GroupSnapshot> snapshots = new ArrayList<>(groups.size());
+            for (ConsumerGroup group : new TreeMap<>(groups).values()) {
+                Map<String, Set<TopicPartition>> assignments = new LinkedHashMap<>();
+                Map<String, String> clientIds = new HashMap<>();
+                for (Member member : group.members.values()) {
+                    assignments.put(member.memberId, member.assignment);
+                    clientIds.put(member.memberId, member.clientId);
+                }
+                snapshots.add(new GroupSnapshot(group.groupId, group.state(), assignments, clientIds));
+            }
+            return snapshots;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //
+
+    long getVersion() {
+        return version;
+    }
+
+    /**
+     * Waits until the broker is changed after the given version.
+     *
+     * @return false if the timeout is elapsed
+     */
+    boolean awaitChange(long seenVersion, long timeoutNanos) {
+        lock.lock();
+        try {
+            long nanos = timeoutNanos;
+            while (version == seenVersion) {
+                if (nanos <= 0L) {
+                    return false;
+                }
+                nanos = changed.awaitNanos(nanos);
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptException(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Wakes up waiting consumers.
+     */
+    void signal() {
+        lock.lock();
+        try {
+            version++;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Unregisters the broker, clients created before keep working with its data.
+     */
+    @Override
+    public void close() {
+        if (brokers.remove(bootstrapServers, this)) {
+            signal();
+            log.debug("[KTS] In-memory Kafka at {} is closed", bootstrapServers);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "InMemoryKafka(" + bootstrapServers + ")";
+    }
+
+    private static final class Partition {
+        private final RecordLog<ConsumerRecord<byte[], byte[]>> log = new RecordLog<>();
+    }
+
+    private static final class ConsumerGroup {
+        private final String groupId;
+        private final Map<String, Member> members = new TreeMap<>();
+        private final Map<TopicPartition, OffsetAndMetadata> committed = new HashMap<>();
+        private int generation;
+
+        private ConsumerGroup(String groupId) {
+            this.groupId = groupId;
+        }
+
+        private ConsumerGroupState state() {
+            if (members.isEmpty()) {
+                return ConsumerGroupState.EMPTY;
+            }
+            for (Member member : members.values()) {
+                if (member.generation != generation) {
+                    return ConsumerGroupState.COMPLETING_REBALANCE;
+                }
+            }
+            return ConsumerGroupState.STABLE;
+        }
+    }
+
+    private static final class Member {
+        private final String memberId;
+        private final String clientId;
+        private final Collection<String> topics;
+        private final Pattern pattern;
+        private Set<TopicPartition> assignment = Collections.emptySet();
+        /**
+         * The last generation taken by the member.
+         */
+        private int generation = -1;
+
+        private Member(String memberId, String clientId, Collection<String> topics, Pattern pattern) {
+            this.memberId = memberId;
+            this.clientId = clientId;
+            this.topics = topics;
+            this.pattern = pattern;
+        }
+
+        private boolean isSubscribed(String topic) {
+            return topics != null ? topics.contains(topic) : pattern.matcher(topic).matches();
+        }
+    }
+
+    static final class Assignment {
+        final int generation;
+        final Set<TopicPartition> partitions;
+
+        Assignment(int generation, Set<TopicPartition> partitions) {
+            this.generation = generation;
+            this.partitions = partitions;
+        }
+    }
+
+    static final class GroupSnapshot {
+        final String groupId;
+        final ConsumerGroupState state;
+        final Map<String, Set<TopicPartition>> assignments;
+        final Map<String, String> clientIds;
+
+        GroupSnapshot(String groupId, ConsumerGroupState state, Map<String, Set<TopicPartition>> assignments,
+                      Map<String, String> clientIds) {
+            this.groupId = groupId;
+            this.state = state;
+            this.assignments = assignments;
+            this.clientIds = clientIds;
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package pw.avvero.test.kafka;
+
+import org.apache.kafka.clients.consumer.ConsumerGroupMetadata;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.producer.*;
+import org.apache.kafka.clients.producer.internals.ProducerInterceptors;
+import org.apache.kafka.common.Metric;
+import org.apache.kafka.common.MetricName;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.serialization.Serializer;
+import org.apache.kafka.common.utils.Utils;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.apache.kafka.clients.producer.ProducerConfig.*;
+
+/**
+ * Producer of {@link InMemoryKafka}. Records are appended to the log of the partition on send, so returned futures are
+ * already completed and {@link #flush()} has nothing to wait for. Records with a key are partitioned by the murmur2
+ * hash of the key like with the default partitioner, records without a key are spread round-robin. Interceptors of
+ * {@code interceptor.classes} are applied.
+ */
+class InMemoryProducer<K, V> implements Producer<K, V> {
+
+    private final InMemoryKafka kafka;
+    private final Serializer<K> keySerializer;
+    private final Serializer<V> valueSerializer;
+    private final ProducerInterceptors<K, V> interceptors;
+    private final AtomicInteger roundRobin = new AtomicInteger();
+    private volatile boolean closed;
+
+    @SuppressWarnings("unchecked")
+    InMemoryProducer(InMemoryKafka kafka, Map<String, Object> configs, Serializer<K> keySerializer,
+                     Serializer<V> valueSerializer) {
+        this.kafka = kafka;
+        Map<String, Object> withSerializers = new HashMap<>(configs);
+        if (keySerializer != null) {
+            withSerializers.put(KEY_SERIALIZER_CLASS_CONFIG, keySerializer.getClass());
+        }
+        if (valueSerializer != null) {
+            withSerializers.put(VALUE_SERIALIZER_CLASS_CONFIG, valueSerializer.getClass());
+        }
+        ProducerConfig config = new ProducerConfig(withSerializers);
+        if (keySerializer == null) {
+            keySerializer = config.getConfiguredInstance(KEY_SERIALIZER_CLASS_CONFIG, Serializer.class);
+            keySerializer.configure(config.originals(), true);
+        }
+        if (valueSerializer == null) {
+            valueSerializer = config.getConfiguredInstance(VALUE_SERIALIZER_CLASS_CONFIG, Serializer.class);
+            valueSerializer.configure(config.originals(), false);
+        }
+        this.keySerializer = keySerializer;
+        this.valueSerializer = valueSerializer;
+        List<ProducerInterceptor<K, V>> interceptorList = (List) config.getConfiguredInstances(
+                INTERCEPTOR_CLASSES_CONFIG, ProducerInterceptor.class,
+                Collections.singletonMap(CLIENT_ID_CONFIG, config.getString(CLIENT_ID_CONFIG)));
+        this.interceptors = new ProducerInterceptors<>(interceptorList);
+    }
+
+    @Override
+    public Future<RecordMetadata> send(ProducerRecord<K, V> record) {
+        return send(record, null);
+    }
+
+    @Override
+    public Future<RecordMetadata> send(ProducerRecord<K, V> record, Callback callback) {
+        if (closed) {
+            throw new IllegalStateException("Cannot perform operation after producer has been closed");
+        }
+        ProducerRecord<K, V> intercepted = interceptors.onSend(record);
+        String topic = intercepted.topic();
+        Headers headers = intercepted.headers();
+        byte[] key;
+        byte[] value;
+        try {
+            key = keySerializer.serialize(topic, headers, intercepted.key());
+            value = valueSerializer.serialize(topic, headers, intercepted.value());
+        } catch (SerializationException e) {
+            interceptors.onSendError(intercepted, ProducerInterceptors.extractTopicPartition(intercepted), e);
+            throw e;
+        }
+        TopicPartition topicPartition = new TopicPartition(topic, partition(intercepted, key));
+        RecordMetadata metadata = kafka.append(topicPartition, intercepted.timestamp(), key, value, headers);
+        if (callback != null) {
+            callback.onCompletion(metadata, null);
+        }
+        interceptors.onAcknowledgement(metadata, null);
+        return CompletableFuture.completedFuture(metadata);
+    }
+
+    private int partition(ProducerRecord<K, V> record, byte[] key) {
+        int partitions = kafka.partitionsFor(record.topic());
+        if (record.partition() != null) {
+            return record.partition();
+        }
+        if (key != null) {
+            return Utils.toPositive(Utils.murmur2(key)) % partitions;
+        }
+        return Utils.toPositive(roundRobin.getAndIncrement()) % partitions;
+    }
+
+    @Override
+    public void flush() {
+        // Records are appended on send
+    }
+
+    @Override
+    public List<PartitionInfo> partitionsFor(String topic) {
+        return kafka.partitionInfos(topic);
+    }
+
+    @Override
+    public Map<MetricName, ? extends Metric> metrics() {
+        return Collections.emptyMap();
+    }
+
+    @Override
+    public void initTransactions() {
+        // Transactions are not isolated
+    }
+
+    @Override
+    public void beginTransaction() {
+        // Transactions are not isolated
+    }
+
+    @Override
+    @Deprecated
+    public void sendOffsetsToTransaction(Map<TopicPartition, OffsetAndMetadata> offsets, String consumerGroupId) {
+        kafka.commit(consumerGroupId, offsets);
+    }
+
+    @Override
+    public void sendOffsetsToTransaction(Map<TopicPartition, OffsetAndMetadata> offsets,
+                                         ConsumerGroupMetadata groupMetadata) {
+        kafka.commit(groupMetadata.groupId(), offsets);
+    }
+
+    @Override
+    public void commitTransaction() {
+        // Transactions are not isolated
+    }
+
+    @Override
+    public void abortTransaction() {
+        // Records of the transaction are already visible
+    }
+
+    @Override
+    public void close() {
+        close(Duration.ZERO);
+    }
+
+    @Override
+    public void close(Duration timeout) {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        Utils.closeQuietly(interceptors, "producer interceptors");
+        Utils.closeQuietly(keySerializer, "producer keySerializer");
+        Utils.closeQuietly(valueSerializer, "producer valueSerializer");
+    }
+}
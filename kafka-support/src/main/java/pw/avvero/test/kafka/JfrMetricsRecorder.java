@@ -0,0 +1,139 @@
+package pw.avvero.test.kafka;
+
+import jdk.jfr.*;
+
+import java.util.function.Supplier;
+
+/**
+ * {@link MetricsRecorder} which emits JFR events of category "Kafka Test Support". Events are committed only while
+ * a recording is running, for example with {@code -XX:StartFlightRecording}.
+ * <p>
+ * Events of timed operations are begun by {@code start*} methods and ended by callbacks, so their start time and
+ * duration are measured by JFR itself.
+ */
+public class JfrMetricsRecorder implements MetricsRecorder {
+
+    @Override
+    public MetricsSample startAssignment() {
+        return new EventSample(new AssignmentEvent());
+    }
+
+    @Override
+    public void assignment(MetricsSample sample, int containers, int failedContainers) {
+        AssignmentEvent event = event(sample, AssignmentEvent.class, AssignmentEvent::new);
+        if (event.shouldCommit()) {
+            event.containers = containers;
+            event.failedContainers = failedContainers;
+            event.commit();
+        }
+    }
+
+    @Override
+    public MetricsSample startOffsetCommit() {
+        return new EventSample(new OffsetCommitEvent());
+    }
+
+    @Override
+    public void offsetCommit(String barrier, MetricsSample sample, int attempts, boolean committed) {
+        OffsetCommitEvent event = event(sample, OffsetCommitEvent.class, OffsetCommitEvent::new);
+        if (event.shouldCommit()) {
+            event.barrier = barrier;
+            event.attempts = attempts;
+            event.committed = committed;
+            event.commit();
+        }
+    }
+
+    @Override
+    public MetricsSample startAdminCall() {
+        return new EventSample(new AdminCallEvent());
+    }
+
+    @Override
+    public void adminCall(String operation, MetricsSample sample) {
+        AdminCallEvent event = event(sample, AdminCallEvent.class, AdminCallEvent::new);
+        if (event.shouldCommit()) {
+            event.operation = operation;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void recordsCaptured(String topic, int records, int topicSize) {
+        RecordsCapturedEvent event = new RecordsCapturedEvent();
+        if (event.shouldCommit()) {
+            event.topic = topic;
+            event.records = records;
+            event.topicSize = topicSize;
+            event.commit();
+        }
+    }
+
+    /**
+     * Returns the ended event begun for the sample. The sample could be started by another recorder, if the recorder
+     * is replaced while the operation is running, then the event covers only the callback.
+     */
+    private static <E extends Event> E event(MetricsSample sample, Class<E> type, Supplier<E> factory) {
+        E event;
+        if (sample instanceof EventSample && type.isInstance(((EventSample) sample).event)) {
+            event = type.cast(((EventSample) sample).event);
+        } else {
+            event = factory.get();
+            event.begin();
+        }
+        event.end();
+        return event;
+    }
+
+    static class EventSample extends MetricsSample {
+
+        private final Event event;
+
+        EventSample(Event event) {
+            this.event = event;
+            event.begin();
+        }
+    }
+
+    @Name("pw.avvero.kts.Assignment")
+    @Label("Partition Assignment")
+    @Category("Kafka Test Support")
+    static class AssignmentEvent extends Event {
+        @Label("Containers")
+        int containers;
+        @Label("Failed Containers")
+        int failedContainers;
+    }
+
+    @Name("pw.avvero.kts.OffsetCommit")
+    @Label("Offset Commit")
+    @Category("Kafka Test Support")
+    static class OffsetCommitEvent extends Event {
+        @Label("Barrier")
+        String barrier;
+        @Label("Attempts")
+        int attempts;
+        @Label("Committed")
+        boolean committed;
+    }
+
+    @Name("pw.avvero.kts.AdminCall")
+    @Label("Admin Call")
+    @Category("Kafka Test Support")
+    static class AdminCallEvent extends Event {
+        @Label("Operation")
+        String operation;
+    }
+
+    @Name("pw.avvero.kts.RecordsCaptured")
+    @Label("Records Captured")
+    @Category("Kafka Test Support")
+    static class RecordsCapturedEvent extends Event {
+        @Label("Topic")
+        String topic;
+        @Label("Records")
+        int records;
+        @Label("Topic Size")
+        int topicSize;
+    }
+}
@@ -0,0 +1,98 @@
+package pw.avvero.test.kafka;
+
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import org.apache.kafka.common.TopicPartition;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Namespace of topics and consumer groups of an application context sharing the Kafka cluster with other contexts.
+ * Names belong to the namespace if they start with the prefix and end with the suffix. Barriers of a context with a
+ * namespace check only topics and consumer groups of the namespace, so contexts don't wait for each other.
+ * <p>
+ * Is configured with properties:
+ * <pre>
+ * test.kafka-support.namespace.prefix=ctx1-
+ * test.kafka-support.namespace.suffix=
+ * </pre>
+ */
+@Getter
+@EqualsAndHashCode
+public final class KafkaNamespace {
+
+    /**
+     * Namespace that contains every topic and consumer group of the cluster.
+     */
+    public static final KafkaNamespace NONE = new KafkaNamespace("", "");
+
+    private final String prefix;
+    private final String suffix;
+
+    private KafkaNamespace(String prefix, String suffix) {
+        this.prefix = prefix;
+        this.suffix = suffix;
+    }
+
+    public static KafkaNamespace of(String prefix, String suffix) {
+        String p = prefix != null ? prefix : "";
+        String s = suffix != null ? suffix : "";
+        return p.isEmpty() && s.isEmpty() ? NONE : new KafkaNamespace(p, s);
+    }
+
+    public boolean isEnabled() {
+        return this != NONE;
+    }
+
+    /**
+     * Returns the name of the topic or consumer group in the namespace.
+     *
+     * @param name name without the prefix and the suffix
+     * @return the name with the prefix and the suffix
+     */
+    public String name(String name) {
+        return prefix + name + suffix;
+    }
+
+    public boolean contains(String name) {
+        return name.length() >= prefix.length() + suffix.length() && name.startsWith(prefix) && name.endsWith(suffix);
+    }
+
+    public boolean contains(TopicPartition topicPartition) {
+        return contains(topicPartition.topic());
+    }
+
+    public Set<String> filter(Set<String> names) {
+        if (!isEnabled()) {
+            return names;
+        }
+        Set<String> filtered = new HashSet<>();
+        for (String name : names) {
+            if (contains(name)) {
+                filtered.add(name);
+            }
+        }
+        return filtered;
+    }
+
+    public <V> Map<TopicPartition, V> filterPartitions(Map<TopicPartition, V> partitions) {
+        if (!isEnabled()) {
+            return partitions;
+        }
+        Map<TopicPartition, V> filtered = new HashMap<>();
+        partitions.forEach((topicPartition, value) -> {
+            if (contains(topicPartition)) {
+                filtered.put(topicPartition, value);
+            }
+        });
+        return filtered;
+    }
+
+    @Override
+    public String toString() {
+        return prefix + "*" + suffix;
+    }
+}
@@ -2,20 +2,23 @@ package pw.avvero.test.kafka;
 
 import lombok.extern.slf4j.Slf4j;
 import org.apache.kafka.clients.admin.*;
+import org.apache.kafka.common.KafkaFuture;
 import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.TopicExistsException;
+import org.apache.kafka.common.errors.UnknownTopicOrPartitionException;
 import org.springframework.boot.autoconfigure.kafka.KafkaConnectionDetails;
 import org.springframework.context.ApplicationContext;
 import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
 import org.springframework.kafka.listener.ContainerProperties;
 import org.springframework.kafka.listener.MessageListenerContainer;
 
+import java.time.Duration;
 import java.util.*;
-import java.util.concurrent.ExecutionException;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
-import static java.util.Collections.singletonMap;
 import static java.util.stream.Collectors.toMap;
-import static org.apache.kafka.clients.admin.AdminClientConfig.BOOTSTRAP_SERVERS_CONFIG;
 
 /**
  * Utility class providing support functions for Kafka in Spring applications.
@@ -23,13 +26,24 @@ import static org.apache.kafka.clients.admin.AdminClientConfig.BOOTSTRAP_SERVERS
 @Slf4j
 public class KafkaSupport {
 
-    public static int OFFSET_COMMIT_WAIT_ATTEMPTS_MAX = 200;
-    public static int OFFSET_COMMIT_WAIT_TIME = 10;
+    /**
+     * @deprecated use {@link KafkaSupportSettings#getOffsetCommitTimeout()}. If the field is changed, barriers called
+     * without settings wait for {@code OFFSET_COMMIT_WAIT_ATTEMPTS_MAX * OFFSET_COMMIT_WAIT_TIME} ms.
+     */
+    @Deprecated
+    public static int OFFSET_COMMIT_WAIT_ATTEMPTS_MAX = KafkaSupportSettings.LEGACY_OFFSET_COMMIT_WAIT_ATTEMPTS_MAX;
+    /**
+     * @deprecated use {@link KafkaSupportSettings#getWaitStrategy()}. If the field is changed, barriers called without
+     * settings pause for the fixed delay of {@code OFFSET_COMMIT_WAIT_TIME} ms between attempts.
+     */
+    @Deprecated
+    public static int OFFSET_COMMIT_WAIT_TIME = KafkaSupportSettings.LEGACY_OFFSET_COMMIT_WAIT_TIME;
 
     /**
      * Waits for the partition assignment for all Kafka listener containers in the application context.
      * This method ensures that each Kafka listener container is assigned at least one partition
-     * before proceeding. It also initializes Kafka producer by sending a test message.
+     * before proceeding. Meanwhile, it initializes producers of Kafka templates and fetches metadata of listener topics
+     * without sending any message, see {@link ProducerWarmup}.
      *
      * <p>This method is useful in scenarios where the application needs to wait for the Kafka
      * consumers to be fully set up and ready before performing certain operations.</p>
@@ -38,29 +52,115 @@ public class KafkaSupport {
      * @throws Exception if an error occurs during the process.
      */
     public static void waitForPartitionAssignment(ApplicationContext applicationContext) throws Exception {
+        waitForPartitionAssignment(applicationContext, KafkaSupportSettings.from(applicationContext.getEnvironment()));
+    }
+
+    /**
+     * Waits for the partition assignment for all Kafka listener containers in the application context. Containers are
+     * awaited concurrently, so the wait takes as long as the slowest assignment, and all of them share the single
+     * deadline defined by {@link KafkaSupportSettings#getAssignmentTimeout()}. Producers are warmed up concurrently
+     * if {@link KafkaSupportSettings#isProducerWarmUp()} is enabled. Once partitions are assigned, the warm-up is
+     * awaited for at most {@link KafkaSupportSettings#getProducerWarmUpTimeout()} within the same deadline, a failed
+     * or unfinished warm-up is only logged.
+     *
+     * @param applicationContext the Spring application context containing the Kafka listener containers.
+     * @param settings           settings of the wait.
+     * @throws Exception if an error occurs during the process.
+     */
+    public static void waitForPartitionAssignment(ApplicationContext applicationContext,
+                                                  KafkaSupportSettings settings) throws Exception {
         detectMultipleContainersForSameTopicWithinSameGroup(applicationContext);
         //
         KafkaListenerEndpointRegistry registry = applicationContext.getBean(KafkaListenerEndpointRegistry.class);
-        log.debug("[KTS] Waiting for partition assignment is requested");
+        Collection<MessageListenerContainer> containers = registry.getListenerContainers();
+        if (containers.isEmpty()) {
+            return;
+        }
+        log.debug("[KTS] Waiting for partition assignment is requested for {} containers", containers.size());
         long startTime = System.currentTimeMillis();
-        for (MessageListenerContainer messageListenerContainer : registry.getListenerContainers()) {
-            long partStartTime = System.currentTimeMillis();
-            log.debug("[KTS] Waiting for partition assignment started for {}", messageListenerContainer.getListenerId());
-            int partitions = ContainerTestUtils.waitForAssignment(messageListenerContainer, 1);
-            long partGauge = System.currentTimeMillis() - partStartTime;
-            if (partitions > 0) {
-                String topics = Objects.requireNonNull(messageListenerContainer.getAssignedPartitions()).stream()
-                        .map(TopicPartition::topic).collect(Collectors.joining(", "));
-                log.debug("[KTS] Waiting for partition assignment for {} is succeeded in {} ms, topics: {}",
-                        messageListenerContainer.getListenerId(), partGauge, topics);
+        MetricsRecorder recorder = KafkaSupportMetrics.getRecorder();
+        MetricsSample sample = recorder.startAssignment();
+        Deadline deadline = Deadline.after(settings.getAssignmentTimeout());
+        int threads = Math.max(1, Math.min(containers.size(), settings.getAssignmentParallelism()));
+        AtomicInteger threadNumber = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "kts-assignment-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        Map<MessageListenerContainer, Future<Integer>> assignments = new LinkedHashMap<>();
+        CompletableFuture<Void> warmUp = settings.isProducerWarmUp()
+                ? ProducerWarmup.start(applicationContext, containers, settings)
+                : CompletableFuture.completedFuture(null);
+        try {
+            for (MessageListenerContainer container : containers) {
+                assignments.put(container, executor.submit(() -> waitForAssignment(container, settings, deadline)));
+            }
+            List<String> failedContainers = new ArrayList<>();
+            List<Throwable> errors = new ArrayList<>();
+            for (Map.Entry<MessageListenerContainer, Future<Integer>> assignment : assignments.entrySet()) {
+                try {
+                    if (assignment.getValue().get() == 0) {
+                        failedContainers.add(assignment.getKey().getListenerId());
+                    }
+                } catch (ExecutionException e) {
+                    failedContainers.add(assignment.getKey().getListenerId());
+                    errors.add(e.getCause());
+                }
+            }
+            awaitWarmUp(warmUp, settings, deadline);
+            // Consumer groups of the containers have joined, the cached layout of the cluster is outdated
+            ClusterMetadataCache.invalidateAll();
+            long gauge = System.currentTimeMillis() - startTime;
+            recorder.assignment(sample, containers.size(), failedContainers.size());
+            if (!errors.isEmpty()) {
+                IllegalStateException exception = new IllegalStateException(String.format("Waiting for partition " +
+                        "assignment is failed in %d ms for containers: %s", gauge, String.join(", ", failedContainers)));
+                errors.forEach(exception::addSuppressed);
+                throw exception;
+            }
+            if (!failedContainers.isEmpty()) {
+                log.error("[KTS] Waiting for partition assignment is failed in {} ms for containers: {}", gauge,
+                        String.join(", ", failedContainers));
             } else {
-                log.error("[KTS] Waiting for partition assignment for {} is failed in {} ms",
-                        messageListenerContainer.getListenerId(), partGauge);
+                log.debug("[KTS] Waiting for partition assignment is finished in {} ms. " +
+                        "At least one partition is assigned for every container", gauge);
             }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void awaitWarmUp(CompletableFuture<Void> warmUp, KafkaSupportSettings settings, Deadline deadline)
+            throws InterruptedException {
+        long timeout = Math.min(settings.getProducerWarmUpTimeout().toNanos(), deadline.remainingNanos());
+        try {
+            warmUp.get(Math.max(0L, timeout), TimeUnit.NANOSECONDS);
+        } catch (ExecutionException e) {
+            // logged by the warm-up
+        } catch (TimeoutException e) {
+            log.warn("[KTS] Warm-up of producers is not finished within {} ms, it goes on in the background",
+                    TimeUnit.NANOSECONDS.toMillis(timeout));
         }
+    }
+
+    private static int waitForAssignment(MessageListenerContainer container, KafkaSupportSettings settings,
+                                         Deadline deadline) {
+        long startTime = System.currentTimeMillis();
+        log.debug("[KTS] Waiting for partition assignment started for {}", container.getListenerId());
+        int partitions = ContainerTestUtils.waitForAssignment(container, 1,
+                Duration.ofNanos(Math.max(0L, deadline.remainingNanos())), settings.getWaitStrategy());
         long gauge = System.currentTimeMillis() - startTime;
-        log.debug("[KTS] Waiting for partition assignment is finished in {} ms. " +
-                "At least one partition is assigned for every container", gauge);
+        if (partitions > 0) {
+            String topics = Objects.requireNonNull(container.getAssignedPartitions()).stream()
+                    .map(TopicPartition::topic).collect(Collectors.joining(", "));
+            log.debug("[KTS] Waiting for partition assignment for {} is succeeded in {} ms, topics: {}",
+                    container.getListenerId(), gauge, topics);
+        } else {
+            log.error("[KTS] Waiting for partition assignment for {} is failed in {} ms",
+                    container.getListenerId(), gauge);
+        }
+        return partitions;
     }
 
     /**
@@ -99,8 +199,122 @@ public class KafkaSupport {
         });
     }
 
+    /**
+     * Provisions topics the application context needs: topics of all listener containers, including Record Captor,
+     * and topics of {@code test.record-captor.topics} put into the namespace. Is called by {@link TopicProvisioner}
+     * before listener containers are started, so that the first partition assignment isn't followed by rebalances
+     * caused by topics created on the fly.
+     *
+     * @param applicationContext the Spring application context containing the Kafka listener containers.
+     * @throws ExecutionException   if an error occurs during the creation or description of topics.
+     * @throws InterruptedException if the current thread is interrupted while waiting.
+     */
+    public static void provisionTopics(ApplicationContext applicationContext)
+            throws ExecutionException, InterruptedException {
+        KafkaSupportSettings settings = KafkaSupportSettings.from(applicationContext.getEnvironment());
+        KafkaListenerEndpointRegistry registry = applicationContext.getBean(KafkaListenerEndpointRegistry.class);
+        Set<String> topics = ProducerWarmup.getTopics(registry.getListenerContainers(), true);
+        String captorTopics = applicationContext.getEnvironment().getProperty("test.record-captor.topics");
+        if (captorTopics != null) {
+            Arrays.stream(captorTopics.split(","))
+                    .map(String::trim)
+                    .filter(topic -> !topic.isEmpty())
+                    .forEach(topic -> topics.add(settings.getNamespace().name(topic)));
+        }
+        List<String> bootstrapServers = applicationContext.getBean(KafkaConnectionDetails.class).getBootstrapServers();
+        provisionTopics(AdminClientRegistry.getAdminClient(applicationContext, bootstrapServers), topics, settings);
+    }
+
+    /**
+     * Creates topics in one request and waits until every partition of them has a leader. Topics that already exist
+     * are left as they are, new topics take the number of partitions and the replication factor of the broker. The wait
+     * is limited by {@link KafkaSupportSettings#getTopicProvisioningTimeout()}.
+     *
+     * @param adminClient the AdminClient connected to the cluster.
+     * @param topics      topics to provision.
+     * @param settings    settings of the wait.
+     * @throws ExecutionException   if an error occurs during the creation or description of topics.
+     * @throws InterruptedException if the current thread is interrupted while waiting.
+     */
+    public static void provisionTopics(AdminClient adminClient, Set<String> topics, KafkaSupportSettings settings)
+            throws ExecutionException, InterruptedException {
+        if (topics.isEmpty()) {
+            return;
+        }
+        long startTime = System.currentTimeMillis();
+        log.debug("[KTS] Provisioning of topics is started: {}", topics);
+        Deadline deadline = Deadline.after(settings.getTopicProvisioningTimeout());
+        createTopics(adminClient, topics);
+        Set<String> pending = new TreeSet<>(topics);
+        int attempt = 0;
+        while (true) {
+            pending.removeAll(getTopicsWithLeaders(adminClient, pending));
+            if (pending.isEmpty()) {
+                break;
+            }
+            if (deadline.isExpired()) {
+                throw new IllegalStateException(String.format("Provisioning of topics is failed in %d ms, partition " +
+                        "leaders are not elected for topics: %s", System.currentTimeMillis() - startTime,
+                        String.join(", ", pending)));
+            }
+            settings.getWaitStrategy().pause(++attempt, deadline);
+        }
+        ClusterMetadataCache.forAdminClient(adminClient).invalidate();
+        log.debug("[KTS] Provisioning of {} topics is finished in {} ms", topics.size(),
+                System.currentTimeMillis() - startTime);
+    }
+
+    private static void createTopics(AdminClient adminClient, Set<String> topics)
+            throws ExecutionException, InterruptedException {
+        MetricsRecorder recorder = KafkaSupportMetrics.getRecorder();
+        MetricsSample sample = recorder.startAdminCall();
+        List<NewTopic> newTopics = topics.stream()
+                .map(topic -> new NewTopic(topic, Optional.empty(), Optional.empty()))
+                .collect(Collectors.toList());
+        Map<String, KafkaFuture<Void>> results = adminClient.createTopics(newTopics).values();
+        for (Map.Entry<String, KafkaFuture<Void>> result : results.entrySet()) {
+            try {
+                result.getValue().get();
+                log.debug("[KTS] Topic {} is created", result.getKey());
+            } catch (ExecutionException e) {
+                if (!(e.getCause() instanceof TopicExistsException)) {
+                    throw e;
+                }
+            }
+        }
+        recorder.adminCall("createTopics", sample);
+    }
+
+    /**
+     * @return topics which partitions have leaders, topics not known by the cluster yet are skipped
+     */
+    private static Set<String> getTopicsWithLeaders(AdminClient adminClient, Set<String> topics)
+            throws ExecutionException, InterruptedException {
+        MetricsRecorder recorder = KafkaSupportMetrics.getRecorder();
+        MetricsSample sample = recorder.startAdminCall();
+        Set<String> ready = new HashSet<>();
+        for (Map.Entry<String, KafkaFuture<TopicDescription>> description :
+                adminClient.describeTopics(topics).topicNameValues().entrySet()) {
+            try {
+                boolean elected = description.getValue().get().partitions().stream()
+                        .allMatch(partition -> partition.leader() != null && !partition.leader().isEmpty());
+                if (elected) {
+                    ready.add(description.getKey());
+                }
+            } catch (ExecutionException e) {
+                if (!(e.getCause() instanceof UnknownTopicOrPartitionException)) {
+                    throw e;
+                }
+            }
+        }
+        recorder.adminCall("describeTopics", sample);
+        return ready;
+    }
+
     /**
      * Waits for the offset commit for a given list of bootstrap servers retrieved from the application context.
+     * The shared {@link AdminClient} is closed when the application context is closed. Settings of the wait are
+     * resolved from properties of the application context, see {@link KafkaSupportSettings}.
      *
      * @param applicationContext The Spring application context from which to retrieve Kafka connection details.
      * @throws ExecutionException   if an error occurs during the fetching of consumer group or topic information.
@@ -109,37 +323,56 @@ public class KafkaSupport {
     public static void waitForPartitionOffsetCommit(ApplicationContext applicationContext) throws ExecutionException,
             InterruptedException {
         List<String> bootstrapServers = applicationContext.getBean(KafkaConnectionDetails.class).getBootstrapServers();
-        waitForPartitionOffsetCommit(bootstrapServers);
+        waitForPartitionOffsetCommit(AdminClientRegistry.getAdminClient(applicationContext, bootstrapServers),
+                KafkaSupportSettings.from(applicationContext.getEnvironment()));
     }
 
     /**
      * Waits for the offset commit across all consumer groups for all topics in the provided list of bootstrap servers.
      * This method checks the offset commit for each partition of each topic and ensures that all consumer groups have
-     * committed their offsets. It continuously checks the offsets until they are committed or until a maximum number of
-     * attempts is reached.
+     * committed their offsets. It continuously checks the offsets until they are committed or until the timeout is
+     * elapsed. The {@link AdminClient} is taken from {@link AdminClientRegistry} and stays open for subsequent calls.
      *
      * @param bootstrapServers The list of bootstrap servers for the Kafka cluster.
      * @throws InterruptedException if the thread is interrupted while waiting for the offsets to commit.
      * @throws ExecutionException   if an error occurs during the fetching of consumer group or topic information.
      */
     public static void waitForPartitionOffsetCommit(List<String> bootstrapServers) {
-        try (AdminClient adminClient = AdminClient.create(singletonMap(BOOTSTRAP_SERVERS_CONFIG, bootstrapServers))) {
-            try {
-                waitForPartitionOffsetCommit(adminClient);
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                throw new RuntimeException(e);
-            } catch (ExecutionException e) {
-                throw new RuntimeException(e);
-            }
+        try {
+            waitForPartitionOffsetCommit(AdminClientRegistry.getAdminClient(bootstrapServers));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e);
         }
     }
 
     public static void waitForPartitionOffsetCommit(AdminClient adminClient)
             throws ExecutionException, InterruptedException {
-        // List the topics available in the cluster
-        Set<String> topics = adminClient.listTopics().namesToListings().get().keySet();
-        waitForPartitionOffsetCommitForTopics(adminClient, topics);
+        waitForPartitionOffsetCommit(adminClient, KafkaSupportSettings.defaults());
+    }
+
+    /**
+     * Waits for the offset commit across all consumer groups for all topics of the cluster. Topics, partitions and
+     * consumer groups are resolved through {@link ClusterMetadataCache}. With {@link KafkaSupportSettings#getNamespace()}
+     * only topics and consumer groups of the namespace are checked.
+     *
+     * @param adminClient the AdminClient connected to the cluster.
+     * @param settings    settings of the wait.
+     * @throws ExecutionException   if an error occurs during the fetching of consumer group or topic information.
+     * @throws InterruptedException if the current thread is interrupted while waiting.
+     */
+    public static void waitForPartitionOffsetCommit(AdminClient adminClient, KafkaSupportSettings settings)
+            throws ExecutionException, InterruptedException {
+        ClusterMetadataCache cache = ClusterMetadataCache.forAdminClient(adminClient);
+        ClusterMetadataCache.ClusterMetadata metadata = cache.getMetadata(adminClient,
+                settings.getMetadataCacheTtl().toMillis());
+        Set<TopicPartition> topicPartitions = cache.getPartitions(adminClient,
+                settings.getNamespace().filter(metadata.getTopics()));
+        waitForPartitionOffsetCommitForPartitions(adminClient, topicPartitions,
+                getConsumerGroupPartitions(metadata, topicPartitions, settings), settings,
+                Deadline.after(settings.getOffsetCommitTimeout()), "all");
     }
 
     public static void waitForPartitionOffsetCommitForTopics(AdminClient adminClient, Set<String> topics)
@@ -149,118 +382,340 @@ public class KafkaSupport {
         waitForPartitionOffsetCommitForPartitions(adminClient, topicPartitions);
     }
 
+    /**
+     * Waits for the offset commit of consumer groups of the cluster for the partitions. Idle consumer groups are
+     * skipped, see {@link ClusterMetadataCache.ClusterMetadata#getConsumerGroupPartitions(Set, boolean)}.
+     *
+     * @param adminClient     the AdminClient connected to the cluster.
+     * @param topicPartitions partitions to check.
+     * @throws ExecutionException   if an error occurs during the fetching of consumer group or topic information.
+     * @throws InterruptedException if the current thread is interrupted while waiting.
+     */
     public static void waitForPartitionOffsetCommitForPartitions(AdminClient adminClient,
                                                                  Set<TopicPartition> topicPartitions)
             throws ExecutionException, InterruptedException {
-        Set<String> consumerGroups = adminClient.listConsumerGroups().all().get()
-                .stream().map(ConsumerGroupListing::groupId).collect(Collectors.toSet());
-        waitForPartitionOffsetCommitForPartitions(adminClient, topicPartitions, consumerGroups);
+        KafkaSupportSettings settings = KafkaSupportSettings.defaults();
+        ClusterMetadataCache.ClusterMetadata metadata = ClusterMetadataCache.forAdminClient(adminClient)
+                .getMetadata(adminClient, settings.getMetadataCacheTtl().toMillis());
+        waitForPartitionOffsetCommitForPartitions(adminClient, topicPartitions,
+                getConsumerGroupPartitions(metadata, topicPartitions, settings), settings,
+                Deadline.after(settings.getOffsetCommitTimeout()), "partitions");
     }
 
-    static ThreadLocal<Long> topicsOffsetsTotalInThread = new ThreadLocal<>(); //experimental
-
     public static void waitForPartitionOffsetCommitForPartitions(AdminClient adminClient,
                                                                  Set<TopicPartition> topicPartitions,
                                                                  Set<String> consumerGroups)
             throws InterruptedException, ExecutionException {
+        waitForPartitionOffsetCommitForPartitions(adminClient, topicPartitions, consumerGroups,
+                KafkaSupportSettings.defaults());
+    }
+
+    /**
+     * Waits for the offset commit of the consumer groups for the partitions until
+     * {@link KafkaSupportSettings#getOffsetCommitTimeout()} is elapsed. Consumer groups are checked regardless of
+     * their state.
+     *
+     * @param adminClient     the AdminClient connected to the cluster.
+     * @param topicPartitions partitions to check.
+     * @param consumerGroups  consumer groups to check.
+     * @param settings        settings of the wait.
+     * @throws ExecutionException   if an error occurs during the fetching of consumer group or topic information.
+     * @throws InterruptedException if the current thread is interrupted while waiting.
+     */
+    public static void waitForPartitionOffsetCommitForPartitions(AdminClient adminClient,
+                                                                 Set<TopicPartition> topicPartitions,
+                                                                 Set<String> consumerGroups,
+                                                                 KafkaSupportSettings settings)
+            throws InterruptedException, ExecutionException {
+        Map<String, Set<TopicPartition>> consumerGroupPartitions = new HashMap<>();
+        for (String consumerGroup : consumerGroups) {
+            consumerGroupPartitions.put(consumerGroup, topicPartitions);
+        }
+        waitForPartitionOffsetCommitForPartitions(adminClient, topicPartitions, consumerGroupPartitions, settings,
+                Deadline.after(settings.getOffsetCommitTimeout()), "partitions");
+    }
+
+    /**
+     * Returns partitions to check per consumer group of the cluster. With a namespace only consumer groups of the
+     * namespace and stable consumer groups assigned to the partitions are checked.
+     */
+    private static Map<String, Set<TopicPartition>> getConsumerGroupPartitions(
+            ClusterMetadataCache.ClusterMetadata metadata,
+            Set<TopicPartition> topicPartitions,
+            KafkaSupportSettings settings) {
+        Map<String, Set<TopicPartition>> consumerGroupPartitions = metadata.getConsumerGroupPartitions(topicPartitions,
+                settings.isIncludeIdleConsumerGroups());
+        KafkaNamespace namespace = settings.getNamespace();
+        if (namespace.isEnabled()) {
+            consumerGroupPartitions.keySet().removeIf(consumerGroup -> !namespace.contains(consumerGroup)
+                    && !metadata.getConsumerGroupAssignments().containsKey(consumerGroup));
+        }
+        return consumerGroupPartitions;
+    }
+
+    private static void waitForPartitionOffsetCommitForPartitions(AdminClient adminClient,
+                                                                  Set<TopicPartition> topicPartitions,
+                                                                  Map<String, Set<TopicPartition>> consumerGroupPartitions,
+                                                                  KafkaSupportSettings settings,
+                                                                  Deadline deadline,
+                                                                  String barrier)
+            throws InterruptedException, ExecutionException {
+        MetricsRecorder recorder = KafkaSupportMetrics.getRecorder();
+        MetricsSample sample = recorder.startOffsetCommit();
+        AtomicInteger attempts = new AtomicInteger();
+        boolean committed = false;
+        try {
+            awaitOffsetCommit(adminClient, topicPartitions, consumerGroupPartitions, settings, deadline, attempts);
+            committed = true;
+        } finally {
+            recorder.offsetCommit(barrier, sample, attempts.get(), committed);
+        }
+    }
+
+    private static void awaitOffsetCommit(AdminClient adminClient,
+                                          Set<TopicPartition> topicPartitions,
+                                          Map<String, Set<TopicPartition>> consumerGroupPartitions,
+                                          KafkaSupportSettings settings,
+                                          Deadline deadline,
+                                          AtomicInteger attempts)
+            throws InterruptedException, ExecutionException {
         long startTime = System.currentTimeMillis();
-        int attempt = 0;
+        OffsetWatermarkStore watermarks = OffsetWatermarkStore.forAdminClient(adminClient);
+        String cluster = AdminClientRegistry.clusterKeyOf(adminClient);
+        // Partitions are settled only for the consumer groups checked by this barrier
+        Map<TopicPartition, Integer> groupSetIds = watermarks.getGroupSetIds(consumerGroupPartitions,
+                topicPartitions);
+        // The frame is rendered only for debug logging, its buffer is reused by attempts
+        OffsetSnapshotFrame offsetSnapshotFrame = log.isDebugEnabled()
+                ? new OffsetSnapshotFrame(settings.getOffsetSnapshotFrameMode())
+                : null;
         boolean offsetCommitted = false;
         while (!offsetCommitted) {
-            if (++attempt > OFFSET_COMMIT_WAIT_ATTEMPTS_MAX) {
-                throw new RuntimeException("Exceeded maximum attempts (" + OFFSET_COMMIT_WAIT_ATTEMPTS_MAX
-                        + ") waiting for offset commit for partitions.");
+            if (deadline.isExpired()) {
+                throw new RuntimeException("Offset commit for partitions is not completed within "
+                        + deadline.getTimeout().toMillis() + " ms, attempts: " + attempts.get());
             }
+            int attempt = attempts.incrementAndGet();
             log.debug("[KTS] Waiting for offset commit is requested, attempt {}", attempt);
             Map<TopicPartition, Long> topicsOffsets = getOffsetsForPartitions(adminClient, topicPartitions);
-            Long topicsOffsetsTotal = topicsOffsets.values().stream().mapToLong(Long::longValue).sum();
-            if (topicsOffsetsTotal.equals(topicsOffsetsTotalInThread.get())) {
-                log.debug("[KTS] Topic offset is not changed; Waiting for offset commit is finished in {} ms",
+            // Partitions which end offsets are already committed by all consumer groups are skipped
+            Map<TopicPartition, Long> unsettledOffsets = topicsOffsets.entrySet().stream()
+                    .filter(e -> !watermarks.isSettled(e.getKey(), e.getValue(), groupSetIds.get(e.getKey())))
+                    .collect(toMap(Map.Entry::getKey, Map.Entry::getValue));
+            if (unsettledOffsets.isEmpty()) {
+                log.debug("[KTS] Topic offsets are not changed; Waiting for offset commit is finished in {} ms",
                         System.currentTimeMillis() - startTime);
                 return;
             }
-            // Get current offsets for partitions
-            // We can take only those partition that with offset > 0, but on long run every one will become like it
-            Set<TopicPartition> topicPartitionsToCheck = topicsOffsets.entrySet().stream()
-                    .filter(e -> !e.getValue().equals(0L))
-                    .map(Map.Entry::getKey)
-                    .collect(Collectors.toSet());
-            Map<String, Map<TopicPartition, Long>> consumerGroupsOffsets = getOffsetsForConsumerGroups(adminClient,
-                    consumerGroups, topicPartitionsToCheck);
-            offsetCommitted = checkOffsetCommitted(topicPartitions, consumerGroups, topicsOffsets, consumerGroupsOffsets);
+            // End offsets are already known, only committed offsets of consumer groups are requested
+            OffsetSnapshot snapshot = OffsetSnapshot.take(adminClient, unsettledOffsets, consumerGroupPartitions);
+            if (offsetSnapshotFrame != null) {
+                offsetSnapshotFrame.reset();
+                snapshot.renderTo(offsetSnapshotFrame);
+                log.debug("{}", offsetSnapshotFrame);
+            }
+            offsetCommitted = snapshot.isCommitted();
             if (offsetCommitted) {
                 //Do recheck
-                Long topicsOffsetsTotalFinish = getOffsetsForPartitions(adminClient, topicPartitions).values()
-                        .stream().mapToLong(Long::longValue).sum();
-                offsetCommitted = topicsOffsetsTotal.equals(topicsOffsetsTotalFinish);
+                offsetCommitted = unsettledOffsets.equals(getOffsetsForPartitions(adminClient, unsettledOffsets.keySet()));
             }
             //
             if (offsetCommitted) {
-                topicsOffsetsTotalInThread.set(topicsOffsetsTotal);
+                unsettledOffsets.forEach((topicPartition, endOffset) -> watermarks.settle(topicPartition, endOffset,
+                        groupSetIds.get(topicPartition)));
             } else {
                 log.warn("[KTS] Some offsets are not equal. Waiting for further message processing before proceeding. " +
                         "Refreshing end offsets and reevaluating.");
-                try {
-                    Thread.sleep(OFFSET_COMMIT_WAIT_TIME); // NOSONAR magic #
-                } catch (@SuppressWarnings("unused") InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                }
+                waitForPendingOffsets(cluster, snapshot.getPendingOffsets(), attempt, settings, deadline);
             }
         }
         log.debug("[KTS] Waiting for offset commit is finished in {} ms", System.currentTimeMillis() - startTime);
     }
 
-    private static boolean checkOffsetCommitted(Set<TopicPartition> topicPartitions,
-                                                Set<String> consumerGroups,
-                                                Map<TopicPartition, Long> topicsOffsets,
-                                                Map<String, Map<TopicPartition, Long>> consumerGroupsOffsets) {
-        boolean result = true;
-        OffsetSnapshotFrame offsetSnapshotFrame = new OffsetSnapshotFrame();
-        for (String consumerGroup : consumerGroups) {
-            for (TopicPartition topicPartition : topicPartitions) {
-                Long consumerGroupOffset = consumerGroupsOffsets
-                        .getOrDefault(consumerGroup, Map.of())
-                        .get(topicPartition);
-                if (consumerGroupOffset == null) { // There is no consumer in Consumer group for topic
-                    continue;
-                }
-                Long partitionOffset = topicsOffsets.get(topicPartition);
-                boolean equal = partitionOffset == null || partitionOffset == 0L || partitionOffset.equals(consumerGroupOffset);
-                result = result && equal;
-                //
-                offsetSnapshotFrame.append(consumerGroup, topicPartition, consumerGroupOffset, partitionOffset);
+    /**
+     * Waits for the offset commit for partitions that received records from producers of the current JVM since the
+     * last call. Partitions are reported by {@link ProducedPartitionsInterceptor}, so the cost of the barrier depends
+     * on partitions touched by the test rather than on the size of the cluster. Records produced outside the JVM or
+     * by producers without the interceptor are not taken into account.
+     *
+     * @param applicationContext The Spring application context from which to retrieve Kafka connection details.
+     * @throws ExecutionException   if an error occurs during the fetching of consumer group or topic information.
+     * @throws InterruptedException if the current thread is interrupted while waiting.
+     */
+    public static void waitForProducedPartitionOffsetCommit(ApplicationContext applicationContext)
+            throws ExecutionException, InterruptedException {
+        List<String> bootstrapServers = applicationContext.getBean(KafkaConnectionDetails.class).getBootstrapServers();
+        waitForProducedPartitionOffsetCommit(AdminClientRegistry.getAdminClient(applicationContext, bootstrapServers),
+                KafkaSupportSettings.from(applicationContext.getEnvironment()));
+    }
+
+    public static void waitForProducedPartitionOffsetCommit(AdminClient adminClient)
+            throws ExecutionException, InterruptedException {
+        waitForProducedPartitionOffsetCommit(adminClient, KafkaSupportSettings.defaults());
+    }
+
+    /**
+     * Waits for the offset commit for partitions that received records from producers of the current JVM since the
+     * last call. Partitions that are produced to by listeners while waiting are checked as well. With
+     * {@link KafkaSupportSettings#getNamespace()} only partitions of the namespace are checked and cleared.
+     * <p>
+     * Partitions are taken from producers of the cluster the AdminClient is connected to. If the AdminClient is not
+     * known to {@link AdminClientRegistry}, partitions produced to any cluster are taken and those of topics the
+     * cluster doesn't list are skipped.
+     *
+     * @param adminClient the AdminClient connected to the cluster.
+     * @param settings    settings of the wait.
+     * @throws ExecutionException   if an error occurs during the fetching of consumer group or topic information.
+     * @throws InterruptedException if the current thread is interrupted while waiting.
+     */
+    public static void waitForProducedPartitionOffsetCommit(AdminClient adminClient, KafkaSupportSettings settings)
+            throws ExecutionException, InterruptedException {
+        long startTime = System.currentTimeMillis();
+        MetricsRecorder recorder = KafkaSupportMetrics.getRecorder();
+        MetricsSample sample = recorder.startOffsetCommit();
+        Deadline deadline = Deadline.after(settings.getOffsetCommitTimeout());
+        AtomicInteger attempts = new AtomicInteger();
+        boolean committed = false;
+        try {
+            ProducedPartitionsTracker tracker = ProducedPartitionsTracker.getInstance();
+            // Partitions of all clusters are checked if the AdminClient is not known to the registry
+            String cluster = AdminClientRegistry.clusterKeyOf(adminClient);
+            Map<TopicPartition, Long> checkedOffsets = Map.of();
+            Map<TopicPartition, Long> producedOffsets = getProducedOffsets(adminClient, cluster, settings);
+            while (!producedOffsets.equals(checkedOffsets)) {
+                log.debug("[KTS] Waiting for offset commit for produced partitions {}", producedOffsets.keySet());
+                ClusterMetadataCache.ClusterMetadata metadata = ClusterMetadataCache.forAdminClient(adminClient)
+                        .getMetadata(adminClient, settings.getMetadataCacheTtl().toMillis());
+                awaitOffsetCommit(adminClient, producedOffsets.keySet(),
+                        getConsumerGroupPartitions(metadata, producedOffsets.keySet(), settings), settings, deadline,
+                        attempts);
+                checkedOffsets = producedOffsets;
+                // Listeners could produce records to other partitions while we were waiting
+                producedOffsets = getProducedOffsets(adminClient, cluster, settings);
             }
-            offsetSnapshotFrame.split();
+            tracker.clear(cluster, checkedOffsets);
+            committed = true;
+        } finally {
+            recorder.offsetCommit("produced", sample, attempts.get(), committed);
         }
-        log.debug(offsetSnapshotFrame.toString());
-        return result;
+        log.debug("[KTS] Waiting for offset commit for produced partitions is finished in {} ms",
+                System.currentTimeMillis() - startTime);
     }
 
+    /**
+     * Returns produced partitions of the cluster. If the cluster is not known, partitions of topics the cluster doesn't
+     * list are skipped, the layout is requested again if some topics are not listed by the cached one.
+     */
+    private static Map<TopicPartition, Long> getProducedOffsets(AdminClient adminClient, String cluster,
+                                                                KafkaSupportSettings settings)
+            throws ExecutionException, InterruptedException {
+        Map<TopicPartition, Long> producedOffsets = settings.getNamespace()
+                .filterPartitions(ProducedPartitionsTracker.getInstance().getProducedOffsets(cluster));
+        if (cluster != null) {
+            return producedOffsets;
+        }
+        ClusterMetadataCache cache = ClusterMetadataCache.forAdminClient(adminClient);
+        Set<String> topics = cache.getMetadata(adminClient, settings.getMetadataCacheTtl().toMillis()).getTopics();
+        if (producedOffsets.keySet().stream().anyMatch(topicPartition -> !topics.contains(topicPartition.topic()))) {
+            Set<String> listedTopics = cache.getMetadata(adminClient, 0L).getTopics();
+            producedOffsets = new HashMap<>(producedOffsets);
+            producedOffsets.keySet().removeIf(topicPartition -> !listedTopics.contains(topicPartition.topic()));
+        }
+        return producedOffsets;
+    }
+
+    /**
+     * Waits for pending offsets to be committed. Commits of consumer groups running in the current JVM are awaited
+     * through {@link OffsetCommitTracker} events, other consumer groups are polled with AdminClient on the next attempt
+     * after a pause defined by the wait strategy.
+     *
+     * @param cluster        key of the cluster or null if the AdminClient is not known to {@link AdminClientRegistry}
+     * @param pendingOffsets offsets expected to be committed per consumer group and partition
+     * @param attempt        number of the failed attempt
+     * @param settings       settings of the wait
+     * @param deadline       deadline of the wait
+     * @throws InterruptedException if the current thread is interrupted while waiting
+     */
+    private static void waitForPendingOffsets(String cluster, Map<String, Map<TopicPartition, Long>> pendingOffsets,
+                                              int attempt, KafkaSupportSettings settings, Deadline deadline)
+            throws InterruptedException {
+        OffsetCommitTracker tracker = OffsetCommitTracker.getInstance();
+        Map<String, Map<TopicPartition, Long>> trackedOffsets = pendingOffsets.entrySet().stream()
+                .filter(e -> tracker.isTracked(cluster, e.getKey()))
+                .collect(toMap(Map.Entry::getKey, Map.Entry::getValue));
+        if (!trackedOffsets.isEmpty()) {
+            long startTime = System.currentTimeMillis();
+            long waitTime = Math.min(settings.getCommitEventWaitTime().toMillis(), deadline.remainingMillis());
+            boolean committed = tracker.awaitCommitted(cluster, trackedOffsets, waitTime);
+            log.debug("[KTS] Waiting for offset commit events of {} is {} in {} ms", trackedOffsets.keySet(),
+                    committed ? "succeeded" : "timed out", System.currentTimeMillis() - startTime);
+        }
+        if (trackedOffsets.size() < pendingOffsets.size()) {
+            settings.getWaitStrategy().pause(attempt, deadline);
+        }
+    }
+
+    /**
+     * Takes the snapshot of end offsets and committed offsets of all topics and consumer groups of the cluster checked
+     * by the offset commit barrier with default settings. Can be used to assert that consumer groups are not lagging:
+     * <pre>
+     * KafkaSupport.getOffsetSnapshot(adminClient).getTotalLag() == 0
+     * </pre>
+     *
+     * @param adminClient the AdminClient connected to the cluster.
+     * @return the snapshot
+     * @throws ExecutionException   if an error occurs during the fetching of consumer group or topic information.
+     * @throws InterruptedException if the current thread is interrupted while waiting.
+     */
+    public static OffsetSnapshot getOffsetSnapshot(AdminClient adminClient)
+            throws ExecutionException, InterruptedException {
+        return getOffsetSnapshot(adminClient, KafkaSupportSettings.defaults());
+    }
+
+    /**
+     * Takes the snapshot of end offsets and committed offsets of topics and consumer groups of the cluster checked by
+     * the offset commit barrier with the settings: idle consumer groups are skipped unless
+     * {@link KafkaSupportSettings#isIncludeIdleConsumerGroups()} is enabled.
+     *
+     * @param adminClient the AdminClient connected to the cluster.
+     * @param settings    settings of the barrier.
+     * @return the snapshot
+     * @throws ExecutionException   if an error occurs during the fetching of consumer group or topic information.
+     * @throws InterruptedException if the current thread is interrupted while waiting.
+     */
+    public static OffsetSnapshot getOffsetSnapshot(AdminClient adminClient, KafkaSupportSettings settings)
+            throws ExecutionException, InterruptedException {
+        ClusterMetadataCache cache = ClusterMetadataCache.forAdminClient(adminClient);
+        ClusterMetadataCache.ClusterMetadata metadata = cache.getMetadata(adminClient, 0L);
+        Set<TopicPartition> topicPartitions = cache.getPartitions(adminClient,
+                settings.getNamespace().filter(metadata.getTopics()));
+        return OffsetSnapshot.take(adminClient, topicPartitions,
+                getConsumerGroupPartitions(metadata, topicPartitions, settings).keySet());
+    }
 
     public static Set<TopicPartition> getPartitions(AdminClient adminClient, Set<String> topics)
             throws ExecutionException, InterruptedException {
-        Set<TopicPartition> topicPartitions = new HashSet<>();
-        DescribeTopicsResult topicInfo = adminClient.describeTopics(topics);
-        for (String topic : topics) {
-            int partitions = topicInfo.topicNameValues().get(topic).get().partitions().size();
-            for (int i = 0; i < partitions; i++) {
-                topicPartitions.add(new TopicPartition(topic, i));
-            }
-        }
-        return topicPartitions;
+        ClusterMetadataCache cache = ClusterMetadataCache.forAdminClient(adminClient);
+        // Partitions are described again once the cached layout expires
+        cache.getMetadata(adminClient, KafkaSupportSettings.defaults().getMetadataCacheTtl().toMillis());
+        return cache.getPartitions(adminClient, topics);
     }
 
     public static Map<TopicPartition, Long> getOffsetsForPartitions(AdminClient adminClient,
                                                                     Set<TopicPartition> topicPartitions)
             throws ExecutionException, InterruptedException {
+        MetricsRecorder recorder = KafkaSupportMetrics.getRecorder();
+        MetricsSample sample = recorder.startAdminCall();
         Map<TopicPartition, OffsetSpec> topicPartitionsWithSpecs = topicPartitions.stream()
                 .collect(toMap(tp -> tp, tp -> OffsetSpec.latest()));
-        return adminClient.listOffsets(topicPartitionsWithSpecs)
+        Map<TopicPartition, Long> offsets = adminClient.listOffsets(topicPartitionsWithSpecs)
                 .all()
                 .get()
                 .entrySet()
                 .stream()
                 .collect(toMap(Map.Entry::getKey, entry -> entry.getValue().offset()));
+        recorder.adminCall("listOffsets", sample);
+        return offsets;
     }
 
     public static Map<String, Map<TopicPartition, Long>> getOffsetsForConsumerGroups(
@@ -268,6 +723,8 @@ public class KafkaSupport {
             Set<String> consumerGroups,
             Set<TopicPartition> topicPartitions)
             throws ExecutionException, InterruptedException {
+        MetricsRecorder recorder = KafkaSupportMetrics.getRecorder();
+        MetricsSample sample = recorder.startAdminCall();
         Map<String, ListConsumerGroupOffsetsSpec> groupSpecs = new HashMap<>();
         for (String consumerGroup : consumerGroups) {
             ListConsumerGroupOffsetsSpec spec = new ListConsumerGroupOffsetsSpec();
@@ -284,6 +741,7 @@ public class KafkaSupport {
                         .put(tp, oam.offset());
             });
         }
+        recorder.adminCall("listConsumerGroupOffsets", sample);
         return currentOffsets;
     }
 }
\ No newline at end of file
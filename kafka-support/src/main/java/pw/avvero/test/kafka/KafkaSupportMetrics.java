@@ -0,0 +1,46 @@
+package pw.avvero.test.kafka;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.util.ClassUtils;
+
+/**
+ * Holder of the {@link MetricsRecorder} used by the library. Metrics are registered in the global Micrometer registry
+ * when Micrometer is on the classpath and are emitted as JFR events otherwise. The recorder can be replaced with
+ * {@link #setRecorder(MetricsRecorder)}, {@link MetricsRecorder#NOOP} disables metrics.
+ */
+@Slf4j
+public final class KafkaSupportMetrics {
+
+    private static final String MICROMETER_CLASS = "io.micrometer.core.instrument.MeterRegistry";
+    private static volatile MetricsRecorder recorder = defaultRecorder();
+    private static volatile boolean enabled = true;
+
+    private KafkaSupportMetrics() {
+        // private ctor
+    }
+
+    public static MetricsRecorder getRecorder() {
+        return recorder;
+    }
+
+    public static void setRecorder(MetricsRecorder metricsRecorder) {
+        recorder = metricsRecorder != null ? metricsRecorder : MetricsRecorder.NOOP;
+        enabled = recorder != MetricsRecorder.NOOP;
+    }
+
+    /**
+     * @return false if {@link MetricsRecorder#NOOP} is set, so callers on hot paths can skip collecting statistics
+     */
+    static boolean isEnabled() {
+        return enabled;
+    }
+
+    private static MetricsRecorder defaultRecorder() {
+        if (ClassUtils.isPresent(MICROMETER_CLASS, KafkaSupportMetrics.class.getClassLoader())) {
+            log.debug("[KTS] Metrics are registered in the global Micrometer registry");
+            return MicrometerMetricsRecorder.global();
+        }
+        log.debug("[KTS] Metrics are emitted as JFR events");
+        return new JfrMetricsRecorder();
+    }
+}
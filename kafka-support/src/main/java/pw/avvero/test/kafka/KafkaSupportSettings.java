@@ -0,0 +1,206 @@
+package pw.avvero.test.kafka;
+
+import lombok.Builder;
+import lombok.Getter;
+import org.apache.kafka.clients.admin.AdminClient;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.core.env.Environment;
+
+import java.time.Duration;
+import java.util.Set;
+
+/**
+ * Settings of {@link KafkaSupport} wait operations. Can be passed per call or resolved from Spring properties with
+ * prefix {@code test.kafka-support}:
+ * <pre>
+ * test.kafka-support.offset-commit.timeout=10s
+ * test.kafka-support.offset-commit.event-wait-time=1s
+ * test.kafka-support.offset-commit.frame=all
+ * test.kafka-support.offset-commit.include-idle-groups=true
+ * test.kafka-support.assignment.timeout=60s
+ * test.kafka-support.assignment.parallelism=16
+ * test.kafka-support.assignment.warm-up=true
+ * test.kafka-support.assignment.warm-up-captor-topics=true
+ * test.kafka-support.assignment.warm-up-timeout=1s
+ * test.kafka-support.topics.timeout=30s
+ * test.kafka-support.metadata-cache.ttl=1s
+ * test.kafka-support.namespace.prefix=
+ * test.kafka-support.namespace.suffix=
+ * test.kafka-support.wait.strategy=exponential-backoff
+ * test.kafka-support.wait.min-delay=1ms
+ * test.kafka-support.wait.max-delay=10ms
+ * test.kafka-support.wait.spins=100
+ * </pre>
+ * Supported wait strategies are {@code exponential-backoff}, {@code fixed} (pauses for {@code max-delay}) and
+ * {@code spin-then-park} (spins for {@code spins} attempts and then pauses for {@code min-delay}).
+ * Offset snapshot frame logs either {@code all} rows or only {@code mismatched} ones.
+ */
+@Getter
+@Builder(toBuilder = true)
+public class KafkaSupportSettings {
+
+    public static final String PREFIX = "test.kafka-support";
+
+    private static final Duration DEFAULT_MIN_DELAY = Duration.ofMillis(1);
+    private static final Duration DEFAULT_MAX_DELAY = Duration.ofMillis(10);
+    private static final int DEFAULT_SPINS = 100;
+    static final int LEGACY_OFFSET_COMMIT_WAIT_ATTEMPTS_MAX = 200;
+    static final int LEGACY_OFFSET_COMMIT_WAIT_TIME = 10;
+
+    /**
+     * Maximum time to wait for offset commit.
+     */
+    @Builder.Default
+    private final Duration offsetCommitTimeout = Duration.ofSeconds(10);
+    /**
+     * Maximum time to wait for commit events of in-process consumers before the cluster is checked again.
+     */
+    @Builder.Default
+    private final Duration commitEventWaitTime = Duration.ofSeconds(1);
+    /**
+     * Rows of the offset snapshot frame logged on every attempt of the offset commit barrier.
+     */
+    @Builder.Default
+    private final OffsetSnapshotFrame.Mode offsetSnapshotFrameMode = OffsetSnapshotFrame.Mode.ALL;
+    /**
+     * Whether consumer groups without members (EMPTY or DEAD) of the cluster are checked by the offset commit barrier.
+     * Groups of consumers with manually assigned partitions have no members, so skipping idle groups is opt-in.
+     */
+    @Builder.Default
+    private final boolean includeIdleConsumerGroups = true;
+    /**
+     * Maximum time to wait for partition assignment of all listener containers.
+     */
+    @Builder.Default
+    private final Duration assignmentTimeout = Duration.ofSeconds(60);
+    /**
+     * Maximum number of listener containers awaited concurrently.
+     */
+    @Builder.Default
+    private final int assignmentParallelism = 16;
+    /**
+     * Whether producers of {@link org.springframework.kafka.core.KafkaTemplate} beans are initialized and metadata of
+     * listener topics is fetched while partition assignment is awaited, see {@link ProducerWarmup}.
+     */
+    @Builder.Default
+    private final boolean producerWarmUp = true;
+    /**
+     * Whether metadata of topics of Record Captor is fetched by the producer warm-up as well.
+     */
+    @Builder.Default
+    private final boolean captorTopicsWarmUp = true;
+    /**
+     * Maximum time to wait for the producer warm-up once partitions are assigned, the warm-up goes on in the
+     * background after that.
+     */
+    @Builder.Default
+    private final Duration producerWarmUpTimeout = Duration.ofSeconds(1);
+    /**
+     * Maximum time to wait for provisioned topics to have leaders of all partitions, see
+     * {@link KafkaSupport#provisionTopics(AdminClient, Set, KafkaSupportSettings)}.
+     */
+    @Builder.Default
+    private final Duration topicProvisioningTimeout = Duration.ofSeconds(30);
+    /**
+     * Time-to-live of cached cluster layout, see {@link ClusterMetadataCache}.
+     */
+    @Builder.Default
+    private final Duration metadataCacheTtl = Duration.ofSeconds(1);
+    /**
+     * Namespace of topics and consumer groups checked by barriers, see {@link KafkaNamespace}.
+     */
+    @Builder.Default
+    private final KafkaNamespace namespace = KafkaNamespace.NONE;
+    /**
+     * Strategy of pausing between attempts.
+     */
+    @Builder.Default
+    private final WaitStrategy waitStrategy = WaitStrategy.exponentialBackoff(DEFAULT_MIN_DELAY, DEFAULT_MAX_DELAY);
+
+    private static final KafkaSupportSettings DEFAULTS = KafkaSupportSettings.builder().build();
+
+    /**
+     * Returns default settings. Deprecated fields {@link KafkaSupport#OFFSET_COMMIT_WAIT_ATTEMPTS_MAX} and
+     * {@link KafkaSupport#OFFSET_COMMIT_WAIT_TIME} changed by the caller are taken into account: the offset commit
+     * barrier waits for the product of them and pauses for the fixed wait time.
+     *
+     * @return the settings
+     */
+    @SuppressWarnings("deprecation")
+    public static KafkaSupportSettings defaults() {
+        int attempts = KafkaSupport.OFFSET_COMMIT_WAIT_ATTEMPTS_MAX;
+        int waitTime = KafkaSupport.OFFSET_COMMIT_WAIT_TIME;
+        if (attempts == LEGACY_OFFSET_COMMIT_WAIT_ATTEMPTS_MAX && waitTime == LEGACY_OFFSET_COMMIT_WAIT_TIME) {
+            return DEFAULTS;
+        }
+        return DEFAULTS.toBuilder()
+                .offsetCommitTimeout(Duration.ofMillis((long) attempts * waitTime))
+                .waitStrategy(WaitStrategy.fixed(Duration.ofMillis(waitTime)))
+                .build();
+    }
+
+    /**
+     * Resolves settings from Spring properties, missing properties take values of {@link #defaults()}.
+     *
+     * @param environment the Spring environment
+     * @return the settings
+     */
+    public static KafkaSupportSettings from(Environment environment) {
+        KafkaSupportSettings defaults = defaults();
+        // Deprecated fields of KafkaSupport take effect unless the wait strategy is configured
+        boolean waitConfigured = environment.containsProperty(PREFIX + ".wait.strategy")
+                || environment.containsProperty(PREFIX + ".wait.min-delay")
+                || environment.containsProperty(PREFIX + ".wait.max-delay")
+                || environment.containsProperty(PREFIX + ".wait.spins");
+        WaitStrategy waitStrategy = defaults != DEFAULTS && !waitConfigured
+                ? defaults.waitStrategy
+                : getWaitStrategy(environment);
+        return KafkaSupportSettings.builder()
+                .offsetCommitTimeout(getDuration(environment, "offset-commit.timeout", defaults.offsetCommitTimeout))
+                .commitEventWaitTime(getDuration(environment, "offset-commit.event-wait-time",
+                        DEFAULTS.commitEventWaitTime))
+                .offsetSnapshotFrameMode(OffsetSnapshotFrame.Mode.valueOf(environment.getProperty(
+                        PREFIX + ".offset-commit.frame", DEFAULTS.offsetSnapshotFrameMode.name()).toUpperCase()))
+                .includeIdleConsumerGroups(environment.getProperty(PREFIX + ".offset-commit.include-idle-groups",
+                        Boolean.class, DEFAULTS.includeIdleConsumerGroups))
+                .assignmentTimeout(getDuration(environment, "assignment.timeout", DEFAULTS.assignmentTimeout))
+                .assignmentParallelism(environment.getProperty(PREFIX + ".assignment.parallelism", Integer.class,
+                        DEFAULTS.assignmentParallelism))
+                .producerWarmUp(environment.getProperty(PREFIX + ".assignment.warm-up", Boolean.class,
+                        DEFAULTS.producerWarmUp))
+                .captorTopicsWarmUp(environment.getProperty(PREFIX + ".assignment.warm-up-captor-topics",
+                        Boolean.class, DEFAULTS.captorTopicsWarmUp))
+                .producerWarmUpTimeout(getDuration(environment, "assignment.warm-up-timeout",
+                        DEFAULTS.producerWarmUpTimeout))
+                .topicProvisioningTimeout(getDuration(environment, "topics.timeout",
+                        DEFAULTS.topicProvisioningTimeout))
+                .metadataCacheTtl(getDuration(environment, "metadata-cache.ttl", DEFAULTS.metadataCacheTtl))
+                .namespace(KafkaNamespace.of(environment.getProperty(PREFIX + ".namespace.prefix"),
+                        environment.getProperty(PREFIX + ".namespace.suffix")))
+                .waitStrategy(waitStrategy)
+                .build();
+    }
+
+    private static WaitStrategy getWaitStrategy(Environment environment) {
+        Duration minDelay = getDuration(environment, "wait.min-delay", DEFAULT_MIN_DELAY);
+        Duration maxDelay = getDuration(environment, "wait.max-delay", DEFAULT_MAX_DELAY);
+        int spins = environment.getProperty(PREFIX + ".wait.spins", Integer.class, DEFAULT_SPINS);
+        String strategy = environment.getProperty(PREFIX + ".wait.strategy", "exponential-backoff");
+        switch (strategy) {
+            case "exponential-backoff":
+                return WaitStrategy.exponentialBackoff(minDelay, maxDelay);
+            case "fixed":
+                return WaitStrategy.fixed(maxDelay);
+            case "spin-then-park":
+                return WaitStrategy.spinThenPark(spins, minDelay);
+            default:
+                throw new IllegalArgumentException("Unknown wait strategy '" + strategy + "', expected one of: " +
+                        "exponential-backoff, fixed, spin-then-park");
+        }
+    }
+
+    private static Duration getDuration(Environment environment, String name, Duration defaultValue) {
+        String value = environment.getProperty(PREFIX + "." + name);
+        return value != null ? DurationStyle.detectAndParse(value) : defaultValue;
+    }
+}
@@ -0,0 +1,91 @@
+package pw.avvero.test.kafka;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.serialization.Deserializer;
+import org.springframework.kafka.support.KafkaHeaderMapper;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Snapshot of a record which keeps raw bytes of the value and headers as they were received from Kafka. The value
+ * is deserialized and headers are mapped only when they are read by the test, the result is cached afterwards.
+ * The key is deserialized on creation, as records are grouped by key on capture.
+ */
+public class LazyRecordSnapshot extends RecordSnapshot {
+
+    private final byte[] rawValue;
+    private final Headers rawHeaders;
+    private final Deserializer<?> valueDeserializer;
+    private final KafkaHeaderMapper headerMapper;
+    private boolean valueResolved;
+    private boolean headersResolved;
+
+    LazyRecordSnapshot(String topic, Object key, byte[] rawValue, Headers rawHeaders,
+                       Deserializer<?> valueDeserializer, KafkaHeaderMapper headerMapper) {
+        super(topic, key, null, null);
+        this.rawValue = rawValue;
+        this.rawHeaders = rawHeaders;
+        this.valueDeserializer = valueDeserializer;
+        this.headerMapper = headerMapper;
+    }
+
+    /**
+     * Creates a snapshot of the raw record, byte arrays of the record are retained without copying.
+     *
+     * @param record            the record consumed with {@code ByteArrayDeserializer}
+     * @param keyDeserializer   deserializer of the key
+     * @param valueDeserializer deserializer of the value, applied on the first read of the value
+     * @param headerMapper      mapper of headers, applied on the first read of headers
+     * @return the snapshot
+     */
+    public static LazyRecordSnapshot of(ConsumerRecord<byte[], byte[]> record, Deserializer<?> keyDeserializer,
+                                        Deserializer<?> valueDeserializer, KafkaHeaderMapper headerMapper) {
+        Object key = record.key() != null
+                ? keyDeserializer.deserialize(record.topic(), record.headers(), record.key())
+                : null;
+        return new LazyRecordSnapshot(record.topic(), key != null ? key : "", record.value(), record.headers(),
+                valueDeserializer, headerMapper);
+    }
+
+    public byte[] getRawValue() {
+        return rawValue;
+    }
+
+    public Headers getRawHeaders() {
+        return rawHeaders;
+    }
+
+    @Override
+    public synchronized Object getValue() {
+        if (!valueResolved) {
+            super.setValue(rawValue != null ? valueDeserializer.deserialize(getTopic(), rawHeaders, rawValue) : null);
+            valueResolved = true;
+        }
+        return super.getValue();
+    }
+
+    @Override
+    public synchronized void setValue(Object value) {
+        super.setValue(value);
+        valueResolved = true;
+    }
+
+    @Override
+    public synchronized Map<String, Object> getHeaders() {
+        if (!headersResolved) {
+            Map<String, Object> headers = new HashMap<>();
+            headerMapper.toHeaders(rawHeaders, headers);
+            super.setHeaders(headers);
+            headersResolved = true;
+        }
+        return super.getHeaders();
+    }
+
+    @Override
+    public synchronized void setHeaders(Map<String, Object> headers) {
+        super.setHeaders(headers);
+        headersResolved = true;
+    }
+}
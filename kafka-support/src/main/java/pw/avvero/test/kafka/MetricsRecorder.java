@@ -0,0 +1,79 @@
+package pw.avvero.test.kafka;
+
+/**
+ * Receives timings of {@link KafkaSupport} barriers and statistics of {@link RecordCaptor}, see
+ * {@link KafkaSupportMetrics}.
+ * <p>
+ * Timed operations are started with {@code start*} methods, the returned {@link MetricsSample} is passed to the
+ * callback finishing the operation.
+ */
+public interface MetricsRecorder {
+
+    /**
+     * Recorder which records nothing. Record Captor skips collecting statistics when it is set.
+     */
+    MetricsRecorder NOOP = new NoopMetricsRecorder();
+
+    /**
+     * Is called when waiting for partition assignment of listener containers is started.
+     *
+     * @return the sample passed to {@link #assignment}
+     */
+    default MetricsSample startAssignment() {
+        return new MetricsSample();
+    }
+
+    /**
+     * Is called when waiting for partition assignment of listener containers is finished.
+     *
+     * @param sample           timing of the wait
+     * @param containers       number of awaited containers
+     * @param failedContainers number of containers without assigned partitions
+     */
+    void assignment(MetricsSample sample, int containers, int failedContainers);
+
+    /**
+     * Is called when an offset commit barrier is started.
+     *
+     * @return the sample passed to {@link #offsetCommit}
+     */
+    default MetricsSample startOffsetCommit() {
+        return new MetricsSample();
+    }
+
+    /**
+     * Is called when an offset commit barrier is finished.
+     *
+     * @param barrier   name of the barrier: {@code all}, {@code partitions} or {@code produced}
+     * @param sample    timing of the wait
+     * @param attempts  number of attempts
+     * @param committed false if the barrier is failed
+     */
+    void offsetCommit(String barrier, MetricsSample sample, int attempts, boolean committed);
+
+    /**
+     * Is called when a request to the cluster made by a barrier is started.
+     *
+     * @return the sample passed to {@link #adminCall}
+     */
+    default MetricsSample startAdminCall() {
+        return new MetricsSample();
+    }
+
+    /**
+     * Is called when a request to the cluster made by a barrier is finished.
+     *
+     * @param operation name of the AdminClient operation
+     * @param sample    timing of the request
+     */
+    void adminCall(String operation, MetricsSample sample);
+
+    /**
+     * Is called when records are captured by {@link RecordCaptor}.
+     *
+     * @param topic     the topic
+     * @param records   number of captured records
+     * @param topicSize number of records retained for the topic
+     */
+    void recordsCaptured(String topic, int records, int topicSize);
+}
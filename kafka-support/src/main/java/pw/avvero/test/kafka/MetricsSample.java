@@ -0,0 +1,19 @@
+package pw.avvero.test.kafka;
+
+import java.time.Duration;
+
+/**
+ * Timing of an operation reported to {@link MetricsRecorder}, started by one of its {@code start*} methods and passed
+ * to the callback finishing the operation. Recorders can extend it to bind their own timers.
+ */
+public class MetricsSample {
+
+    private final long startNanos = System.nanoTime();
+
+    /**
+     * @return time elapsed since the start of the operation
+     */
+    public Duration getDuration() {
+        return Duration.ofNanos(System.nanoTime() - startNanos);
+    }
+}
@@ -0,0 +1,70 @@
+package pw.avvero.test.kafka;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link MetricsRecorder} backed by Micrometer:
+ * <ul>
+ *     <li>{@code kts.assignment} - timer of waiting for partition assignment, tagged with {@code outcome}</li>
+ *     <li>{@code kts.offset.commit} - timer of offset commit barriers, tagged with {@code barrier} and
+ *     {@code outcome}</li>
+ *     <li>{@code kts.offset.commit.attempts} - distribution of attempts of offset commit barriers</li>
+ *     <li>{@code kts.admin.call} - timer of requests to the cluster, tagged with {@code operation}</li>
+ *     <li>{@code kts.captor.records} - counter of captured records, tagged with {@code topic}</li>
+ *     <li>{@code kts.captor.size} - gauge of retained records, tagged with {@code topic}</li>
+ * </ul>
+ */
+public class MicrometerMetricsRecorder implements MetricsRecorder {
+
+    private final MeterRegistry registry;
+    private final Map<String, AtomicInteger> topicSizes = new ConcurrentHashMap<>();
+
+    public MicrometerMetricsRecorder(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    static MicrometerMetricsRecorder global() {
+        return new MicrometerMetricsRecorder(Metrics.globalRegistry);
+    }
+
+    @Override
+    public void assignment(MetricsSample sample, int containers, int failedContainers) {
+        registry.timer("kts.assignment", "outcome", outcome(failedContainers == 0)).record(sample.getDuration());
+    }
+
+    @Override
+    public void offsetCommit(String barrier, MetricsSample sample, int attempts, boolean committed) {
+        Timer.builder("kts.offset.commit")
+                .tags("barrier", barrier, "outcome", outcome(committed))
+                .register(registry)
+                .record(sample.getDuration());
+        DistributionSummary.builder("kts.offset.commit.attempts")
+                .tags("barrier", barrier)
+                .register(registry)
+                .record(attempts);
+    }
+
+    @Override
+    public void adminCall(String operation, MetricsSample sample) {
+        registry.timer("kts.admin.call", "operation", operation).record(sample.getDuration());
+    }
+
+    @Override
+    public void recordsCaptured(String topic, int records, int topicSize) {
+        registry.counter("kts.captor.records", "topic", topic).increment(records);
+        topicSizes.computeIfAbsent(topic, t -> registry.gauge("kts.captor.size", Tags.of("topic", t),
+                new AtomicInteger())).set(topicSize);
+    }
+
+    private static String outcome(boolean success) {
+        return success ? "success" : "failure";
+    }
+}
@@ -0,0 +1,23 @@
+package pw.avvero.test.kafka;
+
+/**
+ * {@link MetricsRecorder} which records nothing, see {@link MetricsRecorder#NOOP}.
+ */
+final class NoopMetricsRecorder implements MetricsRecorder {
+
+    @Override
+    public void assignment(MetricsSample sample, int containers, int failedContainers) {
+    }
+
+    @Override
+    public void offsetCommit(String barrier, MetricsSample sample, int attempts, boolean committed) {
+    }
+
+    @Override
+    public void adminCall(String operation, MetricsSample sample) {
+    }
+
+    @Override
+    public void recordsCaptured(String topic, int records, int topicSize) {
+    }
+}
@@ -0,0 +1,51 @@
+package pw.avvero.test.kafka;
+
+import org.apache.kafka.clients.CommonClientConfigs;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerInterceptor;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+
+import java.util.Map;
+
+/**
+ * Consumer interceptor that reports committed offsets to {@link OffsetCommitTracker}. Is registered with property
+ * {@code spring.kafka.consumer.properties.interceptor.classes=pw.avvero.test.kafka.OffsetCommitInterceptor}.
+ * Commits are reported for the cluster of {@code bootstrap.servers} of the consumer.
+ */
+public class OffsetCommitInterceptor implements ConsumerInterceptor<Object, Object> {
+
+    private final OffsetCommitTracker tracker = OffsetCommitTracker.getInstance();
+    private String cluster;
+    private String groupId;
+
+    @Override
+    public void configure(Map<String, ?> configs) {
+        Object groupIdConfig = configs.get(ConsumerConfig.GROUP_ID_CONFIG);
+        if (groupIdConfig != null) {
+            cluster = AdminClientRegistry.clusterKey(configs.get(CommonClientConfigs.BOOTSTRAP_SERVERS_CONFIG));
+            groupId = groupIdConfig.toString();
+            tracker.register(cluster, groupId);
+        }
+    }
+
+    @Override
+    public ConsumerRecords<Object, Object> onConsume(ConsumerRecords<Object, Object> records) {
+        return records;
+    }
+
+    @Override
+    public void onCommit(Map<TopicPartition, OffsetAndMetadata> offsets) {
+        if (groupId != null) {
+            tracker.onCommit(cluster, groupId, offsets);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (groupId != null) {
+            tracker.unregister(cluster, groupId);
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package pw.avvero.test.kafka;
+
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Keeps track of offsets committed by consumers running inside the current JVM. Commit events are delivered by
+ * {@link OffsetCommitInterceptor}, which allows the offset commit barrier to be completed as soon as the expected
+ * offsets are committed instead of polling the cluster with AdminClient.
+ * <p>
+ * Consumer groups are tracked per cluster, see {@link AdminClientRegistry#clusterKey(Object)}, so application contexts
+ * and in-memory brokers sharing the JVM don't see commits of each other's groups with the same id. A null cluster key
+ * stands for any cluster, it is used by barriers which AdminClient is not known to {@link AdminClientRegistry}.
+ */
+public class OffsetCommitTracker {
+
+    private static final OffsetCommitTracker INSTANCE = new OffsetCommitTracker();
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition committed = lock.newCondition();
+    private final Map<String, Map<String, Integer>> activeConsumersPerCluster = new HashMap<>();
+    private final Map<String, Map<String, Map<TopicPartition, Long>>> committedOffsetsPerCluster = new HashMap<>();
+
+    public static OffsetCommitTracker getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Registers consumer of the consumer group, commits of the group become tracked.
+     *
+     * @param cluster the cluster key
+     * @param groupId consumer group id
+     */
+    public void register(String cluster, String groupId) {
+        lock.lock();
+        try {
+            activeConsumersPerCluster.computeIfAbsent(String.valueOf(cluster), k -> new HashMap<>())
+                    .merge(groupId, 1, Integer::sum);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Unregisters consumer of the consumer group. Group is not tracked anymore when its last consumer is closed, and
+     * offsets committed by the group are forgotten.
+     *
+     * @param cluster the cluster key
+     * @param groupId consumer group id
+     */
+    public void unregister(String cluster, String groupId) {
+        String key = String.valueOf(cluster);
+        lock.lock();
+        try {
+            Map<String, Integer> activeConsumers = activeConsumersPerCluster.get(key);
+            if (activeConsumers == null
+                    || activeConsumers.computeIfPresent(groupId, (k, count) -> count > 1 ? count - 1 : null) != null) {
+                return;
+            }
+            Map<String, Map<TopicPartition, Long>> committedOffsets = committedOffsetsPerCluster.get(key);
+            if (committedOffsets != null) {
+                committedOffsets.remove(groupId);
+                if (committedOffsets.isEmpty()) {
+                    committedOffsetsPerCluster.remove(key);
+                }
+            }
+            if (activeConsumers.isEmpty()) {
+                activeConsumersPerCluster.remove(key);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns true if there is at least one active consumer of the group of the cluster in the current JVM.
+     *
+     * @param cluster the cluster key or null for any cluster
+     * @param groupId consumer group id
+     * @return true if commits of the group are tracked
+     */
+    public boolean isTracked(String cluster, String groupId) {
+        lock.lock();
+        try {
+            if (cluster != null) {
+                return activeConsumersPerCluster.getOrDefault(cluster, Map.of()).containsKey(groupId);
+            }
+            for (Map<String, Integer> activeConsumers : activeConsumersPerCluster.values()) {
+                if (activeConsumers.containsKey(groupId)) {
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Records committed offsets of the consumer group and wakes up waiting barriers. Commits of consumer groups that
+     * are not tracked are ignored.
+     *
+     * @param cluster the cluster key
+     * @param groupId consumer group id
+     * @param offsets committed offsets
+     */
+    public void onCommit(String cluster, String groupId, Map<TopicPartition, OffsetAndMetadata> offsets) {
+        String key = String.valueOf(cluster);
+        lock.lock();
+        try {
+            if (!activeConsumersPerCluster.getOrDefault(key, Map.of()).containsKey(groupId)) {
+                return;
+            }
+            Map<TopicPartition, Long> groupOffsets = committedOffsetsPerCluster
+                    .computeIfAbsent(key, k -> new HashMap<>())
+                    .computeIfAbsent(groupId, k -> new HashMap<>());
+            offsets.forEach((tp, oam) -> {
+                if (oam != null) groupOffsets.put(tp, oam.offset());
+            });
+            committed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until every consumer group of the cluster commits at least the expected offset for every partition.
+     *
+     * @param cluster         the cluster key or null for any cluster
+     * @param expectedOffsets expected offsets per consumer group and partition
+     * @param timeoutMillis   maximum time to wait
+     * @return true if all expected offsets are committed, false if the time is elapsed
+     * @throws InterruptedException if the current thread is interrupted while waiting
+     */
+    public boolean awaitCommitted(String cluster, Map<String, Map<TopicPartition, Long>> expectedOffsets,
+                                  long timeoutMillis) throws InterruptedException {
+        long nanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        lock.lock();
+        try {
+            while (!isCommitted(cluster, expectedOffsets)) {
+                if (nanos <= 0L) {
+                    return false;
+                }
+                nanos = committed.awaitNanos(nanos);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean isCommitted(String cluster, Map<String, Map<TopicPartition, Long>> expectedOffsets) {
+        for (Map.Entry<String, Map<TopicPartition, Long>> groupEntry : expectedOffsets.entrySet()) {
+            for (Map.Entry<TopicPartition, Long> entry : groupEntry.getValue().entrySet()) {
+                long committedOffset = getCommittedOffset(cluster, groupEntry.getKey(), entry.getKey());
+                if (committedOffset < entry.getValue()) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private long getCommittedOffset(String cluster, String groupId, TopicPartition topicPartition) {
+        long committedOffset = -1L;
+        for (Map.Entry<String, Map<String, Map<TopicPartition, Long>>> entry : committedOffsetsPerCluster.entrySet()) {
+            if (cluster == null || cluster.equals(entry.getKey())) {
+                Long offset = entry.getValue().getOrDefault(groupId, Map.of()).get(topicPartition);
+                if (offset != null) {
+                    committedOffset = Math.max(committedOffset, offset);
+                }
+            }
+        }
+        return committedOffset;
+    }
+}
@@ -0,0 +1,280 @@
+package pw.avvero.test.kafka;
+
+import org.apache.kafka.clients.admin.*;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.KafkaFuture;
+import org.apache.kafka.common.TopicPartition;
+
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Lag matrix of consumer groups over partitions: end offsets of partitions and offsets committed by consumer groups.
+ * Offsets are kept in primitive arrays indexed by partition and consumer group, so checking that the total lag is
+ * zero doesn't allocate.
+ * <p>
+ * A pair of consumer group and partition is lagging when the group has committed an offset for the partition and the
+ * offset differs from the end offset. Partitions without records and partitions the group has never committed are not
+ * lagging.
+ */
+public final class OffsetSnapshot {
+
+    /**
+     * Committed offset of a consumer group that has never committed the partition.
+     */
+    public static final long NO_OFFSET = -1L;
+
+    private final TopicPartition[] partitions;
+    private final String[] consumerGroups;
+    private final Map<TopicPartition, Integer> partitionIndex;
+    private final long[] endOffsets;
+    /**
+     * Committed offsets, row per consumer group: {@code committedOffsets[group * partitions.length + partition]}.
+     */
+    private final long[] committedOffsets;
+    private final long totalLag;
+    private final int laggingPairs;
+
+    private OffsetSnapshot(TopicPartition[] partitions, String[] consumerGroups, long[] endOffsets,
+                           long[] committedOffsets) {
+        this.partitions = partitions;
+        this.consumerGroups = consumerGroups;
+        this.endOffsets = endOffsets;
+        this.committedOffsets = committedOffsets;
+        this.partitionIndex = new HashMap<>(partitions.length * 2);
+        for (int p = 0; p < partitions.length; p++) {
+            partitionIndex.put(partitions[p], p);
+        }
+        long lag = 0L;
+        int lagging = 0;
+        for (int g = 0; g < consumerGroups.length; g++) {
+            for (int p = 0; p < partitions.length; p++) {
+                long pairLag = lag(g, p);
+                if (pairLag != 0L) {
+                    lag += pairLag;
+                    lagging++;
+                }
+            }
+        }
+        this.totalLag = lag;
+        this.laggingPairs = lagging;
+    }
+
+    /**
+     * Takes the snapshot of the partitions for the consumer groups. End offsets and committed offsets are requested
+     * at once, AdminClient batches requests of each kind by partition leader and group coordinator.
+     *
+     * @param adminClient     the AdminClient connected to the cluster
+     * @param topicPartitions partitions to include
+     * @param consumerGroups  consumer groups to include
+     * @return the snapshot
+     * @throws ExecutionException   if offsets can't be fetched
+     * @throws InterruptedException if the current thread is interrupted while waiting
+     */
+    public static OffsetSnapshot take(AdminClient adminClient, Set<TopicPartition> topicPartitions,
+                                      Set<String> consumerGroups) throws ExecutionException, InterruptedException {
+        MetricsRecorder recorder = KafkaSupportMetrics.getRecorder();
+        MetricsSample sample = recorder.startAdminCall();
+        TopicPartition[] partitions = topicPartitions.toArray(new TopicPartition[0]);
+        String[] groups = consumerGroups.toArray(new String[0]);
+        Map<TopicPartition, OffsetSpec> specs = new HashMap<>(partitions.length * 2);
+        for (TopicPartition partition : partitions) {
+            specs.put(partition, OffsetSpec.latest());
+        }
+        ListOffsetsResult endOffsetsResult = adminClient.listOffsets(specs);
+        Map<String, Set<TopicPartition>> groupPartitions = new HashMap<>(groups.length * 2);
+        for (String group : groups) {
+            groupPartitions.put(group, topicPartitions);
+        }
+        ListConsumerGroupOffsetsResult committedResult = listCommittedOffsets(adminClient, groupPartitions);
+        Map<TopicPartition, ListOffsetsResult.ListOffsetsResultInfo> endOffsetInfos = endOffsetsResult.all().get();
+        long[] endOffsets = new long[partitions.length];
+        for (int p = 0; p < partitions.length; p++) {
+            endOffsets[p] = endOffsetInfos.get(partitions[p]).offset();
+        }
+        OffsetSnapshot snapshot = new OffsetSnapshot(partitions, groups, endOffsets,
+                committedOffsets(committedResult, groups, groupPartitions, partitions));
+        recorder.adminCall("offsetSnapshot", sample);
+        return snapshot;
+    }
+
+    /**
+     * Takes the snapshot for already known end offsets, only committed offsets are requested. Each consumer group is
+     * requested only for its own partitions.
+     */
+    static OffsetSnapshot take(AdminClient adminClient, Map<TopicPartition, Long> topicOffsets,
+                               Map<String, Set<TopicPartition>> consumerGroupPartitions)
+            throws ExecutionException, InterruptedException {
+        MetricsRecorder recorder = KafkaSupportMetrics.getRecorder();
+        MetricsSample sample = recorder.startAdminCall();
+        TopicPartition[] partitions = new TopicPartition[topicOffsets.size()];
+        long[] endOffsets = new long[partitions.length];
+        int p = 0;
+        for (Map.Entry<TopicPartition, Long> entry : topicOffsets.entrySet()) {
+            partitions[p] = entry.getKey();
+            endOffsets[p++] = entry.getValue();
+        }
+        String[] groups = consumerGroupPartitions.keySet().toArray(new String[0]);
+        Set<TopicPartition> requested = topicOffsets.keySet();
+        Map<String, Set<TopicPartition>> groupPartitions = new HashMap<>(groups.length * 2);
+        for (String group : groups) {
+            Set<TopicPartition> partitionsOfGroup = consumerGroupPartitions.get(group);
+            if (partitionsOfGroup.containsAll(requested)) {
+                partitionsOfGroup = requested;
+            } else {
+                partitionsOfGroup = new HashSet<>(partitionsOfGroup);
+                partitionsOfGroup.retainAll(requested);
+            }
+            groupPartitions.put(group, partitionsOfGroup);
+        }
+        ListConsumerGroupOffsetsResult committedResult = listCommittedOffsets(adminClient, groupPartitions);
+        long[] committedOffsets = committedOffsets(committedResult, groups, groupPartitions, partitions);
+        recorder.adminCall("listConsumerGroupOffsets", sample);
+        return new OffsetSnapshot(partitions, groups, endOffsets, committedOffsets);
+    }
+
+    private static ListConsumerGroupOffsetsResult listCommittedOffsets(AdminClient adminClient,
+                                                                       Map<String, Set<TopicPartition>> groupPartitions) {
+        Map<String, ListConsumerGroupOffsetsSpec> groupSpecs = new HashMap<>(groupPartitions.size() * 2);
+        groupPartitions.forEach((group, partitions) -> {
+            if (!partitions.isEmpty()) {
+                groupSpecs.put(group, new ListConsumerGroupOffsetsSpec().topicPartitions(partitions));
+            }
+        });
+        return groupSpecs.isEmpty() ? null : adminClient.listConsumerGroupOffsets(groupSpecs);
+    }
+
+    private static long[] committedOffsets(ListConsumerGroupOffsetsResult result, String[] groups,
+                                           Map<String, Set<TopicPartition>> groupPartitions,
+                                           TopicPartition[] partitions)
+            throws ExecutionException, InterruptedException {
+        long[] committedOffsets = new long[groups.length * partitions.length];
+        Arrays.fill(committedOffsets, NO_OFFSET);
+        if (result == null) {
+            return committedOffsets;
+        }
+        for (int g = 0; g < groups.length; g++) {
+            if (groupPartitions.get(groups[g]).isEmpty()) {
+                continue;
+            }
+            KafkaFuture<Map<TopicPartition, OffsetAndMetadata>> future = result.partitionsToOffsetAndMetadata(groups[g]);
+            Map<TopicPartition, OffsetAndMetadata> offsets = future.get();
+            int row = g * partitions.length;
+            for (int p = 0; p < partitions.length; p++) {
+                OffsetAndMetadata offset = offsets.get(partitions[p]);
+                if (offset != null) {
+                    committedOffsets[row + p] = offset.offset();
+                }
+            }
+        }
+        return committedOffsets;
+    }
+
+    public List<TopicPartition> getPartitions() {
+        return Collections.unmodifiableList(Arrays.asList(partitions));
+    }
+
+    public List<String> getConsumerGroups() {
+        return Collections.unmodifiableList(Arrays.asList(consumerGroups));
+    }
+
+    /**
+     * @return end offset of the partition
+     * @throws IllegalArgumentException if the partition is not included into the snapshot
+     */
+    public long getEndOffset(TopicPartition partition) {
+        return endOffsets[indexOf(partition)];
+    }
+
+    /**
+     * @return offset committed by the consumer group or {@link #NO_OFFSET}
+     * @throws IllegalArgumentException if the partition or the consumer group is not included into the snapshot
+     */
+    public long getCommittedOffset(String consumerGroup, TopicPartition partition) {
+        return committedOffsets[indexOf(consumerGroup) * partitions.length + indexOf(partition)];
+    }
+
+    /**
+     * @return number of records of the partition not yet committed by the consumer group, zero if the pair is not
+     * lagging
+     */
+    public long getLag(String consumerGroup, TopicPartition partition) {
+        return lag(indexOf(consumerGroup), indexOf(partition));
+    }
+
+    /**
+     * @return sum of lags of all pairs of consumer groups and partitions
+     */
+    public long getTotalLag() {
+        return totalLag;
+    }
+
+    /**
+     * @return true if no consumer group is lagging on any partition
+     */
+    public boolean isCommitted() {
+        return laggingPairs == 0;
+    }
+
+    /**
+     * @return end offsets that are not yet committed per consumer group and partition, empty if everything is
+     * committed
+     */
+    public Map<String, Map<TopicPartition, Long>> getPendingOffsets() {
+        if (laggingPairs == 0) {
+            return Collections.emptyMap();
+        }
+        Map<String, Map<TopicPartition, Long>> pendingOffsets = new HashMap<>();
+        for (int g = 0; g < consumerGroups.length; g++) {
+            for (int p = 0; p < partitions.length; p++) {
+                if (lag(g, p) != 0L) {
+                    pendingOffsets.computeIfAbsent(consumerGroups[g], k -> new HashMap<>())
+                            .put(partitions[p], endOffsets[p]);
+                }
+            }
+        }
+        return pendingOffsets;
+    }
+
+    /**
+     * Renders committed offsets into the frame, partitions not committed by a consumer group are skipped.
+     */
+    public void renderTo(OffsetSnapshotFrame frame) {
+        for (int g = 0; g < consumerGroups.length; g++) {
+            int row = g * partitions.length;
+            for (int p = 0; p < partitions.length; p++) {
+                long committedOffset = committedOffsets[row + p];
+                if (committedOffset != NO_OFFSET) {
+                    frame.append(consumerGroups[g], partitions[p], committedOffset, endOffsets[p]);
+                }
+            }
+            frame.split();
+        }
+    }
+
+    private long lag(int group, int partition) {
+        long committedOffset = committedOffsets[group * partitions.length + partition];
+        long endOffset = endOffsets[partition];
+        if (committedOffset == NO_OFFSET || endOffset == 0L) {
+            return 0L;
+        }
+        return endOffset - committedOffset;
+    }
+
+    private int indexOf(TopicPartition partition) {
+        Integer index = partitionIndex.get(partition);
+        if (index == null) {
+            throw new IllegalArgumentException("Partition " + partition + " is not included into the snapshot");
+        }
+        return index;
+    }
+
+    private int indexOf(String consumerGroup) {
+        for (int g = 0; g < consumerGroups.length; g++) {
+            if (consumerGroups[g].equals(consumerGroup)) {
+                return g;
+            }
+        }
+        throw new IllegalArgumentException("Consumer group " + consumerGroup + " is not included into the snapshot");
+    }
+}
@@ -2,43 +2,119 @@ package pw.avvero.test.kafka;
 
 import org.apache.kafka.common.TopicPartition;
 
+/**
+ * Table of committed offsets of consumer groups and end offsets of partitions, logged by the offset commit barrier.
+ * Rows are rendered directly into a single buffer, that can be reused between attempts with {@link #reset()}.
+ */
 public class OffsetSnapshotFrame {
 
-    private final StringBuilder sb;
+    /**
+     * Rows included into the frame.
+     */
+    public enum Mode {
+        /**
+         * Every partition consumed by a consumer group.
+         */
+        ALL,
+        /**
+         * Only partitions which end offsets are not committed by a consumer group yet.
+         */
+        MISMATCHED
+    }
+
+    private static final String TITLE = "[KTS] Offset comparison frame\n";
+    private static final String SPLIT = " ______________________________________________________________________________________________________\n";
+    private static final String HEADER = "| Consumer group             | Partition                                              | CGF    | PO    |\n";
+
+    private final Mode mode;
+    private final StringBuilder sb = new StringBuilder(1024);
+    private int rowsSinceSplit;
+    private int hiddenRows;
 
     public OffsetSnapshotFrame() {
-        this.sb = new StringBuilder("[KTS] Offset comparison frame\n");
-        sb.append(" ______________________________________________________________________________________________________\n");
-        sb.append("| Consumer group             | Partition                                              | CGF    | PO    |\n");
+        this(Mode.ALL);
+    }
+
+    public OffsetSnapshotFrame(Mode mode) {
+        this.mode = mode;
+        reset();
+    }
+
+    /**
+     * Removes all rows, the buffer is kept for the next rendering.
+     */
+    public void reset() {
+        sb.setLength(0);
+        sb.append(TITLE).append(SPLIT).append(HEADER);
+        rowsSinceSplit = 0;
+        hiddenRows = 0;
     }
 
     public void append(String consumerGroup, TopicPartition topicPartition, Long consumerGroupOffset, Long partitionOffset) {
         boolean equal = partitionOffset == null || partitionOffset == 0L || partitionOffset.equals(consumerGroupOffset);
-
-        char[] frameRow = "| cg                         | t                                                      | o      | o     |          \n".toCharArray();
-        replace(frameRow, 2, 27, consumerGroup);
-        replace(frameRow, 31, 84, topicPartition.toString());
-        replace(frameRow, 88, 92, consumerGroupOffset.toString());
-        replace(frameRow, 97, 102, partitionOffset != null ? partitionOffset.toString() : " ");
-        replace(frameRow, 104, 108, equal ? "   " : "<-- error");
-        sb.append(new String(frameRow));
+        if (equal && mode == Mode.MISMATCHED) {
+            hiddenRows++;
+            return;
+        }
+        sb.append("| ");
+        pad(26 - appendClipped(consumerGroup, 26));
+        sb.append(" | ");
+        int length = appendClipped(topicPartition.topic(), 54);
+        if (length < 54) {
+            sb.append('-');
+            length += 1 + appendNumber(topicPartition.partition(), 53 - length);
+        }
+        pad(54 - length);
+        sb.append(" | ");
+        pad(5 - appendClipped(consumerGroupOffset, 5));
+        sb.append("  | ");
+        pad(6 - appendClipped(partitionOffset, 6));
+        sb.append(equal ? "|          \n" : "|<--       \n");
+        rowsSinceSplit++;
     }
 
     public void split() {
-        sb.append(" ______________________________________________________________________________________________________\n");
+        if (mode == Mode.ALL || rowsSinceSplit > 0) {
+            sb.append(SPLIT);
+        }
+        rowsSinceSplit = 0;
     }
 
     public String toString() {
+        if (hiddenRows > 0) {
+            return sb + "[KTS] " + hiddenRows + " rows with committed offsets are hidden\n";
+        }
         return sb.toString();
     }
 
-    private void replace(char[] target, int s, int e, String substring) {
-        int length = Math.min(e - s + 1, substring.length());
-        for (int i = 0; i < length; i++) {
-            target[s + i] = substring.charAt(i);
+    private int appendClipped(String value, int width) {
+        int length = Math.min(width, value.length());
+        sb.append(value, 0, length);
+        return length;
+    }
+
+    private int appendClipped(Long value, int width) {
+        return value != null ? appendNumber(value, width) : 0;
+    }
+
+    private int appendNumber(long v, int width) {
+        if (width <= 0) {
+            return 0;
+        }
+        int length = v < 0 ? 2 : 1;
+        for (long rest = Math.abs(v / 10); rest > 0; rest /= 10) {
+            length++;
+        }
+        if (length <= width) {
+            sb.append(v);
+            return length;
         }
-        for (int i = length; i < e - s + 1; i++) {
-            target[s + i] = ' ';
+        return appendClipped(Long.toString(v), width);
+    }
+
+    private void pad(int count) {
+        for (int i = 0; i < count; i++) {
+            sb.append(' ');
         }
     }
 }
@@ -0,0 +1,181 @@
+package pw.avvero.test.kafka;
+
+import org.apache.kafka.clients.admin.AdminClient;
+import org.apache.kafka.common.TopicPartition;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Per-partition store of settled end offsets of a cluster. A partition is settled at an end offset when all consumer
+ * groups checked by the barrier have committed it, so subsequent barriers checking the same consumer groups can skip
+ * the partition until its end offset changes. A barrier checking other consumer groups, e.g. groups of another
+ * namespace or groups that have joined since, checks the partition again.
+ * <p>
+ * Every partition gets a sequential id, watermarks are kept in fixed-size chunks of primitive longs indexed by the id.
+ * A watermark packs the end offset with the id of the set of consumer groups, so both are read and written at once.
+ * Chunks are never moved, so readers and writers don't need to lock and the store is safe to share between tests
+ * running in parallel.
+ */
+public class OffsetWatermarkStore {
+
+    static final long UNKNOWN = -1L;
+    private static final int CHUNK_SIZE = 1024;
+    private static final int GROUP_SET_BITS = 16;
+    private static final int MAX_GROUP_SETS = 1 << GROUP_SET_BITS;
+    private static final long MAX_OFFSET = Long.MAX_VALUE >>> GROUP_SET_BITS;
+    private static final Map<AdminClient, OffsetWatermarkStore> stores =
+            Collections.synchronizedMap(new WeakHashMap<>());
+
+    private final Map<TopicPartition, Integer> partitionIds = new ConcurrentHashMap<>();
+    private final AtomicInteger nextId = new AtomicInteger();
+    private final Map<Set<String>, Integer> groupSetIds = new ConcurrentHashMap<>();
+    private final AtomicInteger nextGroupSetId = new AtomicInteger();
+    private volatile AtomicLongArray[] chunks = new AtomicLongArray[0];
+
+    /**
+     * Returns the watermark store of the cluster the AdminClient is connected to.
+     *
+     * @param adminClient the AdminClient
+     * @return the store
+     */
+    public static OffsetWatermarkStore forAdminClient(AdminClient adminClient) {
+        return stores.computeIfAbsent(adminClient, k -> new OffsetWatermarkStore());
+    }
+
+    /**
+     * Returns ids of sets of consumer groups checking each partition.
+     *
+     * @param consumerGroupPartitions partitions checked per consumer group
+     * @param topicPartitions         partitions of the barrier
+     * @return id of the set of consumer groups per partition
+     */
+    public Map<TopicPartition, Integer> getGroupSetIds(Map<String, Set<TopicPartition>> consumerGroupPartitions,
+                                                       Set<TopicPartition> topicPartitions) {
+        Map<TopicPartition, Set<String>> groupsPerPartition = new HashMap<>();
+        for (TopicPartition topicPartition : topicPartitions) {
+            groupsPerPartition.put(topicPartition, new TreeSet<>());
+        }
+        consumerGroupPartitions.forEach((consumerGroup, partitions) -> {
+            for (TopicPartition topicPartition : partitions) {
+                Set<String> groups = groupsPerPartition.get(topicPartition);
+                if (groups != null) {
+                    groups.add(consumerGroup);
+                }
+            }
+        });
+        Map<TopicPartition, Integer> ids = new HashMap<>();
+        groupsPerPartition.forEach((topicPartition, groups) -> ids.put(topicPartition, getGroupSetId(groups)));
+        return ids;
+    }
+
+    /**
+     * Returns the id of the set of consumer groups. Ids are not assigned once the limit of sets is reached, partitions
+     * checked by such sets are never settled.
+     *
+     * @param consumerGroups the consumer groups
+     * @return the id or -1 if the limit is reached
+     */
+    public int getGroupSetId(Set<String> consumerGroups) {
+        Integer id = groupSetIds.get(consumerGroups);
+        if (id != null) {
+            return id;
+        }
+        if (nextGroupSetId.get() >= MAX_GROUP_SETS) {
+            return -1;
+        }
+        return groupSetIds.computeIfAbsent(new TreeSet<>(consumerGroups), k -> {
+            int next = nextGroupSetId.getAndIncrement();
+            return next < MAX_GROUP_SETS ? next : -1;
+        });
+    }
+
+    /**
+     * Returns true if the partition is settled at the end offset for the set of consumer groups.
+     *
+     * @param topicPartition the partition
+     * @param endOffset      current end offset of the partition
+     * @param groupSetId     id of the set of consumer groups checking the partition
+     * @return true if all consumer groups of the set have committed the end offset
+     */
+    public boolean isSettled(TopicPartition topicPartition, long endOffset, int groupSetId) {
+        if (endOffset == 0L) {
+            return true;
+        }
+        long watermark = pack(endOffset, groupSetId);
+        return watermark != UNKNOWN && getWatermark(topicPartition) == watermark;
+    }
+
+    /**
+     * Returns the settled end offset of the partition.
+     *
+     * @param topicPartition the partition
+     * @return the offset or {@link #UNKNOWN} if the partition is not settled
+     */
+    public long get(TopicPartition topicPartition) {
+        long watermark = getWatermark(topicPartition);
+        return watermark != UNKNOWN ? watermark >>> GROUP_SET_BITS : UNKNOWN;
+    }
+
+    private long getWatermark(TopicPartition topicPartition) {
+        Integer id = partitionIds.get(topicPartition);
+        if (id == null) {
+            return UNKNOWN;
+        }
+        AtomicLongArray[] current = chunks;
+        int chunk = id / CHUNK_SIZE;
+        return chunk < current.length ? current[chunk].get(id % CHUNK_SIZE) : UNKNOWN;
+    }
+
+    /**
+     * Settles the partition at the end offset for the set of consumer groups.
+     *
+     * @param topicPartition the partition
+     * @param endOffset      end offset committed by all consumer groups of the set
+     * @param groupSetId     id of the set of consumer groups checking the partition
+     */
+    public void settle(TopicPartition topicPartition, long endOffset, int groupSetId) {
+        int id = partitionIds.computeIfAbsent(topicPartition, tp -> {
+            int next = nextId.getAndIncrement();
+            ensureCapacity(next);
+            return next;
+        });
+        chunks[id / CHUNK_SIZE].set(id % CHUNK_SIZE, pack(endOffset, groupSetId));
+    }
+
+    /**
+     * Forgets all settled offsets, every partition is checked by the next barrier.
+     */
+    public void reset() {
+        for (AtomicLongArray chunk : chunks) {
+            for (int i = 0; i < chunk.length(); i++) {
+                chunk.set(i, UNKNOWN);
+            }
+        }
+    }
+
+    private static long pack(long endOffset, int groupSetId) {
+        if (endOffset < 0L || endOffset > MAX_OFFSET || groupSetId < 0) {
+            return UNKNOWN;
+        }
+        return endOffset << GROUP_SET_BITS | groupSetId;
+    }
+
+    private synchronized void ensureCapacity(int id) {
+        int required = id / CHUNK_SIZE + 1;
+        if (chunks.length >= required) {
+            return;
+        }
+        AtomicLongArray[] extended = Arrays.copyOf(chunks, required);
+        for (int i = chunks.length; i < required; i++) {
+            AtomicLongArray chunk = new AtomicLongArray(CHUNK_SIZE);
+            for (int j = 0; j < CHUNK_SIZE; j++) {
+                chunk.set(j, UNKNOWN);
+            }
+            extended[i] = chunk;
+        }
+        chunks = extended;
+    }
+}
@@ -0,0 +1,140 @@
+package pw.avvero.test.kafka;
+
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.kafka.config.ContainerCustomizer;
+import org.springframework.kafka.listener.ConcurrentMessageListenerContainer;
+import org.springframework.kafka.listener.ConsumerAwareRebalanceListener;
+import org.springframework.kafka.listener.ContainerProperties;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Rebalance listener that keeps track of partitions assigned to consumers of a listener container and wakes up
+ * threads waiting for the assignment as soon as partitions are assigned. The listener delegates to the rebalance
+ * listener previously configured for the container, if any.
+ * <p>
+ * Is installed into listener containers created by Spring Boot with the bean:
+ * <pre>
+ * &#64;Bean
+ * ContainerCustomizer&lt;Object, Object, ConcurrentMessageListenerContainer&lt;Object, Object&gt;&gt; partitionAssignmentCustomizer() {
+ *     return PartitionAssignmentListener.containerCustomizer();
+ * }
+ * </pre>
+ */
+public class PartitionAssignmentListener implements ConsumerAwareRebalanceListener {
+
+    private final ConsumerRebalanceListener delegate;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition assigned = lock.newCondition();
+    private final Map<Consumer<?, ?>, Set<TopicPartition>> assignments = new IdentityHashMap<>();
+
+    public PartitionAssignmentListener(ConsumerRebalanceListener delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * Installs the listener into the container properties, the configured rebalance listener becomes the delegate.
+     *
+     * @param containerProperties properties of the container that is not started yet
+     */
+    public static void install(ContainerProperties containerProperties) {
+        ConsumerRebalanceListener current = containerProperties.getConsumerRebalanceListener();
+        if (!(current instanceof PartitionAssignmentListener)) {
+            containerProperties.setConsumerRebalanceListener(new PartitionAssignmentListener(current));
+        }
+    }
+
+    public static ContainerCustomizer<Object, Object, ConcurrentMessageListenerContainer<Object, Object>> containerCustomizer() {
+        return container -> install(container.getContainerProperties());
+    }
+
+    /**
+     * Waits until consumers of the container have at least the required number of assigned partitions.
+     *
+     * @param partitions the number of partitions
+     * @param deadline   deadline of the wait
+     * @return the actual number of assigned partitions
+     * @throws InterruptedException if the current thread is interrupted while waiting
+     */
+    public int awaitAssignment(int partitions, Deadline deadline) throws InterruptedException {
+        lock.lock();
+        try {
+            int count = count();
+            while (count < partitions) {
+                long nanos = deadline.remainingNanos();
+                if (nanos <= 0L) {
+                    break;
+                }
+                assigned.awaitNanos(Math.min(nanos, TimeUnit.SECONDS.toNanos(1)));
+                count = count();
+            }
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void onPartitionsRevokedBeforeCommit(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+        if (delegate instanceof ConsumerAwareRebalanceListener) {
+            ((ConsumerAwareRebalanceListener) delegate).onPartitionsRevokedBeforeCommit(consumer, partitions);
+        } else if (delegate != null) {
+            delegate.onPartitionsRevoked(partitions);
+        }
+    }
+
+    @Override
+    public void onPartitionsRevokedAfterCommit(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+        if (delegate instanceof ConsumerAwareRebalanceListener) {
+            ((ConsumerAwareRebalanceListener) delegate).onPartitionsRevokedAfterCommit(consumer, partitions);
+        }
+        update(consumer, partitions, false);
+    }
+
+    @Override
+    public void onPartitionsLost(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+        if (delegate instanceof ConsumerAwareRebalanceListener) {
+            ((ConsumerAwareRebalanceListener) delegate).onPartitionsLost(consumer, partitions);
+        } else if (delegate != null) {
+            delegate.onPartitionsLost(partitions);
+        }
+        update(consumer, partitions, false);
+    }
+
+    @Override
+    public void onPartitionsAssigned(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+        if (delegate instanceof ConsumerAwareRebalanceListener) {
+            ((ConsumerAwareRebalanceListener) delegate).onPartitionsAssigned(consumer, partitions);
+        } else if (delegate != null) {
+            delegate.onPartitionsAssigned(partitions);
+        }
+        update(consumer, partitions, true);
+    }
+
+    private void update(Consumer<?, ?> consumer, Collection<TopicPartition> partitions, boolean assign) {
+        lock.lock();
+        try {
+            Set<TopicPartition> consumerPartitions = assignments.computeIfAbsent(consumer, c -> new HashSet<>());
+            if (assign) {
+                consumerPartitions.addAll(partitions);
+                assigned.signalAll();
+            } else {
+                consumerPartitions.removeAll(partitions);
+                if (consumerPartitions.isEmpty()) {
+                    assignments.remove(consumer);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int count() {
+        return assignments.values().stream().mapToInt(Set::size).sum();
+    }
+}
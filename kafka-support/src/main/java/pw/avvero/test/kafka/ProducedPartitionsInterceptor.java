@@ -0,0 +1,42 @@
+package pw.avvero.test.kafka;
+
+import org.apache.kafka.clients.CommonClientConfigs;
+import org.apache.kafka.clients.producer.ProducerInterceptor;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.TopicPartition;
+
+import java.util.Map;
+
+/**
+ * Producer interceptor that reports partitions of acknowledged records to {@link ProducedPartitionsTracker}. Is
+ * registered with property
+ * {@code spring.kafka.producer.properties.interceptor.classes=pw.avvero.test.kafka.ProducedPartitionsInterceptor}.
+ * Partitions are reported for the cluster of {@code bootstrap.servers} of the producer.
+ */
+public class ProducedPartitionsInterceptor implements ProducerInterceptor<Object, Object> {
+
+    private final ProducedPartitionsTracker tracker = ProducedPartitionsTracker.getInstance();
+    private String cluster;
+
+    @Override
+    public ProducerRecord<Object, Object> onSend(ProducerRecord<Object, Object> record) {
+        return record;
+    }
+
+    @Override
+    public void onAcknowledgement(RecordMetadata metadata, Exception exception) {
+        if (exception == null && metadata != null && metadata.hasOffset()) {
+            tracker.onProduced(cluster, new TopicPartition(metadata.topic(), metadata.partition()), metadata.offset());
+        }
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public void configure(Map<String, ?> configs) {
+        cluster = AdminClientRegistry.clusterKey(configs.get(CommonClientConfigs.BOOTSTRAP_SERVERS_CONFIG));
+    }
+}
@@ -0,0 +1,73 @@
+package pw.avvero.test.kafka;
+
+import org.apache.kafka.common.TopicPartition;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps track of partitions that received records from producers of the current JVM since the last offset commit
+ * barrier. Records are reported by {@link ProducedPartitionsInterceptor}, which allows the barrier to check only the
+ * partitions touched by the test instead of the whole cluster.
+ * <p>
+ * Partitions are kept per cluster, see {@link AdminClientRegistry#clusterKey(Object)}, so application contexts and
+ * in-memory brokers sharing the JVM don't see partitions of each other. A null cluster key stands for all clusters,
+ * it is used by barriers which AdminClient is not known to {@link AdminClientRegistry}.
+ */
+public class ProducedPartitionsTracker {
+
+    private static final ProducedPartitionsTracker INSTANCE = new ProducedPartitionsTracker();
+
+    private final Map<String, Map<TopicPartition, Long>> producedOffsets = new ConcurrentHashMap<>();
+
+    public static ProducedPartitionsTracker getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Records the offset of the record acknowledged by the cluster.
+     *
+     * @param cluster        the cluster key
+     * @param topicPartition the partition
+     * @param offset         offset of the record
+     */
+    public void onProduced(String cluster, TopicPartition topicPartition, long offset) {
+        producedOffsets.computeIfAbsent(String.valueOf(cluster), k -> new ConcurrentHashMap<>())
+                .merge(topicPartition, offset + 1, Math::max);
+    }
+
+    /**
+     * Returns partitions of the cluster that received records since the last barrier along with the end offset known
+     * to producers.
+     *
+     * @param cluster the cluster key or null for all clusters
+     * @return end offsets of produced partitions
+     */
+    public Map<TopicPartition, Long> getProducedOffsets(String cluster) {
+        if (cluster != null) {
+            return new HashMap<>(producedOffsets.getOrDefault(cluster, Map.of()));
+        }
+        Map<TopicPartition, Long> offsets = new HashMap<>();
+        producedOffsets.values().forEach(clusterOffsets -> clusterOffsets.forEach((topicPartition, offset) ->
+                offsets.merge(topicPartition, offset, Math::max)));
+        return offsets;
+    }
+
+    /**
+     * Removes partitions of the cluster checked by the barrier. A partition is kept if it received records after the
+     * snapshot had been taken.
+     *
+     * @param cluster        the cluster key or null for all clusters
+     * @param checkedOffsets end offsets of produced partitions the barrier is completed for
+     */
+    public void clear(String cluster, Map<TopicPartition, Long> checkedOffsets) {
+        for (Map.Entry<String, Map<TopicPartition, Long>> entry : producedOffsets.entrySet()) {
+            if (cluster == null || cluster.equals(entry.getKey())) {
+                Map<TopicPartition, Long> clusterOffsets = entry.getValue();
+                checkedOffsets.forEach((topicPartition, checkedOffset) -> clusterOffsets.computeIfPresent(
+                        topicPartition, (k, offset) -> offset <= checkedOffset ? null : offset));
+            }
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package pw.avvero.test.kafka;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.admin.AdminClient;
+import org.springframework.boot.autoconfigure.kafka.KafkaConnectionDetails;
+import org.springframework.context.ApplicationContext;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.listener.ContainerProperties;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.kafka.support.TopicPartitionOffset;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Initializes producers of {@link KafkaTemplate} beans and fetches metadata of topics of listener containers, so the
+ * first record sent by a test doesn't pay for connection setup, producer id and metadata requests. Topics of Record
+ * Captor are topics of its listener container, so metadata of topics the application produces to is fetched as well
+ * unless {@link KafkaSupportSettings#isCaptorTopicsWarmUp()} is disabled.
+ * <p>
+ * Only topics listed by the cluster are warmed up: metadata of a missing topic blocks the producer for
+ * {@code max.block.ms} and creates the topic if the broker creates topics automatically. Topics are listed through
+ * {@link ClusterMetadataCache}, so nothing is warmed up if the application context has no
+ * {@link KafkaConnectionDetails}.
+ * <p>
+ * Producers are shared by templates unless the producer factory creates a producer per thread, in that case only
+ * metadata of the cluster is warmed up.
+ */
+@Slf4j
+final class ProducerWarmup {
+
+    private ProducerWarmup() {
+    }
+
+    /**
+     * Starts the warm-up, topics of the cluster are listed and their metadata is fetched in parallel.
+     *
+     * @param applicationContext the application context with templates
+     * @param containers         listener containers which topics are warmed up
+     * @param settings           settings defining parallelism and whether topics of Record Captor are warmed up
+     * @return future completed when producers of all templates are initialized
+     */
+    @SuppressWarnings("rawtypes")
+    static CompletableFuture<Void> start(ApplicationContext applicationContext,
+                                         Collection<MessageListenerContainer> containers,
+                                         KafkaSupportSettings settings) {
+        Collection<KafkaTemplate> templates = applicationContext.getBeansOfType(KafkaTemplate.class).values();
+        Set<String> topics = getTopics(containers, settings.isCaptorTopicsWarmUp());
+        if (templates.isEmpty() || topics.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        KafkaConnectionDetails connectionDetails = applicationContext.getBeanProvider(KafkaConnectionDetails.class)
+                .getIfAvailable();
+        if (connectionDetails == null) {
+            log.debug("[KTS] Warm-up of producers is skipped, topics of the cluster can't be listed");
+            return CompletableFuture.completedFuture(null);
+        }
+        AdminClient adminClient = AdminClientRegistry.getAdminClient(applicationContext,
+                connectionDetails.getBootstrapServers());
+        long startTime = System.currentTimeMillis();
+        log.debug("[KTS] Warm-up of {} producers is started for topics {}", templates.size(), topics);
+        int threads = Math.max(1, Math.min(templates.size() * topics.size(),
+                settings.getAssignmentParallelism()));
+        AtomicInteger threadNumber = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "kts-warmup-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        return CompletableFuture.supplyAsync(() -> getListedTopics(adminClient, topics, settings), executor)
+                .thenCompose(listedTopics -> {
+                    List<CompletableFuture<?>> futures = new ArrayList<>();
+                    for (KafkaTemplate template : templates) {
+                        for (String topic : listedTopics) {
+                            futures.add(CompletableFuture.runAsync(() -> template.partitionsFor(topic), executor));
+                        }
+                    }
+                    return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]));
+                })
+                .whenComplete((result, e) -> {
+                    executor.shutdown();
+                    if (e != null) {
+                        log.warn("[KTS] Warm-up of producers is failed in {} ms", System.currentTimeMillis() - startTime,
+                                e);
+                    } else {
+                        log.debug("[KTS] Warm-up of producers is finished in {} ms",
+                                System.currentTimeMillis() - startTime);
+                    }
+                });
+    }
+
+    private static Set<String> getListedTopics(AdminClient adminClient, Set<String> topics,
+                                               KafkaSupportSettings settings) {
+        Set<String> listedTopics = new LinkedHashSet<>(topics);
+        try {
+            listedTopics.retainAll(ClusterMetadataCache.forAdminClient(adminClient)
+                    .getMetadata(adminClient, settings.getMetadataCacheTtl().toMillis()).getTopics());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CompletionException(e);
+        } catch (ExecutionException e) {
+            throw new CompletionException(e.getCause());
+        }
+        if (listedTopics.size() < topics.size()) {
+            Set<String> missingTopics = new LinkedHashSet<>(topics);
+            missingTopics.removeAll(listedTopics);
+            log.debug("[KTS] Topics {} are not warmed up, they are not listed by the cluster", missingTopics);
+        }
+        return listedTopics;
+    }
+
+    /**
+     * @return topics subscribed by name or assigned explicitly, pattern subscriptions are skipped
+     */
+    static Set<String> getTopics(Collection<MessageListenerContainer> containers, boolean includeCaptorTopics) {
+        Set<String> topics = new LinkedHashSet<>();
+        for (MessageListenerContainer container : containers) {
+            if (!includeCaptorTopics && RecordCaptorConsumer.LISTENER_ID.equals(container.getListenerId())) {
+                continue;
+            }
+            ContainerProperties containerProperties = container.getContainerProperties();
+            if (containerProperties.getTopics() != null) {
+                topics.addAll(Arrays.asList(containerProperties.getTopics()));
+            }
+            if (containerProperties.getTopicPartitions() != null) {
+                for (TopicPartitionOffset topicPartition : containerProperties.getTopicPartitions()) {
+                    topics.add(topicPartition.getTopic());
+                }
+            }
+        }
+        return topics;
+    }
+}
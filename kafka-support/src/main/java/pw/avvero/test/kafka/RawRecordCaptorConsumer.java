@@ -0,0 +1,81 @@
+package pw.avvero.test.kafka;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.serialization.Deserializer;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.support.DefaultKafkaHeaderMapper;
+import org.springframework.kafka.support.JacksonPresent;
+import org.springframework.kafka.support.KafkaHeaderMapper;
+import org.springframework.kafka.support.SimpleKafkaHeaderMapper;
+
+/**
+ * Variant of {@link RecordCaptorConsumer} which consumes records with {@code ByteArrayDeserializer} and captures
+ * {@link LazyRecordSnapshot}: values are deserialized and headers are mapped only for records read by the test.
+ * Should be used for topics with large payloads.
+ * <p>
+ * Consumed records can be appended to a {@link RecordDumpWriter} as they were received, so records of a failed test
+ * can be inspected or replayed offline.
+ */
+@Slf4j
+public class RawRecordCaptorConsumer {
+
+    private final RecordCaptor recordCaptor;
+    private final Deserializer<?> keyDeserializer;
+    private final Deserializer<?> valueDeserializer;
+    private final KafkaHeaderMapper headerMapper;
+    private final RecordDumpWriter dump;
+
+    /**
+     * Creates the consumer which deserializes keys and values as strings.
+     *
+     * @param recordCaptor the captor
+     */
+    public RawRecordCaptorConsumer(RecordCaptor recordCaptor) {
+        this(recordCaptor, new StringDeserializer(), new StringDeserializer());
+    }
+
+    public RawRecordCaptorConsumer(RecordCaptor recordCaptor, Deserializer<?> keyDeserializer,
+                                   Deserializer<?> valueDeserializer) {
+        this(recordCaptor, keyDeserializer, valueDeserializer, JacksonPresent.isJackson2Present()
+                ? new DefaultKafkaHeaderMapper()
+                : new SimpleKafkaHeaderMapper());
+    }
+
+    public RawRecordCaptorConsumer(RecordCaptor recordCaptor, Deserializer<?> keyDeserializer,
+                                   Deserializer<?> valueDeserializer, KafkaHeaderMapper headerMapper) {
+        this(recordCaptor, keyDeserializer, valueDeserializer, headerMapper, null);
+    }
+
+    /**
+     * @param dump the dump consumed records are appended to, null to disable the dump
+     */
+    public RawRecordCaptorConsumer(RecordCaptor recordCaptor, Deserializer<?> keyDeserializer,
+                                   Deserializer<?> valueDeserializer, KafkaHeaderMapper headerMapper,
+                                   RecordDumpWriter dump) {
+        this.recordCaptor = recordCaptor;
+        this.keyDeserializer = keyDeserializer;
+        this.valueDeserializer = valueDeserializer;
+        this.headerMapper = headerMapper;
+        this.dump = dump;
+    }
+
+    /**
+     * Consume a raw {@link ConsumerRecord}.
+     *
+     * @param record The Kafka {@link ConsumerRecord} to be captured.
+     */
+    @KafkaListener(id = RecordCaptorConsumer.LISTENER_ID, topics = RecordCaptorConsumer.TOPICS,
+            groupId = RecordCaptorConsumer.GROUP_ID,
+            properties = {
+                    "key.deserializer=org.apache.kafka.common.serialization.ByteArrayDeserializer",
+                    "value.deserializer=org.apache.kafka.common.serialization.ByteArrayDeserializer"
+            })
+    public void eventCaptorListener(ConsumerRecord<byte[], byte[]> record) {
+        if (dump != null) {
+            dump.append(record);
+        }
+        recordCaptor.capture(LazyRecordSnapshot.of(record, keyDeserializer, valueDeserializer, headerMapper));
+    }
+}
@@ -1,52 +1,776 @@
 package pw.avvero.test.kafka;
 
 import lombok.extern.slf4j.Slf4j;
-import org.awaitility.Awaitility;
-
-import java.util.Collections;
-import java.util.List;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.concurrent.TimeUnit;
-import java.util.function.Supplier;
+import org.apache.kafka.common.header.Header;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
+/**
+ * Storage of captured records grouped by topic and key.
+ * <p>
+ * Records of every topic are appended to a chunked log in the order of capture, records of every key are appended to
+ * a log of the key, so capturing is O(1) regardless of the number of records already captured. Returned lists are
+ * stable views which are not changed by subsequent captures.
+ * <p>
+ * The number of retained records can be bounded per topic and per key, the oldest records are evicted first.
+ * <p>
+ * Threads waiting for records are registered per topic and key and are woken up by the capture of the expected
+ * record, there is no polling.
+ * <p>
+ * Records marked with the id of a test (see {@link TestScope}) are also captured into the scope of the test, which is
+ * a separate captor returned by {@link #scope(String)}. Tests running in parallel read their own records from their
+ * scopes and discard them once finished. Markers of the last {@value #MAX_DISCARDED_SCOPES} discarded scopes are kept,
+ * so records of finished tests captured late don't create their scopes again.
+ * <p>
+ * Records can be looked up by values of headers and fields declared with {@link #indexHeader(String)} and
+ * {@link #indexField(String, Function)}. Indexes of a topic are built on the first capture or lookup after the
+ * declaration and are maintained at capture time, so {@link #query(String)} finds records in O(matches) without
+ * scanning the topic:
+ * <pre>
+ * recordCaptor.indexHeader("correlationId");
+ * recordCaptor.indexField("type", record -&gt; ((Map) record.getValue()).get("type"));
+ * recordCaptor.query("topic1").header("correlationId", "42").field("type", "created").findFirst();
+ * </pre>
+ */
 @Slf4j
 public class RecordCaptor implements RecordCaptorAccess {
 
-    private final Map<String, Map<Object, List<RecordSnapshot>>> topicKeyRecords = new ConcurrentHashMap<>();
+    static final int MAX_DISCARDED_SCOPES = 1024;
+    private static final RecordCaptor DISCARDED = new RecordCaptor(1, 1, null, Collections.emptyMap());
+
+    private final Map<String, TopicRecords> topicRecords = new ConcurrentHashMap<>();
+    private final int maxRecordsPerTopic;
+    private final int maxRecordsPerKey;
+    private final String scopeHeader;
+    /**
+     * Scopes by the id of the test, discarded scopes are mapped to {@link #DISCARDED}, so a record of the test can't
+     * create the scope again in between the check and the creation.
+     */
+    private final Map<String, RecordCaptor> scopes = new ConcurrentHashMap<>();
+    /**
+     * Ids of discarded scopes in the order of discarding, the oldest markers are expired first.
+     */
+    private final Queue<String> discardedScopes = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger discardedScopesCount = new AtomicInteger();
+    private final Map<String, Index> indexes;
+
+    public RecordCaptor() {
+        this(Integer.MAX_VALUE, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param maxRecordsPerTopic maximum number of records retained for a topic
+     * @param maxRecordsPerKey   maximum number of records retained for a key of a topic
+     */
+    public RecordCaptor(int maxRecordsPerTopic, int maxRecordsPerKey) {
+        this(maxRecordsPerTopic, maxRecordsPerKey, TestScope.HEADER);
+    }
+
+    /**
+     * @param maxRecordsPerTopic maximum number of records retained for a topic
+     * @param maxRecordsPerKey   maximum number of records retained for a key of a topic
+     * @param scopeHeader        header with the id of the test scope, a correlation header of the application can be
+     *                           used as well; null to disable scopes
+     */
+    public RecordCaptor(int maxRecordsPerTopic, int maxRecordsPerKey, String scopeHeader) {
+        this(maxRecordsPerTopic, maxRecordsPerKey, scopeHeader, new ConcurrentHashMap<>());
+    }
+
+    /**
+     * Scopes share declared indexes with the captor they belong to.
+     */
+    private RecordCaptor(int maxRecordsPerTopic, int maxRecordsPerKey, String scopeHeader, Map<String, Index> indexes) {
+        if (maxRecordsPerTopic <= 0 || maxRecordsPerKey <= 0) {
+            throw new IllegalArgumentException("Record bounds must be positive");
+        }
+        this.maxRecordsPerTopic = maxRecordsPerTopic;
+        this.maxRecordsPerKey = maxRecordsPerKey;
+        this.scopeHeader = scopeHeader;
+        this.indexes = indexes;
+    }
 
     public void capture(RecordSnapshot recordSnapshot) {
-        log.debug("[KTS] Record captured for topic {} for key {}\n    Headers: {}\n    Value: {}", recordSnapshot.getTopic(),
-                recordSnapshot.getKey(), recordSnapshot.getHeaders(), recordSnapshot.getValue());
-        topicKeyRecords.computeIfAbsent(recordSnapshot.getTopic(), k -> new ConcurrentHashMap<>())
-                .computeIfAbsent(recordSnapshot.getKey(), k -> new CopyOnWriteArrayList<>())
-                .add(recordSnapshot);
+        if (log.isDebugEnabled()) {
+            log.debug("[KTS] Record captured for topic {} for key {}\n    Headers: {}\n    Value: {}",
+                    recordSnapshot.getTopic(), recordSnapshot.getKey(), recordSnapshot.getHeaders(),
+                    recordSnapshot.getValue());
+        }
+        int topicSize = topicRecords(recordSnapshot.getTopic())
+                .append(recordSnapshot, maxRecordsPerTopic, maxRecordsPerKey);
+        if (KafkaSupportMetrics.isEnabled()) {
+            KafkaSupportMetrics.getRecorder().recordsCaptured(recordSnapshot.getTopic(), 1, topicSize);
+        }
+        RecordCaptor scope = scopeOf(recordSnapshot);
+        if (scope != null) {
+            scope.topicRecords(recordSnapshot.getTopic())
+                    .append(recordSnapshot, maxRecordsPerTopic, maxRecordsPerKey);
+        }
+    }
+
+    /**
+     * Captures a batch of records, records of a topic are appended under a single lock of the topic.
+     *
+     * @param recordSnapshots records in the order of consumption
+     */
+    public void captureAll(List<RecordSnapshot> recordSnapshots) {
+        Map<String, List<RecordSnapshot>> recordsPerTopic = groupByTopic(recordSnapshots);
+        log.debug("[KTS] Batch of {} records captured for topics {}", recordSnapshots.size(), recordsPerTopic.keySet());
+        MetricsRecorder recorder = KafkaSupportMetrics.isEnabled() ? KafkaSupportMetrics.getRecorder() : null;
+        for (Map.Entry<String, List<RecordSnapshot>> entry : recordsPerTopic.entrySet()) {
+            int topicSize = topicRecords(entry.getKey())
+                    .appendAll(entry.getValue(), maxRecordsPerTopic, maxRecordsPerKey);
+            if (recorder != null) {
+                recorder.recordsCaptured(entry.getKey(), entry.getValue().size(), topicSize);
+            }
+        }
+        if (scopeHeader == null) {
+            return;
+        }
+        Map<RecordCaptor, List<RecordSnapshot>> recordsPerScope = new IdentityHashMap<>();
+        for (RecordSnapshot recordSnapshot : recordSnapshots) {
+            RecordCaptor scope = scopeOf(recordSnapshot);
+            if (scope != null) {
+                recordsPerScope.computeIfAbsent(scope, k -> new ArrayList<>()).add(recordSnapshot);
+            }
+        }
+        recordsPerScope.forEach((scope, records) -> groupByTopic(records).forEach((topic, topicRecords) ->
+                scope.topicRecords(topic).appendAll(topicRecords, maxRecordsPerTopic, maxRecordsPerKey)));
+    }
+
+    private TopicRecords topicRecords(String topic) {
+        return topicRecords.computeIfAbsent(topic, k -> new TopicRecords(indexes));
+    }
+
+    private static Map<String, List<RecordSnapshot>> groupByTopic(List<RecordSnapshot> recordSnapshots) {
+        Map<String, List<RecordSnapshot>> recordsPerTopic = new LinkedHashMap<>();
+        for (RecordSnapshot recordSnapshot : recordSnapshots) {
+            recordsPerTopic.computeIfAbsent(recordSnapshot.getTopic(), k -> new ArrayList<>()).add(recordSnapshot);
+        }
+        return recordsPerTopic;
+    }
+
+    /**
+     * Returns the captor of records marked with the id of the test, records captured before the call are included.
+     * The scope keeps records until it is discarded.
+     *
+     * @param testId the id of the test, see {@link TestScope}
+     * @return the captor of the scope
+     */
+    public RecordCaptor scope(String testId) {
+        if (scopeHeader == null) {
+            throw new IllegalStateException("Scopes are disabled for the captor");
+        }
+        return scopes.compute(testId, (k, scope) -> scope == null || scope == DISCARDED ? newScope() : scope);
+    }
+
+    /**
+     * Returns the captor of records of the test the current thread works for.
+     *
+     * @return the captor of the scope
+     * @throws IllegalStateException if the current thread is not within a {@link TestScope}
+     */
+    public RecordCaptor scope() {
+        String testId = TestScope.currentId();
+        if (testId == null) {
+            throw new IllegalStateException("Current thread is not within a test scope");
+        }
+        return scope(testId);
+    }
+
+    /**
+     * Drops records of the scope, records of the test captured later are not kept in the scope anymore. The marker
+     * of the discarded scope expires once {@value #MAX_DISCARDED_SCOPES} scopes are discarded after it.
+     *
+     * @param testId the id of the test
+     */
+    public void discardScope(String testId) {
+        scopes.put(testId, DISCARDED);
+        discardedScopes.add(testId);
+        if (discardedScopesCount.incrementAndGet() > MAX_DISCARDED_SCOPES) {
+            String expired = discardedScopes.poll();
+            if (expired != null) {
+                discardedScopesCount.decrementAndGet();
+                // The scope could be requested again with scope(testId) since it was discarded
+                scopes.remove(expired, DISCARDED);
+            }
+        }
+    }
+
+    private RecordCaptor newScope() {
+        return new RecordCaptor(maxRecordsPerTopic, maxRecordsPerKey, null, indexes);
+    }
+
+    private RecordCaptor scopeOf(RecordSnapshot recordSnapshot) {
+        if (scopeHeader == null) {
+            return null;
+        }
+        String testId = getHeader(recordSnapshot, scopeHeader);
+        if (testId == null) {
+            return null;
+        }
+        RecordCaptor scope = scopes.computeIfAbsent(testId, k -> newScope());
+        return scope != DISCARDED ? scope : null;
+    }
+
+    /**
+     * Returns the value of the header as a string, raw headers of {@link LazyRecordSnapshot} are read to keep the rest
+     * of headers unmapped.
+     */
+    private static String getHeader(RecordSnapshot recordSnapshot, String name) {
+        Object value;
+        if (recordSnapshot instanceof LazyRecordSnapshot) {
+            Header header = ((LazyRecordSnapshot) recordSnapshot).getRawHeaders().lastHeader(name);
+            value = header != null ? header.value() : null;
+        } else {
+            value = recordSnapshot.getHeaders() != null ? recordSnapshot.getHeaders().get(name) : null;
+        }
+        return toHeaderValue(value);
+    }
+
+    private static String toHeaderValue(Object value) {
+        if (value == null) {
+            return null;
+        }
+        return value instanceof byte[] ? new String((byte[]) value, StandardCharsets.UTF_8) : value.toString();
+    }
+
+    /**
+     * Declares the index of records by the value of the header. Values are compared as UTF-8 strings.
+     *
+     * @param header the name of the header
+     * @return this captor
+     */
+    public RecordCaptor indexHeader(String header) {
+        return declare(new Index(Index.HEADER + header, record -> getHeader(record, header)));
+    }
+
+    /**
+     * Declares the index of records by the value extracted from records, e.g. a field of a deserialized value.
+     * Records the extractor returns null for or fails on are not indexed. Declaring the field again replaces the
+     * extractor and drops built indexes of the field.
+     *
+     * @param field     the name of the field used in queries
+     * @param extractor the function extracting the value of the field from a record
+     * @return this captor
+     */
+    public RecordCaptor indexField(String field, Function<RecordSnapshot, Object> extractor) {
+        return declare(new Index(Index.FIELD + field, extractor));
+    }
+
+    private RecordCaptor declare(Index index) {
+        Index previous = indexes.put(index.id, index);
+        if (previous != null) {
+            topicRecords.values().forEach(records -> records.dropIndex(index.id));
+            scopes.values().forEach(scope -> scope.topicRecords.values()
+                    .forEach(records -> records.dropIndex(index.id)));
+        }
+        return this;
+    }
+
+    /**
+     * Starts a query of records of the topic.
+     *
+     * @param topic the topic
+     * @return the query
+     */
+    public Query query(String topic) {
+        return new Query(topicRecords.get(topic));
     }
 
     @Override
     public List<RecordSnapshot> getRecords(String topic, Object key) {
-        return topicKeyRecords.getOrDefault(topic, Collections.emptyMap())
-                .getOrDefault(key, Collections.emptyList());
+        TopicRecords records = topicRecords.get(topic);
+        return records != null ? records.getRecords(key) : Collections.emptyList();
     }
 
     public List<RecordSnapshot> getRecords(String topic) {
-        return topicKeyRecords.getOrDefault(topic, Collections.emptyMap())
-                .values().stream()
-                .flatMap(List::stream)
-                .collect(Collectors.toList());
+        TopicRecords records = topicRecords.get(topic);
+        return records != null ? records.getRecords() : Collections.emptyList();
     }
 
+    /**
+     * Returns access to records which waits until the expected number of records is captured for the key or the time
+     * is elapsed. Records captured so far are returned if the time is elapsed.
+     *
+     * @param numberOrRecords the expected number of records
+     * @param millis          maximum time to wait
+     * @return access to records
+     */
     public RecordCaptorAccess awaitAtMost(int numberOrRecords, long millis) {
-        RecordCaptor recordCaptor = this;
         return (topic, key) -> {
-            Supplier<List<RecordSnapshot>> supplier = () -> recordCaptor.getRecords(topic, key);
-            Awaitility.await()
-                    .atMost(millis, TimeUnit.MILLISECONDS)
-                    .pollInterval(50, TimeUnit.MILLISECONDS)
-                    .until(() -> supplier.get().size() != numberOrRecords);
-            return supplier.get();
+            TopicRecords records = topicRecords(topic);
+            await(records.register(key, numberOrRecords), Duration.ofMillis(millis), records);
+            return records.getRecords(key);
         };
     }
+
+    /**
+     * Waits until a record matching the predicate is captured for the topic or the time is elapsed.
+     *
+     * @param topic     the topic
+     * @param predicate the predicate records are tested with
+     * @param timeout   maximum time to wait
+     * @return records matching the predicate, empty if the time is elapsed
+     */
+    public List<RecordSnapshot> awaitRecords(String topic, Predicate<RecordSnapshot> predicate, Duration timeout) {
+        return awaitRecords(topic, predicate, 1, timeout);
+    }
+
+    /**
+     * Waits until the expected number of records matching the predicate is captured for the topic or the time is
+     * elapsed.
+     *
+     * @param topic           the topic
+     * @param predicate       the predicate records are tested with
+     * @param numberOfRecords the expected number of records
+     * @param timeout         maximum time to wait
+     * @return records matching the predicate captured so far
+     */
+    public List<RecordSnapshot> awaitRecords(String topic, Predicate<RecordSnapshot> predicate, int numberOfRecords,
+                                             Duration timeout) {
+        TopicRecords records = topicRecords(topic);
+        return await(records.register(predicate, numberOfRecords), timeout, records);
+    }
+
+    private static List<RecordSnapshot> await(RecordWaiter waiter, Duration timeout, TopicRecords records) {
+        try {
+            return waiter.future.get(timeout.toNanos(), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            log.debug("[KTS] Expected {} records are not captured within {} ms", waiter.numberOfRecords,
+                    timeout.toMillis());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Captured records can't be tested", e.getCause());
+        } finally {
+            records.unregister(waiter);
+        }
+        return waiter.getMatched();
+    }
+
+    /**
+     * Records of a topic. Appends are serialized per topic, reads are lock-free.
+     * <p>
+     * Records evicted by the per-key bound are marked in the topic log and skipped by readers, the topic log is
+     * compacted once evicted records outnumber retained ones.
+     * <p>
+     * Indexes map values of declared headers and fields to logs of records, they are built from the topic log on the
+     * first append or lookup after the declaration and are rebuilt on compaction.
+     */
+    private static class TopicRecords {
+
+        private final Map<String, Index> definitions;
+        private final Map<String, Map<Object, RecordLog<Entry>>> indexLogs = new ConcurrentHashMap<>();
+        private final Map<Object, RecordLog<Entry>> keyLogs = new ConcurrentHashMap<>();
+        private final Map<Object, List<RecordWaiter>> keyWaiters = new HashMap<>();
+        private final List<RecordWaiter> topicWaiters = new ArrayList<>();
+        private volatile RecordLog<Entry> topicLog = new RecordLog<>();
+        private int evicted;
+
+        TopicRecords(Map<String, Index> definitions) {
+            this.definitions = definitions;
+        }
+
+        /**
+         * @return number of retained records
+         */
+        synchronized int append(RecordSnapshot record, int maxRecordsPerTopic, int maxRecordsPerKey) {
+            doAppend(record, maxRecordsPerTopic, maxRecordsPerKey);
+            return topicLog.size() - evicted;
+        }
+
+        /**
+         * @return number of retained records
+         */
+        synchronized int appendAll(List<RecordSnapshot> records, int maxRecordsPerTopic, int maxRecordsPerKey) {
+            for (RecordSnapshot record : records) {
+                doAppend(record, maxRecordsPerTopic, maxRecordsPerKey);
+            }
+            return topicLog.size() - evicted;
+        }
+
+        private void doAppend(RecordSnapshot record, int maxRecordsPerTopic, int maxRecordsPerKey) {
+            Entry entry = new Entry(record);
+            RecordLog<Entry> keyLog = keyLogs.computeIfAbsent(record.getKey(), k -> new RecordLog<>());
+            keyLog.append(entry);
+            topicLog.append(entry);
+            for (Index index : definitions.values()) {
+                Map<Object, RecordLog<Entry>> indexLog = indexLogs.get(index.id);
+                if (indexLog == null) {
+                    // Built from the topic log which already contains the entry
+                    indexLogs.put(index.id, buildIndex(index));
+                } else {
+                    addToIndex(indexLog, index, entry);
+                }
+            }
+            if (keyLog.size() > maxRecordsPerKey) {
+                keyLog.evictHead().evicted = true;
+                evicted++;
+            }
+            while (topicLog.size() - evicted > maxRecordsPerTopic) {
+                Entry head = topicLog.evictHead();
+                if (head.evicted) {
+                    evicted--;
+                } else {
+                    head.evicted = true;
+                    RecordLog<Entry> headKeyLog = keyLogs.get(head.record.getKey());
+                    headKeyLog.evictHead();
+                    removeIfEmpty(head.record.getKey(), headKeyLog);
+                }
+            }
+            if (evicted > RecordLog.CHUNK_SIZE && evicted > topicLog.size() - evicted) {
+                compact();
+            }
+            List<RecordWaiter> waiters = keyWaiters.get(record.getKey());
+            if (waiters != null) {
+                waiters.removeIf(waiter -> waiter.offer(record));
+                if (waiters.isEmpty()) {
+                    keyWaiters.remove(record.getKey());
+                }
+            }
+            topicWaiters.removeIf(waiter -> waiter.offer(record));
+        }
+
+        /**
+         * Drops the log of the key once all its records are evicted, so the number of logs is bounded by retained
+         * records rather than by keys ever captured.
+         */
+        private void removeIfEmpty(Object key, RecordLog<Entry> keyLog) {
+            if (keyLog.size() == 0) {
+                keyLogs.remove(key, keyLog);
+            }
+        }
+
+        /**
+         * Registers a waiter for records of the key, records already captured are counted.
+         */
+        synchronized RecordWaiter register(Object key, int numberOfRecords) {
+            RecordWaiter waiter = new RecordWaiter(record -> true, numberOfRecords);
+            if (!waiter.offerAll(getRecords(key))) {
+                keyWaiters.computeIfAbsent(key, k -> new ArrayList<>()).add(waiter);
+            }
+            return waiter;
+        }
+
+        /**
+         * Registers a waiter for records of the topic matching the predicate, records already captured are tested.
+         */
+        synchronized RecordWaiter register(Predicate<RecordSnapshot> predicate, int numberOfRecords) {
+            RecordWaiter waiter = new RecordWaiter(predicate, numberOfRecords);
+            if (!waiter.offerAll(getRecords())) {
+                topicWaiters.add(waiter);
+            }
+            return waiter;
+        }
+
+        synchronized void unregister(RecordWaiter waiter) {
+            topicWaiters.remove(waiter);
+            keyWaiters.values().removeIf(waiters -> waiters.remove(waiter) && waiters.isEmpty());
+        }
+
+        List<RecordSnapshot> getRecords(Object key) {
+            RecordLog<Entry> keyLog = keyLogs.get(key);
+            if (keyLog == null) {
+                return Collections.emptyList();
+            }
+            List<Entry> entries = keyLog.snapshot();
+            return new AbstractList<RecordSnapshot>() {
+                @Override
+                public RecordSnapshot get(int index) {
+                    return entries.get(index).record;
+                }
+
+                @Override
+                public int size() {
+                    return entries.size();
+                }
+            };
+        }
+
+        List<RecordSnapshot> getRecords() {
+            List<Entry> entries = topicLog.snapshot();
+            List<RecordSnapshot> records = new ArrayList<>(entries.size());
+            for (Entry entry : entries) {
+                if (!entry.evicted) {
+                    records.add(entry.record);
+                }
+            }
+            return Collections.unmodifiableList(records);
+        }
+
+        /**
+         * Returns records which value of the index is equal to the value, evicted records included.
+         */
+        List<Entry> lookup(Index index, Object value) {
+            Map<Object, RecordLog<Entry>> indexLog = indexLogs.get(index.id);
+            if (indexLog == null) {
+                indexLog = ensureIndex(index);
+            }
+            RecordLog<Entry> entries = indexLog.get(value);
+            return entries != null ? entries.snapshot() : Collections.emptyList();
+        }
+
+        /**
+         * Returns records of the key, evicted records included.
+         */
+        List<Entry> lookup(Object key) {
+            RecordLog<Entry> keyLog = keyLogs.get(key);
+            return keyLog != null ? keyLog.snapshot() : Collections.emptyList();
+        }
+
+        List<Entry> entries() {
+            return topicLog.snapshot();
+        }
+
+        private synchronized Map<Object, RecordLog<Entry>> ensureIndex(Index index) {
+            return indexLogs.computeIfAbsent(index.id, id -> buildIndex(index));
+        }
+
+        synchronized void dropIndex(String id) {
+            indexLogs.remove(id);
+        }
+
+        private Map<Object, RecordLog<Entry>> buildIndex(Index index) {
+            Map<Object, RecordLog<Entry>> indexLog = new ConcurrentHashMap<>();
+            for (Entry entry : topicLog.snapshot()) {
+                if (!entry.evicted) {
+                    addToIndex(indexLog, index, entry);
+                }
+            }
+            return indexLog;
+        }
+
+        private static void addToIndex(Map<Object, RecordLog<Entry>> indexLog, Index index, Entry entry) {
+            Object value = index.extract(entry.record);
+            if (value != null) {
+                indexLog.computeIfAbsent(value, k -> new RecordLog<>()).append(entry);
+            }
+        }
+
+        private void compact() {
+            RecordLog<Entry> compacted = new RecordLog<>();
+            for (Entry entry : topicLog.snapshot()) {
+                if (!entry.evicted) {
+                    compacted.append(entry);
+                }
+            }
+            topicLog = compacted;
+            evicted = 0;
+            for (String id : new ArrayList<>(indexLogs.keySet())) {
+                Index index = definitions.get(id);
+                if (index != null) {
+                    indexLogs.put(id, buildIndex(index));
+                } else {
+                    indexLogs.remove(id);
+                }
+            }
+        }
+    }
+
+    /**
+     * Waiter for records matching a predicate, the future is completed once the expected number of records is matched.
+     * Is accessed under the lock of the topic records.
+     */
+    private static class RecordWaiter {
+
+        private final Predicate<RecordSnapshot> predicate;
+        private final int numberOfRecords;
+        private final List<RecordSnapshot> matched = new ArrayList<>();
+        private final CompletableFuture<List<RecordSnapshot>> future = new CompletableFuture<>();
+
+        RecordWaiter(Predicate<RecordSnapshot> predicate, int numberOfRecords) {
+            this.predicate = predicate;
+            this.numberOfRecords = numberOfRecords;
+        }
+
+        /**
+         * @return true if the waiter is done and should not be offered more records
+         */
+        boolean offer(RecordSnapshot record) {
+            try {
+                if (predicate.test(record)) {
+                    matched.add(record);
+                }
+            } catch (RuntimeException e) {
+                future.completeExceptionally(e);
+                return true;
+            }
+            if (matched.size() >= numberOfRecords) {
+                future.complete(Collections.unmodifiableList(new ArrayList<>(matched)));
+                return true;
+            }
+            return false;
+        }
+
+        boolean offerAll(List<RecordSnapshot> records) {
+            if (numberOfRecords <= 0) {
+                future.complete(Collections.emptyList());
+                return true;
+            }
+            for (RecordSnapshot record : records) {
+                if (offer(record)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        List<RecordSnapshot> getMatched() {
+            return future.isDone() && !future.isCompletedExceptionally()
+                    ? future.join()
+                    : Collections.unmodifiableList(new ArrayList<>(matched));
+        }
+    }
+
+    /**
+     * Declared index of records.
+     */
+    private static final class Index {
+
+        static final String HEADER = "header:";
+        static final String FIELD = "field:";
+
+        private final String id;
+        private final Function<RecordSnapshot, Object> extractor;
+
+        Index(String id, Function<RecordSnapshot, Object> extractor) {
+            this.id = id;
+            this.extractor = extractor;
+        }
+
+        Object extract(RecordSnapshot record) {
+            try {
+                return extractor.apply(record);
+            } catch (RuntimeException e) {
+                log.debug("[KTS] Value of {} can't be extracted from the record of topic {}", id, record.getTopic(), e);
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Query of records of a topic. Conditions are combined with AND, the most selective declared index is used to find
+     * candidates and the rest of conditions are tested on them, so the topic is scanned only if no condition is
+     * indexed. Records are returned in the order of capture, the result is not affected by subsequent captures.
+     */
+    public final class Query {
+
+        private final TopicRecords records;
+        private final List<Map.Entry<Index, Object>> lookups = new ArrayList<>();
+        private final List<Predicate<RecordSnapshot>> filters = new ArrayList<>();
+        private boolean byKey;
+        private Object key;
+
+        private Query(TopicRecords records) {
+            this.records = records;
+        }
+
+        public Query key(Object key) {
+            this.byKey = true;
+            this.key = key;
+            return this;
+        }
+
+        /**
+         * Matches records with the value of the header, the header doesn't have to be indexed.
+         */
+        public Query header(String header, Object value) {
+            Index index = indexes.get(Index.HEADER + header);
+            if (index == null) {
+                index = new Index(Index.HEADER + header, record -> getHeader(record, header));
+            }
+            lookups.add(new AbstractMap.SimpleImmutableEntry<>(index, toHeaderValue(value)));
+            return this;
+        }
+
+        /**
+         * Matches records with the value of the field declared with {@link #indexField(String, Function)}.
+         *
+         * @throws IllegalArgumentException if the field is not declared
+         */
+        public Query field(String field, Object value) {
+            Index index = indexes.get(Index.FIELD + field);
+            if (index == null) {
+                throw new IllegalArgumentException("Field " + field + " is not indexed");
+            }
+            lookups.add(new AbstractMap.SimpleImmutableEntry<>(index, value));
+            return this;
+        }
+
+        public Query filter(Predicate<RecordSnapshot> predicate) {
+            filters.add(predicate);
+            return this;
+        }
+
+        /**
+         * @return lazy stream of matched records
+         */
+        public Stream<RecordSnapshot> stream() {
+            if (records == null) {
+                return Stream.empty();
+            }
+            List<Entry> candidates = byKey ? records.lookup(key) : null;
+            Map.Entry<Index, Object> driver = null;
+            for (Map.Entry<Index, Object> lookup : lookups) {
+                if (lookup.getValue() == null) {
+                    return Stream.empty();
+                }
+                if (indexes.get(lookup.getKey().id) != lookup.getKey()) {
+                    continue;
+                }
+                List<Entry> entries = records.lookup(lookup.getKey(), lookup.getValue());
+                if (candidates == null || entries.size() < candidates.size()) {
+                    candidates = entries;
+                    driver = lookup;
+                }
+            }
+            boolean keyTested = byKey && driver != null;
+            Map.Entry<Index, Object> indexed = driver;
+            Stream<RecordSnapshot> stream = (candidates != null ? candidates : records.entries()).stream()
+                    .filter(entry -> !entry.evicted)
+                    .map(entry -> entry.record);
+            if (keyTested) {
+                stream = stream.filter(record -> Objects.equals(record.getKey(), key));
+            }
+            for (Map.Entry<Index, Object> lookup : lookups) {
+                if (lookup != indexed) {
+                    stream = stream.filter(record -> lookup.getValue().equals(lookup.getKey().extract(record)));
+                }
+            }
+            for (Predicate<RecordSnapshot> filter : filters) {
+                stream = stream.filter(filter);
+            }
+            return stream;
+        }
+
+        public List<RecordSnapshot> getRecords() {
+            return Collections.unmodifiableList(stream().collect(Collectors.toList()));
+        }
+
+        public Optional<RecordSnapshot> findFirst() {
+            return stream().findFirst();
+        }
+
+        public long count() {
+            return stream().count();
+        }
+    }
+
+    private static class Entry {
+
+        private final RecordSnapshot record;
+        private volatile boolean evicted;
+
+        Entry(RecordSnapshot record) {
+            this.record = record;
+        }
+    }
 }
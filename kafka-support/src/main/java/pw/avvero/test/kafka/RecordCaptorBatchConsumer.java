@@ -0,0 +1,57 @@
+package pw.avvero.test.kafka;
+
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.support.DefaultKafkaHeaderMapper;
+import org.springframework.kafka.support.JacksonPresent;
+import org.springframework.kafka.support.KafkaHeaderMapper;
+import org.springframework.kafka.support.SimpleKafkaHeaderMapper;
+
+import java.util.List;
+
+/**
+ * Batch variant of {@link RecordCaptorConsumer}, records of a poll are mapped and captured at once. Should be used
+ * instead of {@link RecordCaptorConsumer} when tests produce many records.
+ * <p>
+ * Headers are mapped from the records with the same header mapper Spring uses for {@link RecordCaptorConsumer} by
+ * default, so captured header values have the same types.
+ * <p>
+ * Concurrency and the maximum number of records in a batch are configured with properties
+ * {@code test.record-captor.concurrency} and {@code test.record-captor.max-poll-records}.
+ */
+@Data
+@Slf4j
+public class RecordCaptorBatchConsumer {
+
+    private final RecordCaptor recordCaptor;
+    private final RecordSnapshotMapper mapper;
+    private final KafkaHeaderMapper headerMapper;
+
+    public RecordCaptorBatchConsumer(RecordCaptor recordCaptor, RecordSnapshotMapper mapper) {
+        this(recordCaptor, mapper, JacksonPresent.isJackson2Present()
+                ? new DefaultKafkaHeaderMapper()
+                : new SimpleKafkaHeaderMapper());
+    }
+
+    public RecordCaptorBatchConsumer(RecordCaptor recordCaptor, RecordSnapshotMapper mapper,
+                                     KafkaHeaderMapper headerMapper) {
+        this.recordCaptor = recordCaptor;
+        this.mapper = mapper;
+        this.headerMapper = headerMapper;
+    }
+
+    /**
+     * Consume a batch of {@link ConsumerRecord}.
+     *
+     * @param records The Kafka records to be captured.
+     */
+    @KafkaListener(id = RecordCaptorConsumer.LISTENER_ID, topics = RecordCaptorConsumer.TOPICS,
+            groupId = RecordCaptorConsumer.GROUP_ID,
+            batch = "true", concurrency = "${test.record-captor.concurrency:1}",
+            properties = "max.poll.records=${test.record-captor.max-poll-records:500}")
+    public void eventCaptorListener(List<ConsumerRecord<Object, Object>> records) {
+        recordCaptor.captureAll(mapper.recordsToSnapshots(records, headerMapper));
+    }
+}
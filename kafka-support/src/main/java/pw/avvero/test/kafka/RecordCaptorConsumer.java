@@ -14,6 +14,22 @@ import java.util.Map;
 @RequiredArgsConstructor
 public class RecordCaptorConsumer {
 
+    /**
+     * Topics of {@code test.record-captor.topics}, put into the namespace of {@link KafkaNamespace} if it is configured.
+     */
+    public static final String TOPICS = "#{'${test.record-captor.topics}'.split(',')"
+            + ".!['${test.kafka-support.namespace.prefix:}' + #this + '${test.kafka-support.namespace.suffix:}']}";
+    /**
+     * Consumer group of {@code test.record-captor.group-id}, by default {@code test} in the namespace of
+     * {@link KafkaNamespace}. Every application context sharing the cluster should capture records with its own group.
+     */
+    public static final String GROUP_ID = "${test.record-captor.group-id:"
+            + "${test.kafka-support.namespace.prefix:}test${test.kafka-support.namespace.suffix:}}";
+    /**
+     * Id of the listener container of Record Captor.
+     */
+    public static final String LISTENER_ID = "recordCaptor";
+
     private final RecordCaptor recordCaptor;
     private final RecordSnapshotMapper mapper;
 
@@ -25,7 +41,7 @@ public class RecordCaptorConsumer {
      *                       user-defined headers and potentially extraneous system headers.
      *                       unrelated or system headers.
      */
-    @KafkaListener(id = "recordCaptor", topics = "#{'${test.record-captor.topics}'.split(',')}", groupId = "test")
+    @KafkaListener(id = LISTENER_ID, topics = TOPICS, groupId = GROUP_ID)
     public void eventCaptorListener(ConsumerRecord<Object, Object> record,
                                     @Headers Map<String, Object> boundedHeaders) {
         RecordSnapshot recordSnapshot = mapper.recordToSnapshot(record, boundedHeaders);
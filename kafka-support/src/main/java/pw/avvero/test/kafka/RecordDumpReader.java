@@ -0,0 +1,147 @@
+package pw.avvero.test.kafka;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.header.internals.RecordHeader;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.apache.kafka.common.record.TimestampType;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Reader of records dumped by {@link RecordDumpWriter}. The file is mapped read-only and records are decoded on
+ * iteration, so a dump can be inspected or replayed without loading it into memory:
+ * <pre>
+ * for (ConsumerRecord&lt;byte[], byte[]&gt; record : RecordDumpReader.open(file)) {
+ *     recordCaptor.capture(LazyRecordSnapshot.of(record, keyDeserializer, valueDeserializer, headerMapper));
+ * }
+ * </pre>
+ * A dump of a writer which is still open can be read as well, records are read up to the last complete frame.
+ */
+public class RecordDumpReader implements Iterable<ConsumerRecord<byte[], byte[]>> {
+
+    private final Path file;
+    private final ByteBuffer buffer;
+
+    private RecordDumpReader(Path file, ByteBuffer buffer) {
+        this.file = file;
+        this.buffer = buffer;
+    }
+
+    public static RecordDumpReader open(Path file) {
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IllegalStateException("Record dump is too large to be mapped: " + file);
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0L, channel.size());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (buffer.remaining() < Integer.BYTES || buffer.getInt() != RecordDumpWriter.MAGIC) {
+            throw new IllegalStateException("File is not a record dump: " + file);
+        }
+        return new RecordDumpReader(file, buffer.slice());
+    }
+
+    /**
+     * Reads all records of the dump.
+     *
+     * @param file the dump
+     * @return records in the order of capture
+     */
+    public static List<ConsumerRecord<byte[], byte[]>> readAll(Path file) {
+        List<ConsumerRecord<byte[], byte[]>> records = new ArrayList<>();
+        open(file).forEach(records::add);
+        return records;
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    @Override
+    public Iterator<ConsumerRecord<byte[], byte[]>> iterator() {
+        ByteBuffer frames = buffer.duplicate();
+        return new Iterator<ConsumerRecord<byte[], byte[]>>() {
+
+            private ConsumerRecord<byte[], byte[]> next = read(frames);
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public ConsumerRecord<byte[], byte[]> next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                ConsumerRecord<byte[], byte[]> record = next;
+                next = read(frames);
+                return record;
+            }
+        };
+    }
+
+    /**
+     * @return the next record or null if there are no complete frames left
+     */
+    private static ConsumerRecord<byte[], byte[]> read(ByteBuffer frames) {
+        if (frames.remaining() < Integer.BYTES) {
+            return null;
+        }
+        int size = frames.getInt();
+        // Zero length is the unwritten tail of a mapped region of an open writer
+        if (size <= 0 || frames.remaining() < size) {
+            frames.position(frames.limit());
+            return null;
+        }
+        String topic = getString(frames, frames.getShort());
+        int partition = frames.getInt();
+        long offset = frames.getLong();
+        long timestamp = frames.getLong();
+        TimestampType timestampType = toTimestampType(frames.get());
+        int headerCount = frames.getInt();
+        RecordHeaders headers = new RecordHeaders();
+        for (int i = 0; i < headerCount; i++) {
+            headers.add(new RecordHeader(getString(frames, frames.getShort()), getBytes(frames)));
+        }
+        byte[] key = getBytes(frames);
+        byte[] value = getBytes(frames);
+        return new ConsumerRecord<>(topic, partition, offset, timestamp, timestampType,
+                key != null ? key.length : -1, value != null ? value.length : -1, key, value, headers,
+                Optional.empty());
+    }
+
+    private static TimestampType toTimestampType(byte id) {
+        for (TimestampType timestampType : TimestampType.values()) {
+            if (timestampType.id == id) {
+                return timestampType;
+            }
+        }
+        return TimestampType.NO_TIMESTAMP_TYPE;
+    }
+
+    private static String getString(ByteBuffer frames, int length) {
+        byte[] bytes = new byte[length];
+        frames.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] getBytes(ByteBuffer frames) {
+        int length = frames.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        frames.get(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,185 @@
+package pw.avvero.test.kafka;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.header.Header;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Append-only dump of raw records captured during a test run, written to a memory-mapped file. Appending copies bytes
+ * of the record into the mapped region without formatting or system calls, so the dump can stay enabled on green runs
+ * and be inspected with {@link RecordDumpReader} once a test fails.
+ * <p>
+ * The file starts with {@link #MAGIC}, every record is a frame prefixed with its length:
+ * <pre>
+ * topic (short length + UTF-8), partition (int), offset (long), timestamp (long), timestamp type (byte),
+ * headers (int count, per header: short length + UTF-8 key, int length + value),
+ * key (int length + bytes), value (int length + bytes)
+ * </pre>
+ * Length of null values is -1. The file is mapped by regions and grows region by region, it is truncated to the
+ * written size on close. Writes are serialized, so the writer can be shared by concurrent listeners.
+ */
+@Slf4j
+public class RecordDumpWriter implements AutoCloseable {
+
+    /**
+     * First 4 bytes of the file, "KTS1".
+     */
+    static final int MAGIC = 0x4B545331;
+    static final int DEFAULT_REGION_SIZE = 64 * 1024 * 1024;
+
+    private final Path file;
+    private final int regionSize;
+    private final FileChannel channel;
+    private MappedByteBuffer region;
+    private long regionStart;
+    private boolean closed;
+
+    /**
+     * Creates the dump in the directory, the name of the file is unique for the test run.
+     *
+     * @param directory the directory, is created if it doesn't exist
+     * @return the writer
+     */
+    public static RecordDumpWriter forRun(Path directory) {
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        String pid = ManagementFactory.getRuntimeMXBean().getName().split("@")[0];
+        return new RecordDumpWriter(directory.resolve("records-" + System.currentTimeMillis() + "-" + pid + ".kts"));
+    }
+
+    public RecordDumpWriter(Path file) {
+        this(file, DEFAULT_REGION_SIZE);
+    }
+
+    /**
+     * @param file       the file, is overwritten if it exists
+     * @param regionSize size of a mapped region, the file grows by regions
+     */
+    public RecordDumpWriter(Path file, int regionSize) {
+        if (regionSize < Integer.BYTES) {
+            throw new IllegalArgumentException("Region size is too small: " + regionSize);
+        }
+        this.file = file;
+        this.regionSize = regionSize;
+        try {
+            this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            map(0L, Integer.BYTES);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        region.putInt(MAGIC);
+        log.debug("[KTS] Records are dumped to {}", file);
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    public void append(ConsumerRecord<byte[], byte[]> record) {
+        byte[] topic = record.topic().getBytes(StandardCharsets.UTF_8);
+        Header[] headers = record.headers().toArray();
+        byte[][] headerKeys = new byte[headers.length][];
+        int size = Short.BYTES + topic.length + Integer.BYTES + Long.BYTES + Long.BYTES + 1 + Integer.BYTES
+                + sizeOf(record.key()) + sizeOf(record.value());
+        for (int i = 0; i < headers.length; i++) {
+            headerKeys[i] = headers[i].key().getBytes(StandardCharsets.UTF_8);
+            size += Short.BYTES + headerKeys[i].length + sizeOf(headers[i].value());
+        }
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("Record dump is closed: " + file);
+            }
+            ensureCapacity(Integer.BYTES + size);
+            int frame = region.position();
+            // Length is written last, so readers of an open dump never see an incomplete frame
+            region.position(frame + Integer.BYTES);
+            region.putShort((short) topic.length).put(topic);
+            region.putInt(record.partition());
+            region.putLong(record.offset());
+            region.putLong(record.timestamp());
+            region.put((byte) record.timestampType().id);
+            region.putInt(headers.length);
+            for (int i = 0; i < headers.length; i++) {
+                region.putShort((short) headerKeys[i].length).put(headerKeys[i]);
+                putBytes(headers[i].value());
+            }
+            putBytes(record.key());
+            putBytes(record.value());
+            region.putInt(frame, size);
+        }
+    }
+
+    private static int sizeOf(byte[] bytes) {
+        return Integer.BYTES + (bytes != null ? bytes.length : 0);
+    }
+
+    private void putBytes(byte[] bytes) {
+        if (bytes == null) {
+            region.putInt(-1);
+        } else {
+            region.putInt(bytes.length).put(bytes);
+        }
+    }
+
+    private void ensureCapacity(int size) {
+        if (region.remaining() >= size) {
+            return;
+        }
+        try {
+            map(regionStart + region.position(), size);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Maps the next region at the position, the region fits at least the given number of bytes.
+     */
+    private void map(long position, int size) throws IOException {
+        if (region != null) {
+            region.force();
+        }
+        region = channel.map(FileChannel.MapMode.READ_WRITE, position, Math.max(regionSize, size));
+        regionStart = position;
+    }
+
+    /**
+     * Flushes written records to the file, the dump remains open.
+     */
+    public synchronized void flush() {
+        if (!closed) {
+            region.force();
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        long size = regionStart + region.position();
+        try {
+            region.force();
+            channel.truncate(size);
+            channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        log.debug("[KTS] Dump of records is closed, {} bytes are written to {}", size, file);
+    }
+}
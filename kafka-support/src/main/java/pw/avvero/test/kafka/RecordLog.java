@@ -0,0 +1,105 @@
+package pw.avvero.test.kafka;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ * Append-only log split into fixed-size chunks. Appending never copies previously appended elements of full chunks,
+ * the oldest elements can be evicted from the head of the log. Chunks start small and grow up to the fixed size, so
+ * logs of a few elements, e.g. logs of record keys, don't hold a full chunk.
+ * <p>
+ * The log is written by one thread at a time, readers don't lock: {@link #snapshot()} returns a stable view that is
+ * not affected by subsequent appends and evictions.
+ *
+ * @param <T> type of elements
+ */
+final class RecordLog<T> {
+
+    static final int CHUNK_SIZE = 256;
+    private static final int INITIAL_CHUNK_CAPACITY = 4;
+
+    private Object[][] chunks = new Object[1][];
+    /**
+     * Logical index of the first element of {@code chunks[0]}.
+     */
+    private long first;
+    private volatile Snapshot<T> snapshot = new Snapshot<>(chunks, 0L, 0L, 0L);
+
+    void append(T element) {
+        Snapshot<T> current = snapshot;
+        long index = current.end;
+        int chunk = (int) ((index - first) / CHUNK_SIZE);
+        if (chunk == chunks.length) {
+            // Chunks are never changed in place, so snapshots taken before keep reading the previous array
+            int evicted = (int) ((current.start - first) / CHUNK_SIZE);
+            int retained = chunks.length - evicted;
+            chunks = Arrays.copyOfRange(chunks, evicted, evicted + Math.max(retained * 2, 1));
+            first += (long) evicted * CHUNK_SIZE;
+            chunk -= evicted;
+        }
+        int position = (int) ((index - first) % CHUNK_SIZE);
+        if (chunks[chunk] == null) {
+            chunks[chunk] = new Object[INITIAL_CHUNK_CAPACITY];
+        } else if (chunks[chunk].length == position) {
+            // The grown chunk is placed into a copy of chunks, snapshots taken before keep reading the previous chunk
+            chunks = chunks.clone();
+            chunks[chunk] = Arrays.copyOf(chunks[chunk], Math.min(position * 2, CHUNK_SIZE));
+        }
+        chunks[chunk][position] = element;
+        snapshot = new Snapshot<>(chunks, first, current.start, index + 1);
+    }
+
+    /**
+     * Evicts the oldest element.
+     *
+     * @return the evicted element or null if the log is empty
+     */
+    T evictHead() {
+        Snapshot<T> current = snapshot;
+        if (current.isEmpty()) {
+            return null;
+        }
+        T head = current.get(0);
+        snapshot = new Snapshot<>(chunks, first, current.start + 1, current.end);
+        return head;
+    }
+
+    int size() {
+        return snapshot.size();
+    }
+
+    Snapshot<T> snapshot() {
+        return snapshot;
+    }
+
+    static final class Snapshot<T> extends AbstractList<T> implements RandomAccess {
+
+        private final Object[][] chunks;
+        private final long first;
+        private final long start;
+        private final long end;
+
+        private Snapshot(Object[][] chunks, long first, long start, long end) {
+            this.chunks = chunks;
+            this.first = first;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public T get(int index) {
+            if (index < 0 || index >= size()) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size());
+            }
+            long position = start + index - first;
+            return (T) chunks[(int) (position / CHUNK_SIZE)][(int) (position % CHUNK_SIZE)];
+        }
+
+        @Override
+        public int size() {
+            return (int) (end - start);
+        }
+    }
+}
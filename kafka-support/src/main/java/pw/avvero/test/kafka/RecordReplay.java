@@ -0,0 +1,380 @@
+package pw.avvero.test.kafka;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.admin.AdminClient;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.internals.RecordHeader;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.apache.kafka.common.serialization.Serializer;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+
+/**
+ * Publishes a recorded stream of records back to the cluster, e.g. to reproduce a burst of production traffic or to
+ * measure throughput of listeners against recorded traffic:
+ * <pre>
+ * RecordReplay.Result result = RecordReplay.fromDump(file)
+ *         .rate(RecordReplay.Rate.speedUp(10))
+ *         .awaitOffsetCommit(adminClient)
+ *         .publish(bootstrapServers);
+ * </pre>
+ * Records are sent in the order of the source through a single producer, so the order of records of a partition is
+ * kept. Partitions are chosen by the producer from keys, timestamps are assigned on send, as original timestamps may
+ * be older than retention of the topic. Once all records are acknowledged, the replay optionally waits for the offset
+ * commit of consumer groups on the partitions it has written to.
+ */
+@Slf4j
+public class RecordReplay {
+
+    private final Iterable<ReplayRecord> source;
+    private Rate rate = Rate.maxSpeed();
+    private UnaryOperator<String> topicMapping = UnaryOperator.identity();
+    private int batchSize = 16384;
+    private Duration linger = Duration.ofMillis(5);
+    private AdminClient adminClient;
+
+    private RecordReplay(Iterable<ReplayRecord> source) {
+        this.source = source;
+    }
+
+    /**
+     * Replays records of the dump written by {@link RecordDumpWriter}, keys, values and headers are sent as they were
+     * consumed. Records are decoded while they are replayed.
+     *
+     * @param file the dump
+     * @return the replay
+     */
+    public static RecordReplay fromDump(Path file) {
+        RecordDumpReader reader = RecordDumpReader.open(file);
+        return new RecordReplay(() -> map(reader.iterator(), RecordReplay::toReplayRecord));
+    }
+
+    /**
+     * Replays records captured by the captor, topic by topic in the order of capture. Raw values and headers of
+     * {@link LazyRecordSnapshot} are sent as they were consumed, other values are sent as they were deserialized, so
+     * the producer should be able to serialize them. Captured records have no timestamps, so they are replayed at
+     * maximum speed regardless of the rate.
+     *
+     * @param captor the captor
+     * @param topics topics to replay
+     * @return the replay
+     */
+    public static RecordReplay fromCaptor(RecordCaptor captor, String... topics) {
+        List<RecordSnapshot> records = new ArrayList<>();
+        for (String topic : topics) {
+            records.addAll(captor.getRecords(topic));
+        }
+        return new RecordReplay(() -> map(records.iterator(), RecordReplay::toReplayRecord));
+    }
+
+    /**
+     * @param rate pace of the replay, {@link Rate#maxSpeed()} by default
+     * @return this replay
+     */
+    public RecordReplay rate(Rate rate) {
+        this.rate = rate;
+        return this;
+    }
+
+    /**
+     * @param topicMapping maps topics of recorded records to topics records are sent to, e.g. to the
+     *                     {@link KafkaNamespace} of the test
+     * @return this replay
+     */
+    public RecordReplay topics(UnaryOperator<String> topicMapping) {
+        this.topicMapping = topicMapping;
+        return this;
+    }
+
+    /**
+     * @param batchSize {@code batch.size} of the producer created by {@link #publish(String)}
+     * @return this replay
+     */
+    public RecordReplay batchSize(int batchSize) {
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    /**
+     * @param linger {@code linger.ms} of the producer created by {@link #publish(String)}
+     * @return this replay
+     */
+    public RecordReplay linger(Duration linger) {
+        this.linger = linger;
+        return this;
+    }
+
+    /**
+     * Makes the replay wait for the offset commit of consumer groups on partitions records were sent to, see
+     * {@link KafkaSupport#waitForPartitionOffsetCommitForPartitions(AdminClient, Set)}.
+     *
+     * @param adminClient the AdminClient connected to the cluster
+     * @return this replay
+     */
+    public RecordReplay awaitOffsetCommit(AdminClient adminClient) {
+        this.adminClient = adminClient;
+        return this;
+    }
+
+    /**
+     * Publishes records with a producer created for the replay, keys and values are sent as bytes, strings are sent
+     * in UTF-8. The producer is closed once the replay is finished.
+     *
+     * @param bootstrapServers bootstrap servers of the cluster
+     * @return the result of the replay
+     * @throws ExecutionException   if the offset commit can't be awaited
+     * @throws InterruptedException if the current thread is interrupted while waiting
+     */
+    public Result publish(String bootstrapServers) throws ExecutionException, InterruptedException {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
+        properties.put(ProducerConfig.BATCH_SIZE_CONFIG, batchSize);
+        properties.put(ProducerConfig.LINGER_MS_CONFIG, (int) linger.toMillis());
+        try (Producer<Object, Object> producer = new KafkaProducer<>(properties, new BytesSerializer(),
+                new BytesSerializer())) {
+            return publish(producer);
+        }
+    }
+
+    /**
+     * Publishes records with the producer, e.g. created by the producer factory of the application. The producer is
+     * not closed.
+     *
+     * @param producer the producer
+     * @return the result of the replay
+     * @throws ExecutionException   if the offset commit can't be awaited
+     * @throws InterruptedException if the current thread is interrupted while waiting
+     */
+    @SuppressWarnings("unchecked")
+    public Result publish(Producer<?, ?> producer) throws ExecutionException, InterruptedException {
+        Producer<Object, Object> recordProducer = (Producer<Object, Object>) producer;
+        Set<TopicPartition> partitions = ConcurrentHashMap.newKeySet();
+        AtomicReference<Exception> error = new AtomicReference<>();
+        long startTime = System.nanoTime();
+        long firstTimestamp = -1;
+        int records = 0;
+        for (ReplayRecord record : source) {
+            if (error.get() != null) {
+                break;
+            }
+            if (record.timestamp >= 0) {
+                if (firstTimestamp < 0) {
+                    firstTimestamp = record.timestamp;
+                }
+                long delay = rate.delayNanos(record.timestamp - firstTimestamp) - (System.nanoTime() - startTime);
+                if (delay > 0) {
+                    TimeUnit.NANOSECONDS.sleep(delay);
+                }
+            }
+            ProducerRecord<Object, Object> producerRecord = new ProducerRecord<>(
+                    topicMapping.apply(record.topic), null, null, record.key, record.value,
+                    new RecordHeaders(record.headers));
+            recordProducer.send(producerRecord, (metadata, e) -> {
+                if (e != null) {
+                    error.compareAndSet(null, e);
+                } else {
+                    partitions.add(new TopicPartition(metadata.topic(), metadata.partition()));
+                }
+            });
+            records++;
+        }
+        recordProducer.flush();
+        Duration duration = Duration.ofNanos(System.nanoTime() - startTime);
+        if (error.get() != null) {
+            throw new IllegalStateException("Replay is failed after " + records + " records", error.get());
+        }
+        log.debug("[KTS] {} records are replayed in {} ms to partitions {}", records, duration.toMillis(), partitions);
+        Duration commitDuration = Duration.ZERO;
+        if (adminClient != null && !partitions.isEmpty()) {
+            long commitStartTime = System.nanoTime();
+            KafkaSupport.waitForPartitionOffsetCommitForPartitions(adminClient, partitions);
+            commitDuration = Duration.ofNanos(System.nanoTime() - commitStartTime);
+        }
+        return new Result(records, partitions, duration, commitDuration);
+    }
+
+    private static ReplayRecord toReplayRecord(ConsumerRecord<byte[], byte[]> record) {
+        return new ReplayRecord(record.topic(), record.key(), record.value(), record.headers().toArray(),
+                record.timestamp());
+    }
+
+    private static ReplayRecord toReplayRecord(RecordSnapshot record) {
+        if (record instanceof LazyRecordSnapshot) {
+            LazyRecordSnapshot lazyRecord = (LazyRecordSnapshot) record;
+            return new ReplayRecord(record.getTopic(), record.getKey(), lazyRecord.getRawValue(),
+                    lazyRecord.getRawHeaders().toArray(), -1);
+        }
+        List<Header> headers = new ArrayList<>();
+        if (record.getHeaders() != null) {
+            record.getHeaders().forEach((name, value) -> headers.add(new RecordHeader(name, toBytes(value))));
+        }
+        return new ReplayRecord(record.getTopic(), record.getKey(), record.getValue(),
+                headers.toArray(new Header[0]), -1);
+    }
+
+    private static byte[] toBytes(Object value) {
+        if (value == null || value instanceof byte[]) {
+            return (byte[]) value;
+        }
+        return value.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static <T> Iterator<ReplayRecord> map(Iterator<T> iterator, Function<T, ReplayRecord> mapper) {
+        return new Iterator<ReplayRecord>() {
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public ReplayRecord next() {
+                return mapper.apply(iterator.next());
+            }
+        };
+    }
+
+    /**
+     * Pace of a replay. Pauses between records are derived from original timestamps of records.
+     */
+    public static final class Rate {
+
+        private final double speed;
+
+        private Rate(double speed) {
+            this.speed = speed;
+        }
+
+        /**
+         * @return rate sending records without pauses
+         */
+        public static Rate maxSpeed() {
+            return new Rate(Double.POSITIVE_INFINITY);
+        }
+
+        /**
+         * @return rate keeping original intervals between records
+         */
+        public static Rate originalTiming() {
+            return new Rate(1);
+        }
+
+        /**
+         * @param factor how many times intervals between records are shortened
+         * @return rate keeping original intervals divided by the factor
+         */
+        public static Rate speedUp(double factor) {
+            if (!(factor > 0)) {
+                throw new IllegalArgumentException("Speed factor must be positive: " + factor);
+            }
+            return new Rate(factor);
+        }
+
+        /**
+         * @return time from the start of the replay the record is sent at
+         */
+        long delayNanos(long millisSinceFirstRecord) {
+            return (long) (TimeUnit.MILLISECONDS.toNanos(millisSinceFirstRecord) / speed);
+        }
+    }
+
+    /**
+     * Result of a replay.
+     */
+    public static final class Result {
+
+        private final int records;
+        private final Set<TopicPartition> partitions;
+        private final Duration duration;
+        private final Duration commitDuration;
+
+        Result(int records, Set<TopicPartition> partitions, Duration duration, Duration commitDuration) {
+            this.records = records;
+            this.partitions = Collections.unmodifiableSet(partitions);
+            this.duration = duration;
+            this.commitDuration = commitDuration;
+        }
+
+        public int getRecords() {
+            return records;
+        }
+
+        /**
+         * @return partitions records were sent to
+         */
+        public Set<TopicPartition> getPartitions() {
+            return partitions;
+        }
+
+        /**
+         * @return time of sending records until all of them are acknowledged
+         */
+        public Duration getDuration() {
+            return duration;
+        }
+
+        /**
+         * @return time of waiting for the offset commit after records are sent, zero if it is not awaited
+         */
+        public Duration getCommitDuration() {
+            return commitDuration;
+        }
+
+        /**
+         * @return records per second processed by consumers, including the offset commit if it is awaited
+         */
+        public double getThroughput() {
+            long nanos = duration.plus(commitDuration).toNanos();
+            return nanos > 0 ? records * 1e9 / nanos : 0;
+        }
+    }
+
+    private static final class ReplayRecord {
+
+        private final String topic;
+        private final Object key;
+        private final Object value;
+        private final Header[] headers;
+        private final long timestamp;
+
+        ReplayRecord(String topic, Object key, Object value, Header[] headers, long timestamp) {
+            this.topic = topic;
+            this.key = key;
+            this.value = value;
+            this.headers = headers;
+            this.timestamp = timestamp;
+        }
+    }
+
+    /**
+     * Serializer of the producer of the replay, bytes are sent as is and strings in UTF-8.
+     */
+    private static final class BytesSerializer implements Serializer<Object> {
+
+        @Override
+        public byte[] serialize(String topic, Object data) {
+            if (data == null || data instanceof byte[]) {
+                return (byte[]) data;
+            }
+            if (data instanceof String) {
+                return ((String) data).getBytes(StandardCharsets.UTF_8);
+            }
+            throw new IllegalArgumentException("Value of type " + data.getClass().getName() + " can't be sent as "
+                    + "bytes, use a producer with a serializer of the value");
+        }
+    }
+}
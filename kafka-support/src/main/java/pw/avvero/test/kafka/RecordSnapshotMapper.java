@@ -2,8 +2,11 @@ package pw.avvero.test.kafka;
 
 import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.apache.kafka.common.header.Header;
+import org.springframework.kafka.support.KafkaHeaderMapper;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 public class RecordSnapshotMapper {
@@ -35,4 +38,24 @@ public class RecordSnapshotMapper {
                 .value(record.value())
                 .build();
     }
+
+    /**
+     * Converts a batch of {@link ConsumerRecord} to {@link RecordSnapshot} instances. Headers of every record are
+     * mapped with the header mapper, so header values have the same types as with {@link #recordToSnapshot}
+     * called with headers provided by Spring.
+     *
+     * @param records The Kafka records to be converted.
+     * @param headerMapper The mapper of record headers, the one of the listener container's message converter.
+     * @return snapshots in the order of the records.
+     */
+    public List<RecordSnapshot> recordsToSnapshots(List<ConsumerRecord<Object, Object>> records,
+                                                   KafkaHeaderMapper headerMapper) {
+        List<RecordSnapshot> snapshots = new ArrayList<>(records.size());
+        for (ConsumerRecord<Object, Object> record : records) {
+            Map<String, Object> headers = new HashMap<>();
+            headerMapper.toHeaders(record.headers(), headers);
+            snapshots.add(recordToSnapshot(record, headers));
+        }
+        return snapshots;
+    }
 }
@@ -0,0 +1,135 @@
+package pw.avvero.test.kafka;
+
+import org.springframework.core.task.TaskDecorator;
+
+import java.util.UUID;
+import java.util.concurrent.Callable;
+
+/**
+ * Scope of a test the current thread works for. Records produced within the scope are marked with the id of the test
+ * by {@link TestScopeInterceptor} and are captured into the scope of the test by {@link RecordCaptor}, so tests running
+ * in parallel read only their own records:
+ * <pre>
+ * try (TestScope scope = TestScope.open()) {
+ *     kafkaTemplate.send("topic1", "key", "value");
+ *     recordCaptor.scope(scope.getId()).awaitAtMost(1, 5000).getRecords("topic1", "key");
+ * }
+ * </pre>
+ * The scope is bound to the current thread only. Threads of pools are reused by tests, so they don't inherit the scope
+ * of the thread that started them: tasks handed over to executors of the application are run within the scope with
+ * {@link #wrap(Runnable)} or {@link #taskDecorator()}. Listeners of the application process records within the scope of
+ * the record with {@link TestScopeRecordInterceptor}, so records they produce belong to the same test.
+ */
+public final class TestScope implements AutoCloseable {
+
+    /**
+     * Header with the id of the test.
+     */
+    public static final String HEADER = "kts-test-id";
+
+    private static final ThreadLocal<String> CURRENT = new ThreadLocal<>();
+
+    private final String id;
+    private final String previousId;
+
+    private TestScope(String id, String previousId) {
+        this.id = id;
+        this.previousId = previousId;
+    }
+
+    /**
+     * Opens the scope with a random id for the current thread.
+     *
+     * @return the scope, closing it restores the previous scope of the thread
+     */
+    public static TestScope open() {
+        return open(UUID.randomUUID().toString());
+    }
+
+    /**
+     * Opens the scope of the test for the current thread.
+     *
+     * @param id the id of the test
+     * @return the scope, closing it restores the previous scope of the thread
+     */
+    public static TestScope open(String id) {
+        String previousId = CURRENT.get();
+        CURRENT.set(id);
+        return new TestScope(id, previousId);
+    }
+
+    /**
+     * @return id of the test of the current thread or null if the thread is not within a scope
+     */
+    public static String currentId() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Returns the task that runs within the scope of the current thread, the scope of the thread running the task is
+     * restored after the task.
+     *
+     * @param task the task
+     * @return the task bound to the scope
+     */
+    public static Runnable wrap(Runnable task) {
+        String id = CURRENT.get();
+        return () -> {
+            String previousId = CURRENT.get();
+            setCurrentId(id);
+            try {
+                task.run();
+            } finally {
+                setCurrentId(previousId);
+            }
+        };
+    }
+
+    /**
+     * Returns the task that runs within the scope of the current thread, the scope of the thread running the task is
+     * restored after the task.
+     *
+     * @param task the task
+     * @param <T>  type of the result
+     * @return the task bound to the scope
+     */
+    public static <T> Callable<T> wrap(Callable<T> task) {
+        String id = CURRENT.get();
+        return () -> {
+            String previousId = CURRENT.get();
+            setCurrentId(id);
+            try {
+                return task.call();
+            } finally {
+                setCurrentId(previousId);
+            }
+        };
+    }
+
+    /**
+     * Returns the decorator of tasks of Spring executors, such as {@code ThreadPoolTaskExecutor} used for
+     * {@code @Async} methods, which runs tasks within the scope of the thread submitting them.
+     *
+     * @return the decorator
+     */
+    public static TaskDecorator taskDecorator() {
+        return TestScope::wrap;
+    }
+
+    static void setCurrentId(String id) {
+        if (id != null) {
+            CURRENT.set(id);
+        } else {
+            CURRENT.remove();
+        }
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    @Override
+    public void close() {
+        setCurrentId(previousId);
+    }
+}
@@ -0,0 +1,37 @@
+package pw.avvero.test.kafka;
+
+import org.apache.kafka.clients.producer.ProducerInterceptor;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * Producer interceptor that marks records sent within a {@link TestScope} with the id of the test. Records which are
+ * already marked are not changed. Is registered with property
+ * {@code spring.kafka.producer.properties.interceptor.classes=pw.avvero.test.kafka.TestScopeInterceptor}.
+ */
+public class TestScopeInterceptor implements ProducerInterceptor<Object, Object> {
+
+    @Override
+    public ProducerRecord<Object, Object> onSend(ProducerRecord<Object, Object> record) {
+        String testId = TestScope.currentId();
+        if (testId != null && record.headers().lastHeader(TestScope.HEADER) == null) {
+            record.headers().add(TestScope.HEADER, testId.getBytes(StandardCharsets.UTF_8));
+        }
+        return record;
+    }
+
+    @Override
+    public void onAcknowledgement(RecordMetadata metadata, Exception exception) {
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public void configure(Map<String, ?> configs) {
+    }
+}
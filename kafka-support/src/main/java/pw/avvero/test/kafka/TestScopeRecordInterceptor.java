@@ -0,0 +1,40 @@
+package pw.avvero.test.kafka;
+
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.header.Header;
+import org.springframework.kafka.listener.RecordInterceptor;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Record interceptor of listener containers that processes every record within the {@link TestScope} of the test that
+ * produced it, so records produced by the listener are marked by {@link TestScopeInterceptor} with the same test id.
+ * Spring Boot applies the interceptor to listener containers if it is declared as a bean:
+ * <pre>
+ * &#64;Bean
+ * TestScopeRecordInterceptor testScopeRecordInterceptor() {
+ *     return new TestScopeRecordInterceptor();
+ * }
+ * </pre>
+ */
+public class TestScopeRecordInterceptor implements RecordInterceptor<Object, Object> {
+
+    @Override
+    public ConsumerRecord<Object, Object> intercept(ConsumerRecord<Object, Object> record,
+                                                    Consumer<Object, Object> consumer) {
+        Header header = record.headers().lastHeader(TestScope.HEADER);
+        TestScope.setCurrentId(header != null ? new String(header.value(), StandardCharsets.UTF_8) : null);
+        return record;
+    }
+
+    @Override
+    public void afterRecord(ConsumerRecord<Object, Object> record, Consumer<Object, Object> consumer) {
+        TestScope.setCurrentId(null);
+    }
+
+    @Override
+    public void clearThreadState(Consumer<?, ?> consumer) {
+        TestScope.setCurrentId(null);
+    }
+}
@@ -0,0 +1,61 @@
+package pw.avvero.test.kafka;
+
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.kafka.listener.AbstractMessageListenerContainer;
+
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Provisions topics of the application context before listener containers are started, see
+ * {@link KafkaSupport#provisionTopics(ApplicationContext)}. Containers joining their consumer groups after all topics
+ * are created and have partition leaders get the assignment without rebalances caused by topics created on the fly.
+ * <pre>
+ * &#64;Bean
+ * TopicProvisioner topicProvisioner(ApplicationContext applicationContext) {
+ *     return new TopicProvisioner(applicationContext);
+ * }
+ * </pre>
+ */
+public class TopicProvisioner implements SmartLifecycle {
+
+    /**
+     * Phase preceding the phase of {@link org.springframework.kafka.config.KafkaListenerEndpointRegistry}.
+     */
+    public static final int PHASE = AbstractMessageListenerContainer.DEFAULT_PHASE - 1;
+
+    private final ApplicationContext applicationContext;
+    private volatile boolean running;
+
+    public TopicProvisioner(ApplicationContext applicationContext) {
+        this.applicationContext = applicationContext;
+    }
+
+    @Override
+    public void start() {
+        try {
+            KafkaSupport.provisionTopics(applicationContext);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e);
+        }
+        running = true;
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public int getPhase() {
+        return PHASE;
+    }
+}
@@ -0,0 +1,91 @@
+package pw.avvero.test.kafka;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Strategy of pausing between attempts of a wait operation, e.g. between checks of offset commit or partition
+ * assignment. A pause never lasts beyond the deadline of the operation.
+ */
+@FunctionalInterface
+public interface WaitStrategy {
+
+    /**
+     * Pauses before the next attempt.
+     *
+     * @param attempt  number of the attempt that has just failed, starting from 1
+     * @param deadline deadline of the wait operation
+     * @throws InterruptedException if the current thread is interrupted while pausing
+     */
+    void pause(int attempt, Deadline deadline) throws InterruptedException;
+
+    /**
+     * Pauses for the same delay after every attempt.
+     *
+     * @param delay the delay
+     * @return the strategy
+     */
+    static WaitStrategy fixed(Duration delay) {
+        long delayNanos = delay.toNanos();
+        return (attempt, deadline) -> sleep(delayNanos, deadline);
+    }
+
+    /**
+     * Doubles the delay after every attempt starting from {@code minDelay} up to {@code maxDelay}. The actual delay is
+     * randomly picked from the upper half of the interval, so that concurrent waiters don't act in lockstep.
+     *
+     * @param minDelay delay after the first attempt
+     * @param maxDelay maximum delay
+     * @return the strategy
+     */
+    static WaitStrategy exponentialBackoff(Duration minDelay, Duration maxDelay) {
+        long minDelayNanos = Math.max(1L, minDelay.toNanos());
+        long maxDelayNanos = Math.max(minDelayNanos, maxDelay.toNanos());
+        return (attempt, deadline) -> {
+            long delay = minDelayNanos;
+            for (int i = 1; i < attempt && delay < maxDelayNanos; i++) {
+                delay <<= 1;
+            }
+            delay = Math.min(delay, maxDelayNanos);
+            long jittered = delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+            sleep(jittered, deadline);
+        };
+    }
+
+    /**
+     * Busy-spins for the first {@code spins} attempts and pauses for {@code parkTime} after subsequent ones. Is
+     * suitable when the expected wait is much shorter than the scheduler quantum.
+     *
+     * @param spins    number of attempts without pause
+     * @param parkTime pause after subsequent attempts
+     * @return the strategy
+     */
+    static WaitStrategy spinThenPark(int spins, Duration parkTime) {
+        long parkNanos = parkTime.toNanos();
+        return (attempt, deadline) -> {
+            if (attempt <= spins) {
+                Thread.onSpinWait();
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+            } else {
+                sleep(parkNanos, deadline);
+            }
+        };
+    }
+
+    /**
+     * Sleeps for the delay, but not longer than the time remaining until the deadline.
+     *
+     * @param delayNanos the delay in nanoseconds
+     * @param deadline   the deadline
+     * @throws InterruptedException if the current thread is interrupted while sleeping
+     */
+    static void sleep(long delayNanos, Deadline deadline) throws InterruptedException {
+        long nanos = Math.min(delayNanos, deadline.remainingNanos());
+        if (nanos > 0L) {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        }
+    }
+}
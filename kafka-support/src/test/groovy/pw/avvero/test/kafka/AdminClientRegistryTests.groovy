@@ -0,0 +1,51 @@
+package pw.avvero.test.kafka
+
+import org.springframework.context.support.GenericApplicationContext
+import spock.lang.Specification
+
+class AdminClientRegistryTests extends Specification {
+
+    def bootstrapServers = ["localhost:" + (20000 + new Random().nextInt(10000))]
+
+    def cleanup() {
+        AdminClientRegistry.close(bootstrapServers)
+    }
+
+    def "AdminClient shared by application contexts is closed with the last of them"() {
+        setup:
+        def context1 = context()
+        def context2 = context()
+        def adminClient = AdminClientRegistry.getAdminClient(context1, bootstrapServers)
+        expect:
+        AdminClientRegistry.getAdminClient(context2, bootstrapServers).is(adminClient)
+        when:
+        context1.close()
+        then:
+        AdminClientRegistry.getAdminClient(context2, bootstrapServers).is(adminClient)
+        when:
+        context2.close()
+        then:
+        !AdminClientRegistry.getAdminClient(bootstrapServers).is(adminClient)
+    }
+
+    def "Repeated requests of the application context are counted once"() {
+        setup:
+        def context1 = context()
+        def context2 = context()
+        def adminClient = AdminClientRegistry.getAdminClient(context1, bootstrapServers)
+        AdminClientRegistry.getAdminClient(context1, bootstrapServers)
+        AdminClientRegistry.getAdminClient(context2, bootstrapServers)
+        when:
+        context1.close()
+        then:
+        AdminClientRegistry.getAdminClient(bootstrapServers).is(adminClient)
+        cleanup:
+        context2.close()
+    }
+
+    private static GenericApplicationContext context() {
+        def context = new GenericApplicationContext()
+        context.refresh()
+        return context
+    }
+}
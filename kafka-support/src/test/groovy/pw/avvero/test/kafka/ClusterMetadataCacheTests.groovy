@@ -0,0 +1,129 @@
+package pw.avvero.test.kafka
+
+import org.apache.kafka.clients.admin.*
+import org.apache.kafka.common.ConsumerGroupState
+import org.apache.kafka.common.KafkaFuture
+import org.apache.kafka.common.Node
+import org.apache.kafka.common.TopicPartition
+import org.apache.kafka.common.TopicPartitionInfo
+import org.apache.kafka.common.internals.KafkaFutureImpl
+import spock.lang.Specification
+
+import java.time.Duration
+
+class ClusterMetadataCacheTests extends Specification {
+
+    def node = new Node(0, "localhost", 9092)
+    def topic1 = (0..<2).collect { new TopicPartition("topic1", it) }
+    def topic2 = [new TopicPartition("topic2", 0)]
+    def adminClient = new ConsumerGroupsAdminClient(node, [
+            new ConsumerGroupDescription("stable", false, [member(topic1[0]), member(topic1[1])], "range",
+                    ConsumerGroupState.STABLE, node),
+            new ConsumerGroupDescription("rebalancing", false, [member(topic2[0])], "range",
+                    ConsumerGroupState.PREPARING_REBALANCE, node),
+            new ConsumerGroupDescription("empty", false, [], "", ConsumerGroupState.EMPTY, node),
+            new ConsumerGroupDescription("dead", false, [], "", ConsumerGroupState.DEAD, node)
+    ])
+
+    def cleanup() {
+        adminClient.close(Duration.ZERO)
+    }
+
+    def "Only consumer groups with members are described"() {
+        when:
+        def metadata = new ClusterMetadataCache().getMetadata(adminClient, 0)
+        then:
+        metadata.consumerGroups == ["stable", "rebalancing", "empty", "dead"] as Set
+        adminClient.describedGroups == ["stable", "rebalancing"] as Set
+        metadata.consumerGroupAssignments == [stable: topic1 as Set]
+    }
+
+    def "Stable groups are checked for assigned partitions and idle groups are skipped"() {
+        setup:
+        def partitions = (topic1 + topic2) as Set
+        def metadata = new ClusterMetadataCache().getMetadata(adminClient, 0)
+        expect:
+        metadata.getConsumerGroupPartitions(partitions, false) == [
+                stable     : topic1 as Set,
+                rebalancing: partitions
+        ]
+        metadata.getConsumerGroupPartitions(topic2 as Set, false) == [rebalancing: topic2 as Set]
+    }
+
+    def "Idle groups are checked when requested"() {
+        setup:
+        def metadata = new ClusterMetadataCache().getMetadata(adminClient, 0)
+        expect:
+        metadata.getConsumerGroupPartitions(topic2 as Set, true).keySet() == ["rebalancing", "empty", "dead"] as Set
+    }
+
+    def "Idle group with consumers in the current JVM is checked"() {
+        setup:
+        def metadata = new ClusterMetadataCache().getMetadata(adminClient, 0)
+        OffsetCommitTracker.getInstance().register("localhost:9092", "empty")
+        expect:
+        metadata.getConsumerGroupPartitions(topic2 as Set, false).keySet() == ["rebalancing", "empty"] as Set
+        cleanup:
+        OffsetCommitTracker.getInstance().unregister("localhost:9092", "empty")
+    }
+
+    def "Partitions added to the existing topic are seen once the cached layout expires"() {
+        setup:
+        def cache = new ClusterMetadataCache()
+        adminClient.addTopic(false, "topic3", [partitionInfo(0)], [:])
+        cache.getMetadata(adminClient, 0)
+        expect:
+        cache.getPartitions(adminClient, ["topic3"] as Set).size() == 1
+        when:
+        adminClient.deleteTopics(["topic3"]).all().get()
+        adminClient.addTopic(false, "topic3", (0..<3).collect { partitionInfo(it) }, [:])
+        cache.getMetadata(adminClient, 60_000)
+        then:
+        cache.getPartitions(adminClient, ["topic3"] as Set).size() == 1
+        when:
+        cache.getMetadata(adminClient, 0)
+        then:
+        cache.getPartitions(adminClient, ["topic3"] as Set).size() == 3
+    }
+
+    private TopicPartitionInfo partitionInfo(int partition) {
+        new TopicPartitionInfo(partition, node, [node], [node])
+    }
+
+    private static MemberDescription member(TopicPartition partition) {
+        new MemberDescription("member-" + partition, "client", "localhost",
+                new MemberAssignment([partition] as Set))
+    }
+
+    /**
+     * MockAdminClient doesn't implement listing and describing of consumer groups.
+     */
+    static class ConsumerGroupsAdminClient extends MockAdminClient {
+
+        final Map<String, ConsumerGroupDescription> groups
+        final Set<String> describedGroups = [] as Set
+
+        ConsumerGroupsAdminClient(Node node, List<ConsumerGroupDescription> groups) {
+            super([node], node)
+            this.groups = groups.collectEntries { [(it.groupId()): it] }
+        }
+
+        @Override
+        synchronized ListConsumerGroupsResult listConsumerGroups(ListConsumerGroupsOptions options) {
+            def future = new KafkaFutureImpl<Collection<Object>>()
+            future.complete(groups.values().collect {
+                new ConsumerGroupListing(it.groupId(), false, Optional.of(it.state()))
+            })
+            return new ListConsumerGroupsResult(future)
+        }
+
+        @Override
+        synchronized DescribeConsumerGroupsResult describeConsumerGroups(Collection<String> groupIds,
+                                                                         DescribeConsumerGroupsOptions options) {
+            describedGroups.addAll(groupIds)
+            return new DescribeConsumerGroupsResult(groupIds.collectEntries {
+                [(it): KafkaFuture.completedFuture(groups[it])]
+            })
+        }
+    }
+}
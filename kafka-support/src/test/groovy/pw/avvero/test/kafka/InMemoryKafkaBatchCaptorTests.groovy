@@ -0,0 +1,66 @@
+package pw.avvero.test.kafka
+
+import org.springframework.beans.factory.annotation.Autowired
+import org.springframework.boot.test.context.SpringBootTest
+import org.springframework.boot.test.context.TestConfiguration
+import org.springframework.context.ApplicationContext
+import org.springframework.context.annotation.Bean
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry
+import org.springframework.kafka.core.KafkaTemplate
+import org.springframework.kafka.support.KafkaHeaders
+import org.springframework.messaging.Message
+import org.springframework.messaging.support.MessageBuilder
+import org.springframework.test.annotation.DirtiesContext
+import org.springframework.test.context.ContextConfiguration
+import spock.lang.Specification
+
+@SpringBootTest(properties = ["spring.kafka.admin.auto-create=false", "spring.kafka.listener.ack-mode=batch"])
+@ContextConfiguration(classes = [TestApplication, InMemoryKafkaConfiguration, BatchRecordCaptorConfiguration])
+@DirtiesContext
+class InMemoryKafkaBatchCaptorTests extends Specification {
+
+    @Autowired
+    RecordCaptor recordCaptor
+    @Autowired
+    KafkaTemplate<Object, Object> kafkaTemplate
+    @Autowired
+    ApplicationContext applicationContext
+    @Autowired
+    KafkaListenerEndpointRegistry registry
+
+    def "Batch listener of Record Captor captures records with the same header types as the record listener"() {
+        setup:
+        KafkaSupport.waitForPartitionAssignment(applicationContext)
+        def key = IdGenerator.next
+        when:
+        n.times {
+            Message message = MessageBuilder
+                    .withPayload("value" + it)
+                    .setHeader(KafkaHeaders.TOPIC, "topic1")
+                    .setHeader("customHeader", "header" + it)
+                    .setHeader(KafkaHeaders.KEY, key)
+                    .build()
+            kafkaTemplate.send(message).get()
+        }
+        KafkaSupport.waitForPartitionOffsetCommit(applicationContext)
+        then:
+        registry.getListenerContainer(RecordCaptorConsumer.LISTENER_ID).isRunning()
+        recordCaptor.getRecords("topic1", key).value == (0..<n).collect { "value" + it }
+        recordCaptor.getRecords("topic1", key).headers["customHeader"] == (0..<n).collect { "header" + it }
+        where:
+        n = 5
+    }
+
+    @TestConfiguration(proxyBeanMethods = false)
+    static class BatchRecordCaptorConfiguration {
+        @Bean
+        RecordCaptor recordCaptor() {
+            return new RecordCaptor()
+        }
+
+        @Bean
+        RecordCaptorBatchConsumer recordCaptorConsumer(RecordCaptor recordCaptor) {
+            return new RecordCaptorBatchConsumer(recordCaptor, new RecordSnapshotMapper())
+        }
+    }
+}
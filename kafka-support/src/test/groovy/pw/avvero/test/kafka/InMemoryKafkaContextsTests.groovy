@@ -0,0 +1,99 @@
+package pw.avvero.test.kafka
+
+import org.springframework.boot.WebApplicationType
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration
+import org.springframework.boot.builder.SpringApplicationBuilder
+import org.springframework.context.ConfigurableApplicationContext
+import org.springframework.context.annotation.Bean
+import org.springframework.context.annotation.Configuration
+import org.springframework.context.annotation.Import
+import org.springframework.kafka.annotation.KafkaListener
+import org.springframework.kafka.core.KafkaTemplate
+import spock.lang.Specification
+
+import java.util.concurrent.CopyOnWriteArrayList
+
+/**
+ * Application contexts sharing the JVM, each with its own in-memory broker.
+ */
+class InMemoryKafkaContextsTests extends Specification {
+
+    ConfigurableApplicationContext context1 = context()
+    ConfigurableApplicationContext context2 = context()
+
+    def cleanup() {
+        context1.close()
+        context2.close()
+    }
+
+    def "Barrier checks only partitions produced to the cluster of the context"() {
+        setup:
+        KafkaSupport.waitForPartitionAssignment(context1)
+        KafkaSupport.waitForPartitionAssignment(context2)
+        def tracker = ProducedPartitionsTracker.instance
+        def cluster1 = AdminClientRegistry.clusterKey(context1.getBean(InMemoryKafka).bootstrapServers)
+        def cluster2 = AdminClientRegistry.clusterKey(context2.getBean(InMemoryKafka).bootstrapServers)
+        when: "the topic is created in the first broker only"
+        context1.getBean(KafkaTemplate).send("topicProduced", "value1").get()
+        context1.getBean(KafkaTemplate).send("topicContext", "value2").get()
+        KafkaSupport.waitForProducedPartitionOffsetCommit(context2)
+        then:
+        tracker.getProducedOffsets(cluster1).keySet()*.topic() as Set == ["topicProduced", "topicContext"] as Set
+        tracker.getProducedOffsets(cluster2).isEmpty()
+        when:
+        KafkaSupport.waitForProducedPartitionOffsetCommit(context1)
+        then:
+        context1.getBean(ContextListener).values == ["value2"]
+        context2.getBean(ContextListener).values.isEmpty()
+        tracker.getProducedOffsets(cluster1).isEmpty()
+    }
+
+    def "Consumer group of another context with the same id is not tracked for the cluster"() {
+        setup:
+        KafkaSupport.waitForPartitionAssignment(context1)
+        KafkaSupport.waitForPartitionAssignment(context2)
+        def tracker = OffsetCommitTracker.instance
+        def cluster1 = AdminClientRegistry.clusterKey(context1.getBean(InMemoryKafka).bootstrapServers)
+        def cluster2 = AdminClientRegistry.clusterKey(context2.getBean(InMemoryKafka).bootstrapServers)
+        expect:
+        tracker.isTracked(cluster1, "contextListener")
+        tracker.isTracked(cluster2, "contextListener")
+        when:
+        context2.close()
+        then:
+        tracker.isTracked(cluster1, "contextListener")
+        !tracker.isTracked(cluster2, "contextListener")
+        when:
+        context1.getBean(KafkaTemplate).send("topicContext", "value1").get()
+        KafkaSupport.waitForPartitionOffsetCommit(context1)
+        then:
+        context1.getBean(ContextListener).values == ["value1"]
+    }
+
+    private static ConfigurableApplicationContext context() {
+        return new SpringApplicationBuilder(ContextConfiguration)
+                .web(WebApplicationType.NONE)
+                .properties("spring.kafka.admin.auto-create=false")
+                .run()
+    }
+
+    static class ContextListener {
+
+        final List<String> values = new CopyOnWriteArrayList<>()
+
+        @KafkaListener(id = "contextListener", groupId = "contextListener", topics = "topicContext")
+        void listen(String value) {
+            values.add(value)
+        }
+    }
+
+    @Configuration(proxyBeanMethods = false)
+    @EnableAutoConfiguration
+    @Import(InMemoryKafkaConfiguration)
+    static class ContextConfiguration {
+        @Bean
+        ContextListener contextListener() {
+            return new ContextListener()
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package pw.avvero.test.kafka
+
+import org.springframework.beans.factory.annotation.Autowired
+import org.springframework.boot.test.context.SpringBootTest
+import org.springframework.boot.test.context.TestConfiguration
+import org.springframework.context.ApplicationContext
+import org.springframework.context.annotation.Bean
+import org.springframework.kafka.annotation.KafkaListener
+import org.springframework.kafka.annotation.TopicPartition
+import org.springframework.kafka.core.KafkaTemplate
+import org.springframework.test.annotation.DirtiesContext
+import org.springframework.test.context.ContextConfiguration
+import spock.lang.Specification
+
+import java.time.Duration
+import java.util.concurrent.CopyOnWriteArrayList
+
+@SpringBootTest(properties = [
+        "spring.kafka.admin.auto-create=false",
+        // Commits are not reported by the interceptor, the group is known only from the cluster
+        "spring.kafka.consumer.properties.interceptor.classes="
+])
+@ContextConfiguration(classes = [TestApplication, InMemoryKafkaConfiguration, ManualAssignmentConfiguration])
+@DirtiesContext
+class InMemoryKafkaManualAssignmentTests extends Specification {
+
+    @Autowired
+    KafkaTemplate<Object, Object> kafkaTemplate
+    @Autowired
+    ApplicationContext applicationContext
+    @Autowired
+    ManualAssignmentListener listener
+    @Autowired
+    InMemoryKafka kafka
+
+    def "Barrier waits for the listener with manually assigned partitions"() {
+        setup:
+        KafkaSupport.waitForPartitionAssignment(applicationContext)
+        kafkaTemplate.send("topicManual", "value1").get()
+        def deadline = Deadline.after(Duration.ofSeconds(10))
+        while (listener.values.size() < 1 && !deadline.isExpired()) {
+            Thread.sleep(10)
+        }
+        when:
+        kafkaTemplate.send("topicManual", "value2").get()
+        KafkaSupport.waitForPartitionOffsetCommit(applicationContext)
+        then:
+        listener.values == ["value1", "value2"]
+    }
+
+    def "Offset snapshot contains the group with manually assigned partitions"() {
+        setup:
+        KafkaSupport.waitForPartitionAssignment(applicationContext)
+        kafkaTemplate.send("topicManual", "value1").get()
+        KafkaSupport.waitForPartitionOffsetCommit(applicationContext)
+        def skipIdle = KafkaSupportSettings.builder().includeIdleConsumerGroups(false).build()
+        expect:
+        KafkaSupport.getOffsetSnapshot(kafka.adminClient).consumerGroups.contains("manualAssignment")
+        KafkaSupport.getOffsetSnapshot(kafka.adminClient).totalLag == 0
+        !KafkaSupport.getOffsetSnapshot(kafka.adminClient, skipIdle).consumerGroups.contains("manualAssignment")
+    }
+
+    static class ManualAssignmentListener {
+
+        final List<String> values = new CopyOnWriteArrayList<>()
+
+        @KafkaListener(id = "manualAssignment", groupId = "manualAssignment",
+                topicPartitions = @TopicPartition(topic = "topicManual", partitions = "0"))
+        void listen(String value) {
+            // Processing takes longer than a barrier that doesn't wait for the group
+            Thread.sleep(500)
+            values.add(value)
+        }
+    }
+
+    @TestConfiguration(proxyBeanMethods = false)
+    static class ManualAssignmentConfiguration {
+        @Bean
+        ManualAssignmentListener manualAssignmentListener() {
+            return new ManualAssignmentListener()
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package pw.avvero.test.kafka
+
+import org.springframework.beans.factory.annotation.Autowired
+import org.springframework.boot.test.context.SpringBootTest
+import org.springframework.context.ApplicationContext
+import org.springframework.kafka.core.KafkaTemplate
+import org.springframework.kafka.support.KafkaHeaders
+import org.springframework.messaging.Message
+import org.springframework.messaging.support.MessageBuilder
+import org.springframework.test.annotation.DirtiesContext
+import org.springframework.test.context.ContextConfiguration
+import spock.lang.Specification
+
+@SpringBootTest(properties = ["spring.kafka.admin.auto-create=false"])
+@ContextConfiguration(classes = [TestApplication, InMemoryKafkaConfiguration, RecordCaptorConfiguration])
+@DirtiesContext
+class InMemoryKafkaSupportTests extends Specification {
+
+    @Autowired
+    RecordCaptor recordCaptor
+    @Autowired
+    KafkaTemplate<Object, Object> kafkaTemplate
+    @Autowired
+    ApplicationContext applicationContext
+    @Autowired
+    InMemoryKafka inMemoryKafka
+
+    def "Topics of listeners and Record Captor are provisioned before containers are started"() {
+        expect:
+        inMemoryKafka.topics.containsAll(["topic1", "topicBroken", "topicBroken-retry", "topicBroken-dlt"])
+        inMemoryKafka.topics.containsAll(applicationContext.environment.getProperty("test.record-captor.topics")
+                .split(","))
+    }
+
+    def "Can send message to topic and receive message from it without a broker"() {
+        setup:
+        KafkaSupport.waitForPartitionAssignment(applicationContext)
+        def key = IdGenerator.next
+        when:
+        Message message = MessageBuilder
+                .withPayload("value1")
+                .setHeader(KafkaHeaders.TOPIC, "topic1")
+                .setHeader("customHeader", "header1")
+                .setHeader(KafkaHeaders.KEY, key)
+                .build()
+        kafkaTemplate.send(message).get()
+        KafkaSupport.waitForPartitionOffsetCommit(applicationContext)
+        then:
+        recordCaptor.getRecords("topic1", key).last().headers["customHeader"] == "header1"
+        recordCaptor.getRecords("topic1", key).last().value == "value1"
+    }
+
+    def "Can send many messages to the different topics and receive them without a broker"() {
+        setup:
+        KafkaSupport.waitForPartitionAssignment(applicationContext)
+        def key = IdGenerator.next
+        when:
+        n.times {
+            Message message = MessageBuilder
+                    .withPayload("value" + it)
+                    .setHeader(KafkaHeaders.TOPIC, "topic" + it)
+                    .setHeader(KafkaHeaders.KEY, key)
+                    .build()
+            kafkaTemplate.send(message).get()
+        }
+        KafkaSupport.waitForProducedPartitionOffsetCommit(applicationContext)
+        then:
+        n.times {
+            assert recordCaptor.getRecords("topic" + it, key).size() == 1
+        }
+        where:
+        n = 10
+    }
+}
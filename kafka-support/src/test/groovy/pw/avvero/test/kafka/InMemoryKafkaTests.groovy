@@ -0,0 +1,272 @@
+package pw.avvero.test.kafka
+
+import org.apache.kafka.clients.admin.NewTopic
+import org.apache.kafka.clients.consumer.Consumer
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener
+import org.apache.kafka.clients.consumer.OffsetAndMetadata
+import org.apache.kafka.clients.producer.ProducerRecord
+import org.apache.kafka.common.ConsumerGroupState
+import org.apache.kafka.common.TopicPartition
+import org.apache.kafka.common.errors.TopicExistsException
+import org.apache.kafka.common.errors.WakeupException
+import org.apache.kafka.common.header.internals.RecordHeader
+import org.apache.kafka.common.serialization.StringDeserializer
+import org.apache.kafka.common.serialization.StringSerializer
+import spock.lang.Specification
+
+import java.time.Duration
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
+
+import static org.apache.kafka.clients.consumer.ConsumerConfig.*
+
+class InMemoryKafkaTests extends Specification {
+
+    InMemoryKafka kafka = new InMemoryKafka(3)
+
+    def cleanup() {
+        kafka.close()
+    }
+
+    def "Records are consumed through the consumer group in the order of offsets"() {
+        setup:
+        def producer = kafka.createProducer([:], new StringSerializer(), new StringSerializer())
+        def consumer = consumer("group1", [(AUTO_OFFSET_RESET_CONFIG): "earliest"])
+        consumer.subscribe(["topic1"])
+        when:
+        10.times {
+            producer.send(new ProducerRecord("topic1", null, "key", "value" + it,
+                    [new RecordHeader("eventType", "created".bytes)])).get()
+        }
+        def records = consumer.poll(Duration.ofSeconds(1))
+        then:
+        records.count() == 10
+        records*.value() == (0..<10).collect { "value" + it }
+        records*.offset() == (0L..<10L).toList()
+        records.collect { it.partition() }.unique().size() == 1
+        new String(records[0].headers().lastHeader("eventType").value()) == "created"
+        cleanup:
+        consumer.close()
+    }
+
+    def "Poll returns records as soon as they are appended"() {
+        setup:
+        def producer = kafka.createProducer([:], new StringSerializer(), new StringSerializer())
+        def consumer = consumer("group1")
+        consumer.subscribe(["topic1"])
+        consumer.poll(Duration.ZERO)
+        def executor = Executors.newSingleThreadExecutor()
+        when:
+        executor.submit { Thread.sleep(100); producer.send(new ProducerRecord("topic1", "key", "value")) }
+        long start = System.nanoTime()
+        def records = consumer.poll(Duration.ofSeconds(10))
+        then:
+        records.count() == 1
+        Duration.ofNanos(System.nanoTime() - start) < Duration.ofSeconds(5)
+        cleanup:
+        executor.shutdownNow()
+        consumer.close()
+    }
+
+    def "Partitions are spread across members of the group"() {
+        setup:
+        def revoked = []
+        def consumer1 = consumer("group1")
+        consumer1.subscribe(["topic1"], listener(revoked))
+        def consumer2 = consumer("group1")
+        consumer2.subscribe(["topic1"])
+        when:
+        consumer1.poll(Duration.ZERO)
+        then:
+        consumer1.assignment().size() == 3
+        when:
+        consumer2.poll(Duration.ZERO)
+        then:
+        groupState("group1") == ConsumerGroupState.COMPLETING_REBALANCE
+        when:
+        consumer1.poll(Duration.ZERO)
+        then:
+        consumer1.assignment().size() + consumer2.assignment().size() == 3
+        consumer1.assignment().intersect(consumer2.assignment()).isEmpty()
+        revoked.size() == consumer2.assignment().size()
+        groupState("group1") == ConsumerGroupState.STABLE
+        when:
+        consumer2.close()
+        consumer1.poll(Duration.ZERO)
+        then:
+        consumer1.assignment().size() == 3
+        cleanup:
+        consumer1.close()
+    }
+
+    def "Barrier waits for the offset commit of the consumer group"() {
+        setup:
+        def producer = kafka.createProducer([:], new StringSerializer(), new StringSerializer())
+        def consumer = consumer("group1")
+        consumer.subscribe(["topic1"])
+        consumer.poll(Duration.ZERO)
+        // Like the listener container, the initial position is committed on assignment
+        consumer.assignment().each { consumer.position(it) }
+        consumer.commitSync()
+        def settings = KafkaSupportSettings.builder().offsetCommitTimeout(Duration.ofMillis(300)).build()
+        when:
+        producer.send(new ProducerRecord("topic1", "key", "value"))
+        KafkaSupport.waitForPartitionOffsetCommit(kafka.adminClient, settings)
+        then:
+        def e = thrown(RuntimeException)
+        e.message.startsWith("Offset commit for partitions is not completed")
+        when:
+        consumer.poll(Duration.ofSeconds(1))
+        consumer.commitSync()
+        KafkaSupport.waitForPartitionOffsetCommit(kafka.adminClient, settings)
+        then:
+        noExceptionThrown()
+        cleanup:
+        consumer.close()
+    }
+
+    def "Partition settled for one consumer group is checked again for another group sharing the topic"() {
+        setup:
+        def producer = kafka.createProducer([:], new StringSerializer(), new StringSerializer())
+        def consumer1 = consumer("group1")
+        def consumer2 = consumer("group2")
+        [consumer1, consumer2].each { consumer ->
+            consumer.subscribe(["topic1"])
+            consumer.poll(Duration.ZERO)
+            consumer.assignment().each { consumer.position(it) }
+            consumer.commitSync()
+        }
+        def partitions = KafkaSupport.getPartitions(kafka.adminClient, ["topic1"] as Set)
+        def settings = KafkaSupportSettings.builder().offsetCommitTimeout(Duration.ofMillis(300)).build()
+        when:
+        producer.send(new ProducerRecord("topic1", "key", "value")).get()
+        consumer1.poll(Duration.ofSeconds(1))
+        consumer1.commitSync()
+        KafkaSupport.waitForPartitionOffsetCommitForPartitions(kafka.adminClient, partitions, ["group1"] as Set,
+                settings)
+        then:
+        noExceptionThrown()
+        when:
+        KafkaSupport.waitForPartitionOffsetCommit(kafka.adminClient, settings)
+        then:
+        def e = thrown(RuntimeException)
+        e.message.startsWith("Offset commit for partitions is not completed")
+        when:
+        consumer2.poll(Duration.ofSeconds(1))
+        consumer2.commitSync()
+        KafkaSupport.waitForPartitionOffsetCommit(kafka.adminClient, settings)
+        then:
+        noExceptionThrown()
+        cleanup:
+        consumer1.close()
+        consumer2.close()
+    }
+
+    def "Committed offsets are reported to the tracker by the interceptor"() {
+        setup:
+        def consumer = consumer("group-tracked", [(INTERCEPTOR_CLASSES_CONFIG): OffsetCommitInterceptor.name])
+        consumer.assign([new TopicPartition("topic1", 0)])
+        def offsets = [(new TopicPartition("topic1", 0)): new OffsetAndMetadata(5)]
+        when:
+        consumer.commitSync(offsets)
+        then:
+        kafka.adminClient.listConsumerGroupOffsets("group-tracked").partitionsToOffsetAndMetadata().get() == offsets
+        def cluster = AdminClientRegistry.clusterKeyOf(kafka.adminClient)
+        OffsetCommitTracker.instance.isTracked(cluster, "group-tracked")
+        OffsetCommitTracker.instance.awaitCommitted(cluster, ["group-tracked": [(new TopicPartition("topic1", 0)): 5L]],
+                0)
+        cleanup:
+        consumer.close()
+    }
+
+    def "Position of a new group is reset according to auto.offset.reset"() {
+        setup:
+        def producer = kafka.createProducer([:], new StringSerializer(), new StringSerializer())
+        producer.send(new ProducerRecord("topic1", 0, "key", "value")).get()
+        def consumer = consumer("group1", [(AUTO_OFFSET_RESET_CONFIG): reset])
+        consumer.assign([new TopicPartition("topic1", 0)])
+        expect:
+        consumer.position(new TopicPartition("topic1", 0)) == position
+        cleanup:
+        consumer.close()
+        where:
+        reset      | position
+        "earliest" | 0
+        "latest"   | 1
+    }
+
+    def "Admin client describes topics and consumer groups of the broker"() {
+        setup:
+        def admin = kafka.adminClient
+        when:
+        admin.createTopics([new NewTopic("topic2", 5, (short) 1)]).all().get()
+        then:
+        admin.listTopics().names().get() == ["topic2"] as Set
+        admin.describeTopics(["topic2"]).allTopicNames().get()["topic2"].partitions().size() == 5
+        when:
+        kafka.createTopic("topic3", 1)
+        then:
+        admin.listTopics().names().get() == ["topic2", "topic3"] as Set
+        when:
+        admin.createTopics([new NewTopic("topic2", 5, (short) 1)]).all().get()
+        then:
+        def e = thrown(ExecutionException)
+        e.cause instanceof TopicExistsException
+        when:
+        def consumer = consumer("group1")
+        consumer.subscribe(["topic2"])
+        consumer.poll(Duration.ZERO)
+        def description = admin.describeConsumerGroups(["group1"]).all().get()["group1"]
+        then:
+        description.state() == ConsumerGroupState.STABLE
+        description.members()[0].assignment().topicPartitions().size() == 5
+        admin.listConsumerGroups().all().get()*.groupId() == ["group1"]
+        cleanup:
+        consumer?.close()
+    }
+
+    def "Wakeup interrupts poll"() {
+        setup:
+        def consumer = consumer("group1")
+        consumer.subscribe(["topic1"])
+        when:
+        consumer.wakeup()
+        consumer.poll(Duration.ofSeconds(10))
+        then:
+        thrown(WakeupException)
+        cleanup:
+        consumer.close()
+    }
+
+    def "Registry returns the admin client of the in-memory broker"() {
+        expect:
+        InMemoryKafka.forBootstrapServers([kafka.bootstrapServers]) == kafka
+        AdminClientRegistry.getAdminClient([kafka.bootstrapServers]).is(kafka.adminClient)
+        when:
+        kafka.close()
+        then:
+        InMemoryKafka.forBootstrapServers([kafka.bootstrapServers]) == null
+    }
+
+    private Consumer<String, String> consumer(String groupId, Map<String, Object> configs = [:]) {
+        kafka.createConsumer([(GROUP_ID_CONFIG): groupId, (ENABLE_AUTO_COMMIT_CONFIG): false] + configs,
+                new StringDeserializer(), new StringDeserializer())
+    }
+
+    private ConsumerGroupState groupState(String groupId) {
+        kafka.adminClient.describeConsumerGroups([groupId]).all().get()[groupId].state()
+    }
+
+    private static ConsumerRebalanceListener listener(List revoked) {
+        return new ConsumerRebalanceListener() {
+            @Override
+            void onPartitionsRevoked(Collection<TopicPartition> partitions) {
+                revoked.addAll(partitions)
+            }
+
+            @Override
+            void onPartitionsAssigned(Collection<TopicPartition> partitions) {
+            }
+        }
+    }
+}
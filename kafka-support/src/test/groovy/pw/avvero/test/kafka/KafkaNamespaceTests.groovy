@@ -0,0 +1,67 @@
+package pw.avvero.test.kafka
+
+import org.apache.kafka.common.TopicPartition
+import org.springframework.beans.factory.config.BeanExpressionContext
+import org.springframework.beans.factory.support.DefaultListableBeanFactory
+import org.springframework.context.expression.StandardBeanExpressionResolver
+import org.springframework.core.env.MapPropertySource
+import org.springframework.core.env.StandardEnvironment
+import spock.lang.Specification
+
+class KafkaNamespaceTests extends Specification {
+
+    def "Names of the namespace start with the prefix and end with the suffix"() {
+        setup:
+        def namespace = KafkaNamespace.of("ctx1-", ".t")
+        expect:
+        namespace.name("topic1") == "ctx1-topic1.t"
+        namespace.contains("ctx1-topic1.t")
+        !namespace.contains("ctx2-topic1.t")
+        !namespace.contains("ctx1-topic1")
+        namespace.filter(["ctx1-a.t", "ctx2-a.t", "b"] as Set) == ["ctx1-a.t"] as Set
+        namespace.filterPartitions([(new TopicPartition("ctx1-a.t", 0)): 1L, (new TopicPartition("a", 0)): 2L]) ==
+                [(new TopicPartition("ctx1-a.t", 0)): 1L]
+    }
+
+    def "Namespace without prefix and suffix contains everything"() {
+        setup:
+        def namespace = KafkaNamespace.of("", null)
+        expect:
+        namespace == KafkaNamespace.NONE
+        !namespace.isEnabled()
+        namespace.contains("topic1")
+    }
+
+    def "Namespace is resolved from properties"() {
+        expect:
+        KafkaSupportSettings.from(environment(["test.kafka-support.namespace.prefix": "ctx1-"])).namespace ==
+                KafkaNamespace.of("ctx1-", "")
+        KafkaSupportSettings.from(environment([:])).namespace == KafkaNamespace.NONE
+    }
+
+    def "Record captor topics and group are put into the namespace"() {
+        setup:
+        def env = environment(properties + ["test.record-captor.topics": "topic1,topic2"])
+        expect:
+        evaluate(env, RecordCaptorConsumer.TOPICS) as List == topics
+        evaluate(env, RecordCaptorConsumer.GROUP_ID) == groupId
+        where:
+        properties                                        | topics                         | groupId
+        [:]                                               | ["topic1", "topic2"]           | "test"
+        ["test.kafka-support.namespace.prefix": "ctx1-"]  | ["ctx1-topic1", "ctx1-topic2"] | "ctx1-test"
+        ["test.kafka-support.namespace.prefix": "ctx1-",
+         "test.record-captor.group-id"        : "captor"] | ["ctx1-topic1", "ctx1-topic2"] | "captor"
+    }
+
+    private static StandardEnvironment environment(Map<String, Object> properties) {
+        def environment = new StandardEnvironment()
+        environment.propertySources.addFirst(new MapPropertySource("test", properties))
+        return environment
+    }
+
+    private static Object evaluate(StandardEnvironment environment, String value) {
+        def beanFactory = new DefaultListableBeanFactory()
+        return new StandardBeanExpressionResolver().evaluate(environment.resolveRequiredPlaceholders(value),
+                new BeanExpressionContext(beanFactory, null))
+    }
+}
@@ -0,0 +1,105 @@
+package pw.avvero.test.kafka
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry
+import jdk.jfr.Recording
+import jdk.jfr.consumer.RecordingFile
+import org.apache.kafka.clients.admin.MockAdminClient
+import org.apache.kafka.common.Node
+import org.apache.kafka.common.TopicPartition
+import org.apache.kafka.common.TopicPartitionInfo
+import spock.lang.Specification
+
+import java.nio.file.Files
+import java.time.Duration
+
+class KafkaSupportMetricsTests extends Specification {
+
+    def registry = new SimpleMeterRegistry()
+    def defaultRecorder = KafkaSupportMetrics.getRecorder()
+
+    def setup() {
+        KafkaSupportMetrics.setRecorder(new MicrometerMetricsRecorder(registry))
+    }
+
+    def cleanup() {
+        KafkaSupportMetrics.setRecorder(defaultRecorder)
+    }
+
+    def "Micrometer is used by default when it is on the classpath"() {
+        expect:
+        defaultRecorder instanceof MicrometerMetricsRecorder
+    }
+
+    def "Captured records are counted per topic"() {
+        setup:
+        def captor = new RecordCaptor(2, Integer.MAX_VALUE)
+        when:
+        3.times { captor.capture(RecordSnapshot.builder().topic("topic1").key("k").headers([:]).value(it).build()) }
+        then:
+        registry.get("kts.captor.records").tag("topic", "topic1").counter().count() == 3
+        registry.get("kts.captor.size").tag("topic", "topic1").gauge().value() == 2
+    }
+
+    def "Offset commit barrier and admin calls are timed"() {
+        setup:
+        def node = new Node(0, "localhost", 9092)
+        def adminClient = new MockAdminClient([node], node)
+        adminClient.addTopic(false, "topic1", [new TopicPartitionInfo(0, node, [node], [node])], [:])
+        adminClient.updateEndOffsets([(new TopicPartition("topic1", 0)): 1L])
+        when:
+        KafkaSupport.waitForPartitionOffsetCommitForPartitions(adminClient, [new TopicPartition("topic1", 0)] as Set,
+                ["group1"] as Set)
+        then:
+        registry.get("kts.offset.commit").tags("barrier", "partitions", "outcome", "success").timer().count() == 1
+        registry.get("kts.offset.commit.attempts").tag("barrier", "partitions").summary().totalAmount() == 1
+        registry.get("kts.admin.call").tag("operation", "listOffsets").timer().count() == 2
+        registry.get("kts.admin.call").tag("operation", "listConsumerGroupOffsets").timer().count() == 1
+        cleanup:
+        adminClient.close(Duration.ZERO)
+    }
+
+    def "Record Captor skips statistics when metrics are disabled"() {
+        setup:
+        def captor = new RecordCaptor()
+        when:
+        KafkaSupportMetrics.setRecorder(MetricsRecorder.NOOP)
+        captor.capture(RecordSnapshot.builder().topic("topic1").key("k").headers([:]).value(1).build())
+        then:
+        !KafkaSupportMetrics.isEnabled()
+        registry.find("kts.captor.records").counter() == null
+        when:
+        KafkaSupportMetrics.setRecorder(null)
+        then:
+        KafkaSupportMetrics.getRecorder().is(MetricsRecorder.NOOP)
+        when:
+        KafkaSupportMetrics.setRecorder(new MicrometerMetricsRecorder(registry))
+        captor.capture(RecordSnapshot.builder().topic("topic1").key("k").headers([:]).value(2).build())
+        then:
+        KafkaSupportMetrics.isEnabled()
+        registry.get("kts.captor.records").tag("topic", "topic1").counter().count() == 1
+    }
+
+    def "JFR events of timed operations span the operation"() {
+        setup:
+        def recorder = new JfrMetricsRecorder()
+        def recording = new Recording()
+        recording.enable("pw.avvero.kts.AdminCall")
+        def file = Files.createTempFile("kts", ".jfr")
+        when:
+        recording.start()
+        def sample = recorder.startAdminCall()
+        Thread.sleep(50)
+        recorder.adminCall("listOffsets", sample)
+        recording.stop()
+        recording.dump(file)
+        def events = RecordingFile.readAllEvents(file)
+        then:
+        events.size() == 1
+        events[0].getString("operation") == "listOffsets"
+        events[0].duration >= Duration.ofMillis(50)
+        !events[0].hasField("time")
+        cleanup:
+        recording.close()
+        Files.deleteIfExists(file)
+    }
+}
@@ -0,0 +1,83 @@
+package pw.avvero.test.kafka
+
+import org.springframework.mock.env.MockEnvironment
+import spock.lang.Specification
+
+import java.time.Duration
+
+class KafkaSupportSettingsTests extends Specification {
+
+    def "Settings are resolved from properties"() {
+        setup:
+        def environment = new MockEnvironment()
+                .withProperty("test.kafka-support.offset-commit.timeout", "30s")
+                .withProperty("test.kafka-support.assignment.timeout", "500ms")
+                .withProperty("test.kafka-support.wait.strategy", "fixed")
+                .withProperty("test.kafka-support.assignment.warm-up-timeout", "100ms")
+        when:
+        def settings = KafkaSupportSettings.from(environment)
+        then:
+        settings.producerWarmUpTimeout == Duration.ofMillis(100)
+        settings.offsetCommitTimeout == Duration.ofSeconds(30)
+        settings.assignmentTimeout == Duration.ofMillis(500)
+        settings.commitEventWaitTime == KafkaSupportSettings.defaults().commitEventWaitTime
+        settings.metadataCacheTtl == Duration.ofSeconds(1)
+    }
+
+    def "Deprecated fields of KafkaSupport are mapped onto settings when changed"() {
+        setup:
+        KafkaSupport.OFFSET_COMMIT_WAIT_ATTEMPTS_MAX = 50
+        KafkaSupport.OFFSET_COMMIT_WAIT_TIME = 20
+        def defaults = KafkaSupportSettings.defaults()
+        when:
+        def settings = KafkaSupportSettings.from(new MockEnvironment())
+        then:
+        defaults.offsetCommitTimeout == Duration.ofSeconds(1)
+        settings.offsetCommitTimeout == Duration.ofSeconds(1)
+        when:
+        settings = KafkaSupportSettings.from(new MockEnvironment()
+                .withProperty("test.kafka-support.offset-commit.timeout", "30s")
+                .withProperty("test.kafka-support.wait.strategy", "fixed"))
+        then:
+        settings.offsetCommitTimeout == Duration.ofSeconds(30)
+        cleanup:
+        KafkaSupport.OFFSET_COMMIT_WAIT_ATTEMPTS_MAX = 200
+        KafkaSupport.OFFSET_COMMIT_WAIT_TIME = 10
+    }
+
+    def "Unknown wait strategy is rejected"() {
+        when:
+        KafkaSupportSettings.from(new MockEnvironment().withProperty("test.kafka-support.wait.strategy", "random"))
+        then:
+        thrown(IllegalArgumentException)
+    }
+
+    def "Pause does not last beyond the deadline"() {
+        setup:
+        def deadline = Deadline.after(Duration.ofMillis(50))
+        when:
+        long start = System.nanoTime()
+        strategy.pause(attempt, deadline)
+        long elapsed = Duration.ofNanos(System.nanoTime() - start).toMillis()
+        then:
+        elapsed < 1000
+        where:
+        strategy                                                                      | attempt
+        WaitStrategy.fixed(Duration.ofSeconds(10))                                    | 1
+        WaitStrategy.exponentialBackoff(Duration.ofMillis(1), Duration.ofSeconds(10)) | 100
+        WaitStrategy.spinThenPark(1, Duration.ofSeconds(10))                          | 2
+    }
+
+    def "Exponential backoff grows up to the maximum delay"() {
+        setup:
+        def strategy = WaitStrategy.exponentialBackoff(Duration.ofMillis(1), Duration.ofMillis(20))
+        def deadline = Deadline.after(Duration.ofSeconds(10))
+        when:
+        long start = System.nanoTime()
+        10.times { strategy.pause(it + 1, deadline) }
+        long elapsed = Duration.ofNanos(System.nanoTime() - start).toMillis()
+        then: "1 + 2 + 4 + 8 + 16 + 5 * 20 ms at most, half of it at least"
+        elapsed >= 65
+        elapsed < 1000
+    }
+}
@@ -1,6 +1,7 @@
 package pw.avvero.test.kafka
 
 import org.springframework.beans.factory.annotation.Autowired
+import org.springframework.boot.autoconfigure.kafka.KafkaConnectionDetails
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc
 import org.springframework.boot.test.context.SpringBootTest
 import org.springframework.context.ApplicationContext
@@ -123,6 +124,31 @@ class KafkaSupportTests extends Specification {
         n = 10
     }
 
+    def "Can wait for offset commit only for partitions produced to"() {
+        setup:
+        KafkaSupport.waitForPartitionAssignment(applicationContext)
+        def key = IdGenerator.getNext()
+        when:
+        n.times {
+            Message message = MessageBuilder
+                    .withPayload("value" + it)
+                    .setHeader(KafkaHeaders.TOPIC, "topic" + it)
+                    .setHeader(KafkaHeaders.KEY, key)
+                    .build()
+            kafkaTemplate.send(message).get()
+        }
+        KafkaSupport.waitForProducedPartitionOffsetCommit(applicationContext)
+        then:
+        n.times {
+            assert recordCaptor.getRecords("topic" + it, key).size() == 1
+        }
+        and:
+        ProducedPartitionsTracker.getInstance().getProducedOffsets(AdminClientRegistry.clusterKey(
+                applicationContext.getBean(KafkaConnectionDetails).bootstrapServers)).isEmpty()
+        where:
+        n = 10
+    }
+
     def "Message from the topic which is not captured can't be acquired"() {
         setup:
         KafkaSupport.waitForPartitionAssignment(applicationContext)
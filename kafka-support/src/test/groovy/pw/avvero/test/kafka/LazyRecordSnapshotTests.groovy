@@ -0,0 +1,50 @@
+package pw.avvero.test.kafka
+
+import org.apache.kafka.clients.consumer.ConsumerRecord
+import org.apache.kafka.common.serialization.Deserializer
+import org.apache.kafka.common.serialization.StringDeserializer
+import org.springframework.kafka.support.SimpleKafkaHeaderMapper
+import spock.lang.Specification
+
+class LazyRecordSnapshotTests extends Specification {
+
+    def "Value is deserialized only when it is read"() {
+        setup:
+        def valueDeserializer = Mock(Deserializer)
+        def record = new ConsumerRecord<byte[], byte[]>("topic1", 0, 0, "k".bytes, "value".bytes)
+        when:
+        def snapshot = LazyRecordSnapshot.of(record, new StringDeserializer(), valueDeserializer,
+                new SimpleKafkaHeaderMapper())
+        then:
+        0 * valueDeserializer._
+        snapshot.key == "k"
+        snapshot.rawValue.is(record.value())
+        when:
+        def values = [snapshot.value, snapshot.value]
+        then:
+        1 * valueDeserializer.deserialize("topic1", record.headers(), record.value()) >> "value"
+        values == ["value", "value"]
+    }
+
+    def "Headers are mapped when they are read"() {
+        setup:
+        def record = new ConsumerRecord<byte[], byte[]>("topic1", 0, 0, null, null)
+        record.headers().add("customHeader", "header1".bytes)
+        def headerMapper = new SimpleKafkaHeaderMapper()
+        headerMapper.setRawMappedHeaders(["customHeader": true])
+        when:
+        def snapshot = LazyRecordSnapshot.of(record, new StringDeserializer(), new StringDeserializer(), headerMapper)
+        then:
+        snapshot.key == ""
+        snapshot.value == null
+        snapshot.headers["customHeader"] == "header1"
+    }
+
+    def "Lazy snapshot is equal to the snapshot of the deserialized record"() {
+        setup:
+        def record = new ConsumerRecord<byte[], byte[]>("topic1", 0, 0, "k".bytes, "value".bytes)
+        expect:
+        LazyRecordSnapshot.of(record, new StringDeserializer(), new StringDeserializer(), new SimpleKafkaHeaderMapper()) ==
+                RecordSnapshot.builder().topic("topic1").key("k").headers([:]).value("value").build()
+    }
+}
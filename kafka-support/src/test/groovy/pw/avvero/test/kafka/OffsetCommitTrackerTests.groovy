@@ -0,0 +1,118 @@
+package pw.avvero.test.kafka
+
+import org.apache.kafka.clients.consumer.Consumer
+import org.apache.kafka.clients.consumer.OffsetAndMetadata
+import org.apache.kafka.clients.producer.ProducerRecord
+import org.apache.kafka.common.TopicPartition
+import org.apache.kafka.common.serialization.StringDeserializer
+import org.apache.kafka.common.serialization.StringSerializer
+import spock.lang.Specification
+
+import java.time.Duration
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicInteger
+
+import static org.apache.kafka.clients.consumer.ConsumerConfig.*
+
+class OffsetCommitTrackerTests extends Specification {
+
+    InMemoryKafka kafka = new InMemoryKafka()
+    def executor = Executors.newSingleThreadExecutor()
+    def pauses = new AtomicInteger()
+    def settings = KafkaSupportSettings.builder()
+            .offsetCommitTimeout(Duration.ofSeconds(10))
+            .commitEventWaitTime(Duration.ofSeconds(5))
+            .waitStrategy({ attempt, deadline -> pauses.incrementAndGet(); Thread.sleep(10) } as WaitStrategy)
+            .build()
+
+    def cleanup() {
+        executor.shutdownNow()
+        kafka.close()
+    }
+
+    def "Barrier is completed on the commit event of the in-process consumer without polling"() {
+        setup:
+        def consumer = consumer("tracker-group1", [(INTERCEPTOR_CLASSES_CONFIG): OffsetCommitInterceptor.name])
+        when:
+        kafka.createProducer([:], new StringSerializer(), new StringSerializer())
+                .send(new ProducerRecord("topic1", "key", "value")).get()
+        executor.submit { Thread.sleep(200); consumer.poll(Duration.ofSeconds(1)); consumer.commitSync() }
+        long start = System.nanoTime()
+        KafkaSupport.waitForPartitionOffsetCommit(kafka.adminClient, settings)
+        then:
+        pauses.get() == 0
+        Duration.ofNanos(System.nanoTime() - start) < settings.commitEventWaitTime
+        cleanup:
+        executor.submit { consumer.close() }.get()
+    }
+
+    def "Barrier falls back to polling with AdminClient if the consumer group is not tracked"() {
+        setup:
+        def consumer = consumer("tracker-group2")
+        when:
+        kafka.createProducer([:], new StringSerializer(), new StringSerializer())
+                .send(new ProducerRecord("topic1", "key", "value")).get()
+        executor.submit { Thread.sleep(200); consumer.poll(Duration.ofSeconds(1)); consumer.commitSync() }
+        KafkaSupport.waitForPartitionOffsetCommit(kafka.adminClient, settings)
+        then:
+        !OffsetCommitTracker.instance.isTracked(kafka.bootstrapServers, "tracker-group2")
+        pauses.get() > 0
+        cleanup:
+        executor.submit { consumer.close() }.get()
+    }
+
+    def "Committed offsets are forgotten when the last consumer of the group is closed"() {
+        setup:
+        def tracker = new OffsetCommitTracker()
+        def offsets = [(new TopicPartition("topic1", 0)): new OffsetAndMetadata(1)]
+        def expected = ["group1": [(new TopicPartition("topic1", 0)): 1L]]
+        tracker.register("cluster1", "group1")
+        tracker.register("cluster1", "group1")
+        when:
+        tracker.onCommit("cluster1", "group1", offsets)
+        tracker.unregister("cluster1", "group1")
+        then:
+        tracker.awaitCommitted("cluster1", expected, 0)
+        when:
+        tracker.unregister("cluster1", "group1")
+        tracker.onCommit("cluster1", "group1", offsets)
+        then:
+        !tracker.isTracked("cluster1", "group1")
+        !tracker.awaitCommitted("cluster1", expected, 0)
+    }
+
+    def "Groups with the same id are tracked per cluster"() {
+        setup:
+        def tracker = new OffsetCommitTracker()
+        def offsets = [(new TopicPartition("topic1", 0)): new OffsetAndMetadata(1)]
+        def expected = ["group1": [(new TopicPartition("topic1", 0)): 1L]]
+        tracker.register("cluster1", "group1")
+        tracker.register("cluster2", "group1")
+        when:
+        tracker.onCommit("cluster1", "group1", offsets)
+        then:
+        tracker.awaitCommitted("cluster1", expected, 0)
+        !tracker.awaitCommitted("cluster2", expected, 0)
+        tracker.awaitCommitted(null, expected, 0)
+        when:
+        tracker.unregister("cluster2", "group1")
+        then:
+        tracker.isTracked("cluster1", "group1")
+        !tracker.isTracked("cluster2", "group1")
+        tracker.isTracked(null, "group1")
+        !tracker.isTracked("cluster3", "group1")
+    }
+
+    /**
+     * Like the listener container, the consumer is assigned and its initial position is committed.
+     */
+    private Consumer<String, String> consumer(String groupId, Map<String, Object> configs = [:]) {
+        def consumer = kafka.createConsumer([(GROUP_ID_CONFIG): groupId, (ENABLE_AUTO_COMMIT_CONFIG): false] + configs,
+                new StringDeserializer(), new StringDeserializer())
+        consumer.subscribe(["topic1"])
+        consumer.poll(Duration.ZERO)
+        consumer.assignment().each { consumer.position(it) }
+        consumer.commitSync()
+        return consumer
+    }
+}
@@ -0,0 +1,64 @@
+package pw.avvero.test.kafka
+
+import org.apache.kafka.common.TopicPartition
+import spock.lang.Specification
+
+class OffsetSnapshotFrameTests extends Specification {
+
+    def "Rows are rendered into fixed width columns"() {
+        setup:
+        def frame = new OffsetSnapshotFrame()
+        when:
+        frame.append("test", new TopicPartition("topic1", 0), 1, 1)
+        frame.append("test", new TopicPartition("topicBroken-retry", 0), 1, 2)
+        frame.split()
+        then:
+        frame.toString() == "[KTS] Offset comparison frame\n" +
+                " ______________________________________________________________________________________________________\n" +
+                "| Consumer group             | Partition                                              | CGF    | PO    |\n" +
+                "| test                       | topic1-0                                               | 1      | 1     |          \n" +
+                "| test                       | topicBroken-retry-0                                    | 1      | 2     |<--       \n" +
+                " ______________________________________________________________________________________________________\n"
+    }
+
+    def "Values longer than columns are clipped"() {
+        setup:
+        def frame = new OffsetSnapshotFrame()
+        when:
+        frame.append("g" * 40, new TopicPartition("t" * 60, 10), 1234567, null)
+        then:
+        def row = frame.toString().readLines().last()
+        row == "| " + "g" * 26 + " | " + "t" * 54 + " | 12345  |       |          "
+    }
+
+    def "Only mismatched rows are rendered in mismatched mode"() {
+        setup:
+        def frame = new OffsetSnapshotFrame(OffsetSnapshotFrame.Mode.MISMATCHED)
+        when:
+        frame.append("group1", new TopicPartition("topic1", 0), 1, 1)
+        frame.split()
+        frame.append("group2", new TopicPartition("topic1", 0), 1, 2)
+        frame.append("group2", new TopicPartition("topic2", 0), 0, 0)
+        frame.split()
+        then:
+        def lines = frame.toString().readLines()
+        lines.size() == 6
+        lines[3].startsWith("| group2 ")
+        lines[4].startsWith(" ____")
+        lines[5] == "[KTS] 2 rows with committed offsets are hidden"
+    }
+
+    def "Frame can be reused after reset"() {
+        setup:
+        def frame = new OffsetSnapshotFrame()
+        frame.append("test", new TopicPartition("topic1", 0), 1, 2)
+        frame.split()
+        when:
+        frame.reset()
+        frame.append("test", new TopicPartition("topic2", 0), 3, 3)
+        then:
+        def lines = frame.toString().readLines()
+        lines.size() == 4
+        lines[3].contains("topic2-0")
+    }
+}
@@ -0,0 +1,74 @@
+package pw.avvero.test.kafka
+
+import org.apache.kafka.clients.admin.MockAdminClient
+import org.apache.kafka.common.Node
+import org.apache.kafka.common.TopicPartition
+import org.apache.kafka.common.TopicPartitionInfo
+import spock.lang.Specification
+
+import java.time.Duration
+
+class OffsetSnapshotTests extends Specification {
+
+    def node = new Node(0, "localhost", 9092)
+    def adminClient = new MockAdminClient([node], node)
+    def partitions = (0..<3).collect { new TopicPartition("topic1", it) }
+
+    def setup() {
+        adminClient.addTopic(false, "topic1", (0..<3).collect { new TopicPartitionInfo(it, node, [node], [node]) }, [:])
+    }
+
+    def cleanup() {
+        adminClient.close(Duration.ZERO)
+    }
+
+    def "Lag is calculated for partitions committed by consumer group"() {
+        setup:
+        adminClient.updateEndOffsets([(partitions[0]): 5L, (partitions[1]): 3L, (partitions[2]): 0L])
+        adminClient.updateConsumerGroupOffsets([(partitions[0]): 2L, (partitions[2]): 0L])
+        when:
+        def snapshot = OffsetSnapshot.take(adminClient, partitions as Set, ["group1"] as Set)
+        then:
+        snapshot.getEndOffset(partitions[0]) == 5
+        snapshot.getCommittedOffset("group1", partitions[0]) == 2
+        snapshot.getCommittedOffset("group1", partitions[1]) == OffsetSnapshot.NO_OFFSET
+        snapshot.getLag("group1", partitions[0]) == 3
+        snapshot.getLag("group1", partitions[1]) == 0
+        snapshot.getLag("group1", partitions[2]) == 0
+        snapshot.getTotalLag() == 3
+        !snapshot.isCommitted()
+        snapshot.getPendingOffsets() == ["group1": [(partitions[0]): 5L]]
+    }
+
+    def "Snapshot is committed when consumer group reached end offsets"() {
+        setup:
+        adminClient.updateEndOffsets([(partitions[0]): 5L, (partitions[1]): 3L, (partitions[2]): 0L])
+        adminClient.updateConsumerGroupOffsets([(partitions[0]): 5L, (partitions[1]): 3L])
+        when:
+        def snapshot = OffsetSnapshot.take(adminClient, partitions as Set, ["group1"] as Set)
+        then:
+        snapshot.getTotalLag() == 0
+        snapshot.isCommitted()
+        snapshot.getPendingOffsets().isEmpty()
+    }
+
+    def "Snapshot without consumer groups has no lag"() {
+        setup:
+        adminClient.updateEndOffsets([(partitions[0]): 5L, (partitions[1]): 3L, (partitions[2]): 0L])
+        when:
+        def snapshot = OffsetSnapshot.take(adminClient, partitions as Set, [] as Set)
+        then:
+        snapshot.getConsumerGroups().isEmpty()
+        snapshot.isCommitted()
+    }
+
+    def "Unknown partition is rejected"() {
+        setup:
+        adminClient.updateEndOffsets([(partitions[0]): 5L, (partitions[1]): 3L, (partitions[2]): 0L])
+        def snapshot = OffsetSnapshot.take(adminClient, partitions as Set, ["group1"] as Set)
+        when:
+        snapshot.getLag("group1", new TopicPartition("topic2", 0))
+        then:
+        thrown(IllegalArgumentException)
+    }
+}
@@ -0,0 +1,65 @@
+package pw.avvero.test.kafka
+
+import org.apache.kafka.common.TopicPartition
+import spock.lang.Specification
+
+class OffsetWatermarkStoreTests extends Specification {
+
+    def "Partition is settled only at the end offset it was settled with"() {
+        setup:
+        def store = new OffsetWatermarkStore()
+        def partition = new TopicPartition("topic1", 0)
+        when:
+        store.settle(partition, 10, 0)
+        then:
+        store.isSettled(partition, 10, 0)
+        store.get(partition) == 10
+        !store.isSettled(partition, 11, 0)
+        !store.isSettled(new TopicPartition("topic1", 1), 10, 0)
+        and:
+        store.isSettled(new TopicPartition("topic2", 0), 0, 0)
+    }
+
+    def "Can settle partitions from many threads"() {
+        setup:
+        def store = new OffsetWatermarkStore()
+        when:
+        def threads = (0..<8).collect { t ->
+            Thread.start {
+                1000.times { store.settle(new TopicPartition("topic" + t, it), it + 1, t) }
+            }
+        }
+        threads*.join()
+        then:
+        (0..<8).every { t -> (0..<1000).every { store.isSettled(new TopicPartition("topic" + t, it), it + 1, t) } }
+    }
+
+    def "Reset forgets settled offsets"() {
+        setup:
+        def store = new OffsetWatermarkStore()
+        def partition = new TopicPartition("topic1", 0)
+        store.settle(partition, 10, 0)
+        when:
+        store.reset()
+        then:
+        !store.isSettled(partition, 10, 0)
+    }
+
+    def "Partition is settled only for the consumer groups it was settled with"() {
+        setup:
+        def store = new OffsetWatermarkStore()
+        def partition1 = new TopicPartition("topic1", 0)
+        def partition2 = new TopicPartition("topic1", 1)
+        def group1 = store.getGroupSetIds([group1: [partition1, partition2] as Set], [partition1, partition2] as Set)
+        def groups = store.getGroupSetIds([group1: [partition1, partition2] as Set, group2: [partition1] as Set],
+                [partition1, partition2] as Set)
+        when:
+        store.settle(partition1, 10, group1[partition1])
+        store.settle(partition2, 10, group1[partition2])
+        then:
+        group1[partition1] == store.getGroupSetId(["group1"] as Set)
+        store.isSettled(partition1, 10, group1[partition1])
+        !store.isSettled(partition1, 10, groups[partition1])
+        store.isSettled(partition2, 10, groups[partition2])
+    }
+}
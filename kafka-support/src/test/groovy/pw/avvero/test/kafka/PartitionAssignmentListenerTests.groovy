@@ -0,0 +1,74 @@
+package pw.avvero.test.kafka
+
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener
+import org.apache.kafka.clients.consumer.MockConsumer
+import org.apache.kafka.clients.consumer.OffsetResetStrategy
+import org.apache.kafka.common.TopicPartition
+import org.springframework.kafka.core.ConsumerFactory
+import org.springframework.kafka.listener.ContainerProperties
+import org.springframework.kafka.listener.KafkaMessageListenerContainer
+import spock.lang.Specification
+
+import java.time.Duration
+
+class PartitionAssignmentListenerTests extends Specification {
+
+    def "Waiting thread is woken up when partitions are assigned"() {
+        setup:
+        def listener = new PartitionAssignmentListener(null)
+        def consumer = new MockConsumer(OffsetResetStrategy.EARLIEST)
+        when:
+        Thread.start {
+            Thread.sleep(100)
+            listener.onPartitionsAssigned(consumer, [new TopicPartition("topic1", 0), new TopicPartition("topic1", 1)])
+        }
+        def count = listener.awaitAssignment(2, Deadline.after(Duration.ofSeconds(10)))
+        then:
+        count == 2
+    }
+
+    def "Revoked partitions are not counted"() {
+        setup:
+        def listener = new PartitionAssignmentListener(null)
+        def consumer = new MockConsumer(OffsetResetStrategy.EARLIEST)
+        def partition = new TopicPartition("topic1", 0)
+        when:
+        listener.onPartitionsAssigned(consumer, [partition])
+        listener.onPartitionsRevokedAfterCommit(consumer, [partition])
+        then:
+        listener.awaitAssignment(1, Deadline.after(Duration.ofMillis(50))) == 0
+    }
+
+    def "Configured rebalance listener becomes the delegate"() {
+        setup:
+        def delegate = Mock(ConsumerRebalanceListener)
+        def properties = new ContainerProperties("topic1")
+        properties.setConsumerRebalanceListener(delegate)
+        def partitions = [new TopicPartition("topic1", 0)]
+        when:
+        PartitionAssignmentListener.install(properties)
+        PartitionAssignmentListener.install(properties)
+        properties.consumerRebalanceListener.onPartitionsAssigned(new MockConsumer(OffsetResetStrategy.EARLIEST), partitions)
+        then:
+        properties.consumerRebalanceListener instanceof PartitionAssignmentListener
+        1 * delegate.onPartitionsAssigned(partitions)
+    }
+
+    def "Container passed as an object is awaited through the installed listener"() {
+        setup:
+        def properties = new ContainerProperties("topic1")
+        PartitionAssignmentListener.install(properties)
+        def container = new KafkaMessageListenerContainer(Mock(ConsumerFactory), properties)
+        properties.consumerRebalanceListener.onPartitionsAssigned(new MockConsumer(OffsetResetStrategy.EARLIEST),
+                [new TopicPartition("topic1", 0)])
+        expect:
+        ContainerTestUtils.waitForAssignment((Object) container, 1) == 1
+    }
+
+    def "Object that is not a listener container is rejected"() {
+        when:
+        ContainerTestUtils.waitForAssignment("container", 1, Duration.ofMillis(10), WaitStrategy.fixed(Duration.ofMillis(1)))
+        then:
+        thrown(IllegalArgumentException)
+    }
+}
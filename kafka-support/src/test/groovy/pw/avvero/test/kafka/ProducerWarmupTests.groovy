@@ -0,0 +1,129 @@
+package pw.avvero.test.kafka
+
+import org.apache.kafka.clients.producer.Producer
+import org.springframework.boot.autoconfigure.kafka.KafkaConnectionDetails
+import org.springframework.context.support.GenericApplicationContext
+import org.springframework.kafka.core.KafkaTemplate
+import org.springframework.kafka.core.ProducerFactory
+import org.springframework.kafka.listener.ContainerProperties
+import org.springframework.kafka.listener.MessageListenerContainer
+import org.springframework.kafka.support.TopicPartitionOffset
+import spock.lang.Specification
+
+import java.util.concurrent.TimeUnit
+import java.util.function.Supplier
+
+class ProducerWarmupTests extends Specification {
+
+    InMemoryKafka kafka = new InMemoryKafka()
+
+    def cleanup() {
+        kafka.close()
+    }
+
+    def "Metadata of listener topics is fetched by producers of all templates"() {
+        setup:
+        def producer = Mock(Producer)
+        def producerFactory = Mock(ProducerFactory) {
+            createProducer() >> producer
+        }
+        ["topic1", "topic2", "topic3", "topic4"].each { kafka.createTopic(it, 1) }
+        def context = context(producerFactory)
+        def containers = [
+                container("listener1", new ContainerProperties("topic1", "topic2")),
+                container("listener2", new ContainerProperties(new TopicPartitionOffset("topic3", 0))),
+                container(RecordCaptorConsumer.LISTENER_ID, new ContainerProperties("topic4"))
+        ]
+        when:
+        ProducerWarmup.start(context, containers, KafkaSupportSettings.defaults()).get(10, TimeUnit.SECONDS)
+        then:
+        ProducerWarmup.getTopics(containers, true) == ["topic1", "topic2", "topic3", "topic4"] as Set
+        ProducerWarmup.getTopics(containers, false) == ["topic1", "topic2", "topic3"] as Set
+        1 * producer.partitionsFor("topic1") >> []
+        1 * producer.partitionsFor("topic2") >> []
+        1 * producer.partitionsFor("topic3") >> []
+        1 * producer.partitionsFor("topic4") >> []
+        cleanup:
+        context.close()
+    }
+
+    def "Topics the cluster doesn't list are not warmed up"() {
+        setup:
+        def producer = Mock(Producer)
+        def producerFactory = Mock(ProducerFactory) {
+            createProducer() >> producer
+        }
+        kafka.createTopic("topic1", 1)
+        def context = context(producerFactory)
+        when:
+        ProducerWarmup.start(context, [container("listener1", new ContainerProperties("topic1", "topic2"))],
+                KafkaSupportSettings.defaults()).get(10, TimeUnit.SECONDS)
+        then:
+        1 * producer.partitionsFor("topic1") >> []
+        0 * producer.partitionsFor("topic2")
+        !kafka.topics.contains("topic2")
+        cleanup:
+        context.close()
+    }
+
+    def "Nothing is warmed up if topics of the cluster can't be listed"() {
+        setup:
+        def producerFactory = Mock(ProducerFactory)
+        def context = new GenericApplicationContext()
+        context.registerBean(KafkaTemplate, producerFactory)
+        context.refresh()
+        when:
+        def warmUp = ProducerWarmup.start(context, [container("listener1", new ContainerProperties("topic1"))],
+                KafkaSupportSettings.defaults())
+        then:
+        warmUp.isDone()
+        0 * producerFactory.createProducer()
+        cleanup:
+        context.close()
+    }
+
+    def "Failed warm-up completes exceptionally"() {
+        setup:
+        def producerFactory = Mock(ProducerFactory) {
+            createProducer() >> { throw new IllegalStateException("broker is not available") }
+        }
+        kafka.createTopic("topic1", 1)
+        def context = context(producerFactory)
+        when:
+        ProducerWarmup.start(context, [container("listener1", new ContainerProperties("topic1"))],
+                KafkaSupportSettings.defaults()).get(10, TimeUnit.SECONDS)
+        then:
+        def e = thrown(Exception)
+        e.cause instanceof IllegalStateException
+        cleanup:
+        context.close()
+    }
+
+    def "Nothing is warmed up without templates"() {
+        setup:
+        def context = new GenericApplicationContext()
+        context.refresh()
+        expect:
+        ProducerWarmup.start(context, [container("listener1", new ContainerProperties("topic1"))],
+                KafkaSupportSettings.defaults()).isDone()
+        cleanup:
+        context.close()
+    }
+
+    private GenericApplicationContext context(ProducerFactory producerFactory) {
+        def context = new GenericApplicationContext()
+        context.registerBean(KafkaTemplate, producerFactory)
+        context.registerBean(KafkaConnectionDetails, {
+            { -> [kafka.bootstrapServers] } as KafkaConnectionDetails
+        } as Supplier<KafkaConnectionDetails>)
+        context.refresh()
+        return context
+    }
+
+    private MessageListenerContainer container(String listenerId, ContainerProperties containerProperties) {
+        Stub(MessageListenerContainer) {
+            getListenerId() >> listenerId
+            getContainerProperties() >> containerProperties
+        }
+    }
+}
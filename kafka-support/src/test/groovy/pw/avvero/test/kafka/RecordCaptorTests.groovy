@@ -0,0 +1,222 @@
+package pw.avvero.test.kafka
+
+import org.apache.kafka.clients.consumer.ConsumerRecord
+import org.springframework.kafka.support.SimpleKafkaHeaderMapper
+import spock.lang.Specification
+
+import java.time.Duration
+
+class RecordCaptorTests extends Specification {
+
+    def "Records are grouped by topic and key in the order of capture"() {
+        setup:
+        def captor = new RecordCaptor()
+        when:
+        1000.times { captor.capture(record("topic1", it % 2, it)) }
+        captor.capture(record("topic2", 0, "other"))
+        then:
+        captor.getRecords("topic1").value == (0..<1000).toList()
+        captor.getRecords("topic1", 1).value == (0..<1000).findAll { it % 2 == 1 }
+        captor.getRecords("topic2", 0).value == ["other"]
+        captor.getRecords("topic3").isEmpty()
+        captor.getRecords("topic1", 2).isEmpty()
+    }
+
+    def "Batch of records is captured in the order of consumption"() {
+        setup:
+        def captor = new RecordCaptor()
+        def mapper = new RecordSnapshotMapper()
+        def records = (0..<10).collect { new ConsumerRecord<Object, Object>("topic" + it % 2, 0, it, "k" + it % 3, it) }
+        records[0].headers().add("eventType", "created".bytes)
+        when:
+        captor.captureAll(mapper.recordsToSnapshots(records, new SimpleKafkaHeaderMapper()))
+        then:
+        captor.getRecords("topic0").value == [0, 2, 4, 6, 8]
+        captor.getRecords("topic1", "k1").value == [1, 7]
+        captor.getRecords("topic0", "k0")[0].headers["eventType"] == "created".bytes
+    }
+
+    def "Returned records are not changed by subsequent captures"() {
+        setup:
+        def captor = new RecordCaptor()
+        captor.capture(record("topic1", "k", 1))
+        def keyRecords = captor.getRecords("topic1", "k")
+        def topicRecords = captor.getRecords("topic1")
+        when:
+        captor.capture(record("topic1", "k", 2))
+        then:
+        keyRecords.value == [1]
+        topicRecords.value == [1]
+    }
+
+    def "Oldest records are evicted when bounds are exceeded"() {
+        setup:
+        def captor = new RecordCaptor(maxPerTopic, maxPerKey)
+        when:
+        values.each { captor.capture(record("topic1", it.key, it.value)) }
+        then:
+        captor.getRecords("topic1").value == topicValues
+        captor.getRecords("topic1", "a").value == keyValues
+        where:
+        maxPerTopic       | maxPerKey         | values                                   | topicValues | keyValues
+        3                 | Integer.MAX_VALUE | entries([a: 1], [b: 2])                  | [1, 2]      | [1]
+        2                 | Integer.MAX_VALUE | entries([a: 1], [b: 2], [a: 3], [b: 4])  | [3, 4]      | [3]
+        Integer.MAX_VALUE | 1                 | entries([a: 1], [b: 2], [a: 3], [b: 4])  | [3, 4]      | [3]
+        3                 | 1                 | entries([a: 1], [a: 2], [b: 3], [a: 4])  | [3, 4]      | [4]
+    }
+
+    def "Bounded captor retains the latest records of a long run"() {
+        setup:
+        def captor = new RecordCaptor(100, 10)
+        when:
+        100_000.times { captor.capture(record("topic1", it % 20, it)) }
+        then:
+        captor.getRecords("topic1").value == (99_900..<100_000).toList()
+        captor.getRecords("topic1", 5).value == (99_900..<100_000).findAll { it % 20 == 5 }
+    }
+
+    def "Logs of keys which records are evicted by the topic bound are dropped"() {
+        setup:
+        def captor = new RecordCaptor(100, 10)
+        when:
+        10_000.times { captor.capture(record("topic1", UUID.randomUUID().toString(), it)) }
+        then:
+        captor.topicRecords("topic1").keyLogs.size() == 100
+        captor.getRecords("topic1").value == (9_900..<10_000).toList()
+        captor.getRecords("topic1").every { captor.getRecords("topic1", it.key).value == [it.value] }
+    }
+
+    def "Records evicted by the key bound are dropped from the topic"() {
+        setup:
+        def captor = new RecordCaptor(Integer.MAX_VALUE, 2)
+        when:
+        10_000.times { captor.capture(record("topic1", it % 3 == 0 ? "hot" : "cold-" + it, it)) }
+        then:
+        captor.getRecords("topic1", "hot").value == [9996, 9999]
+        captor.getRecords("topic1").size() == 10_000 - 3334 + 2
+    }
+
+    def "Await returns as soon as the expected number of records is captured"() {
+        setup:
+        def captor = new RecordCaptor()
+        captor.capture(record("topic1", "k", 1))
+        when:
+        Thread.start {
+            Thread.sleep(100)
+            captor.capture(record("topic1", "other", 2))
+            captor.capture(record("topic1", "k", 3))
+        }
+        long start = System.nanoTime()
+        def records = captor.awaitAtMost(2, 10_000).getRecords("topic1", "k")
+        then:
+        records.value == [1, 3]
+        System.nanoTime() - start < Duration.ofSeconds(5).toNanos()
+    }
+
+    def "Await returns captured records when the time is elapsed"() {
+        setup:
+        def captor = new RecordCaptor()
+        captor.capture(record("topic1", "k", 1))
+        expect:
+        captor.awaitAtMost(2, 50).getRecords("topic1", "k").value == [1]
+        captor.awaitRecords("topic2", { true }, Duration.ofMillis(50)).isEmpty()
+    }
+
+    def "Can await records matching a predicate"() {
+        setup:
+        def captor = new RecordCaptor()
+        captor.capture(record("topic1", "a", 1))
+        when:
+        Thread.start {
+            (2..5).each {
+                Thread.sleep(20)
+                captor.capture(record("topic1", "b", it))
+            }
+        }
+        def records = captor.awaitRecords("topic1", { it.value % 2 == 1 }, 3, Duration.ofSeconds(10))
+        then:
+        records.value == [1, 3, 5]
+    }
+
+    def "Records are queried by indexed header and field values"() {
+        setup:
+        def captor = new RecordCaptor()
+        def extracted = 0
+        captor.indexHeader("correlationId")
+        captor.indexField("type") { extracted++; it.value.type }
+        when:
+        100.times {
+            captor.capture(RecordSnapshot.builder().topic("topic1").key(it % 3)
+                    .headers([correlationId: ("c" + it % 10).bytes])
+                    .value([type: it % 2 == 0 ? "created" : "updated", n: it]).build())
+        }
+        def extractedAtCapture = extracted
+        then:
+        captor.query("topic1").header("correlationId", "c3").getRecords().value.n ==
+                [3, 13, 23, 33, 43, 53, 63, 73, 83, 93]
+        captor.query("topic1").header("correlationId", "c3").field("type", "updated").key(0)
+                .getRecords().value.n == [3, 33, 63, 93]
+        captor.query("topic1").field("type", "created").filter { it.value.n > 90 }.count() == 4
+        captor.query("topic1").header("correlationId", "c11").findFirst() == Optional.empty()
+        captor.query("topic2").header("correlationId", "c3").count() == 0
+        extractedAtCapture == 100
+    }
+
+    def "Index is built for records captured before the declaration"() {
+        setup:
+        def captor = new RecordCaptor()
+        captor.capture(RecordSnapshot.builder().topic("topic1").key("a").headers([eventType: "created"])
+                .value(1).build())
+        captor.capture(RecordSnapshot.builder().topic("topic1").key("b").headers([eventType: "updated"])
+                .value(2).build())
+        expect:
+        captor.query("topic1").header("eventType", "created").getRecords().value == [1]
+        when:
+        captor.indexHeader("eventType")
+        captor.indexField("value") { it.value }
+        captor.capture(RecordSnapshot.builder().topic("topic1").key("c").headers([eventType: "created"])
+                .value(3).build())
+        then:
+        captor.query("topic1").header("eventType", "created").getRecords().value == [1, 3]
+        captor.query("topic1").field("value", 2).getRecords().key == ["b"]
+    }
+
+    def "Evicted records are not found by index"() {
+        setup:
+        def captor = new RecordCaptor(1000, 2)
+        captor.indexField("even") { it.value % 2 == 0 }
+        when:
+        2000.times { captor.capture(record("topic1", it % 2, it)) }
+        then:
+        captor.query("topic1").field("even", true).getRecords().value == [1996, 1998]
+        captor.query("topic1").field("even", false).getRecords().value == [1997, 1999]
+    }
+
+    def "Scope is queried by indexes of the captor"() {
+        setup:
+        def captor = new RecordCaptor().indexField("value") { it.value }
+        when:
+        captor.capture(RecordSnapshot.builder().topic("topic1").key("a").headers([(TestScope.HEADER): "test1"])
+                .value(1).build())
+        captor.capture(RecordSnapshot.builder().topic("topic1").key("a").headers([(TestScope.HEADER): "test2"])
+                .value(1).build())
+        then:
+        captor.query("topic1").field("value", 1).count() == 2
+        captor.scope("test1").query("topic1").field("value", 1).count() == 1
+    }
+
+    def "Field must be indexed to be queried"() {
+        when:
+        new RecordCaptor().query("topic1").field("type", "created")
+        then:
+        thrown(IllegalArgumentException)
+    }
+
+    static List<Map.Entry<String, Integer>> entries(Map<String, Integer>... maps) {
+        maps.collect { it.entrySet().first() }
+    }
+
+    static RecordSnapshot record(String topic, Object key, Object value) {
+        RecordSnapshot.builder().topic(topic).key(key).headers([:]).value(value).build()
+    }
+}
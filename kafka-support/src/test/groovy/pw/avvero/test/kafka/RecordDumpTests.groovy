@@ -0,0 +1,116 @@
+package pw.avvero.test.kafka
+
+import org.apache.kafka.clients.consumer.ConsumerRecord
+import org.apache.kafka.common.header.internals.RecordHeader
+import org.apache.kafka.common.header.internals.RecordHeaders
+import org.apache.kafka.common.record.TimestampType
+import org.apache.kafka.common.serialization.StringDeserializer
+import org.springframework.kafka.support.SimpleKafkaHeaderMapper
+import spock.lang.Specification
+import spock.lang.TempDir
+
+import java.nio.charset.StandardCharsets
+import java.nio.file.Files
+import java.nio.file.Path
+
+class RecordDumpTests extends Specification {
+
+    @TempDir
+    Path directory
+
+    def "Dumped records are read as they were consumed"() {
+        setup:
+        def file = directory.resolve("records.kts")
+        def writer = new RecordDumpWriter(file)
+        def headers = new RecordHeaders([new RecordHeader("eventType", "created".bytes), new RecordHeader("empty", null)])
+        when:
+        writer.append(new ConsumerRecord<byte[], byte[]>("topic1", 3, 42, 1000L, TimestampType.LOG_APPEND_TIME, 3, 5,
+                "key".bytes, "value".bytes, headers, Optional.empty()))
+        writer.append(new ConsumerRecord<byte[], byte[]>("topic2", 0, 0, null, null))
+        writer.close()
+        def records = RecordDumpReader.readAll(file)
+        then:
+        records.size() == 2
+        with(records[0]) {
+            topic() == "topic1"
+            partition() == 3
+            offset() == 42
+            timestamp() == 1000L
+            timestampType() == TimestampType.LOG_APPEND_TIME
+            new String(key()) == "key"
+            new String(value()) == "value"
+            new String(it.headers().lastHeader("eventType").value()) == "created"
+            it.headers().lastHeader("empty").value() == null
+        }
+        records[1].key() == null
+        records[1].value() == null
+        Files.size(file) < RecordDumpWriter.DEFAULT_REGION_SIZE
+    }
+
+    def "Dump grows by regions"() {
+        setup:
+        def file = directory.resolve("records.kts")
+        def writer = new RecordDumpWriter(file, 1024)
+        def value = ("v" * 300).bytes
+        when:
+        100.times {
+            writer.append(new ConsumerRecord<byte[], byte[]>("topic1", 0, it, String.valueOf(it).bytes, value))
+        }
+        then: "records of the open dump are readable"
+        RecordDumpReader.readAll(file).size() == 100
+        when:
+        writer.close()
+        def records = RecordDumpReader.readAll(file)
+        then:
+        records*.offset() == (0L..<100L).toList()
+        records.every { it.value() == value }
+    }
+
+    def "Dumped records are replayed into the captor"() {
+        setup:
+        def file = directory.resolve("records.kts")
+        def captor = new RecordCaptor()
+        def consumer = new RawRecordCaptorConsumer(captor, new StringDeserializer(), new StringDeserializer(),
+                new SimpleKafkaHeaderMapper(), new RecordDumpWriter(file))
+        def record = new ConsumerRecord<byte[], byte[]>("topic1", 0, 0, "key".bytes, "value".bytes)
+        when:
+        consumer.eventCaptorListener(record)
+        consumer.dump.close()
+        def replayed = new RecordCaptor()
+        RecordDumpReader.open(file).each {
+            replayed.capture(LazyRecordSnapshot.of(it, new StringDeserializer(), new StringDeserializer(),
+                    new SimpleKafkaHeaderMapper()))
+        }
+        then:
+        replayed.getRecords("topic1", "key").value == captor.getRecords("topic1", "key").value
+    }
+
+    def "Closed dump doesn't accept records"() {
+        setup:
+        def writer = new RecordDumpWriter(directory.resolve("records.kts"))
+        writer.close()
+        when:
+        writer.append(new ConsumerRecord<byte[], byte[]>("topic1", 0, 0, null, null))
+        then:
+        thrown(IllegalStateException)
+    }
+
+    def "File of other format is rejected"() {
+        setup:
+        def file = directory.resolve("other.txt")
+        Files.write(file, "text".getBytes(StandardCharsets.UTF_8))
+        when:
+        RecordDumpReader.open(file)
+        then:
+        thrown(IllegalStateException)
+    }
+
+    def "Dump of the run is created in the directory"() {
+        when:
+        def writer = RecordDumpWriter.forRun(directory.resolve("kts"))
+        writer.close()
+        then:
+        writer.file.parent == directory.resolve("kts")
+        writer.file.fileName.toString().endsWith(".kts")
+    }
+}
@@ -0,0 +1,139 @@
+package pw.avvero.test.kafka
+
+import org.apache.kafka.clients.admin.ConsumerGroupDescription
+import org.apache.kafka.clients.admin.MemberAssignment
+import org.apache.kafka.clients.admin.MemberDescription
+import org.apache.kafka.clients.consumer.ConsumerRecord
+import org.apache.kafka.clients.producer.MockProducer
+import org.apache.kafka.common.ConsumerGroupState
+import org.apache.kafka.common.KafkaException
+import org.apache.kafka.common.Node
+import org.apache.kafka.common.TopicPartition
+import org.apache.kafka.common.TopicPartitionInfo
+import org.apache.kafka.common.header.internals.RecordHeader
+import org.apache.kafka.common.header.internals.RecordHeaders
+import org.apache.kafka.common.record.TimestampType
+import org.apache.kafka.common.serialization.ByteArraySerializer
+import org.apache.kafka.common.serialization.StringDeserializer
+import org.apache.kafka.common.serialization.Serializer
+import org.springframework.kafka.support.SimpleKafkaHeaderMapper
+import spock.lang.Specification
+import spock.lang.TempDir
+
+import java.nio.file.Path
+import java.time.Duration
+
+class RecordReplayTests extends Specification {
+
+    @TempDir
+    Path directory
+
+    def "Dumped records are replayed in the original order"() {
+        setup:
+        def file = dump((0..<10).collect { record("topic1", it, 1000L + it) })
+        def producer = new MockProducer<byte[], byte[]>(true, new ByteArraySerializer(), new ByteArraySerializer())
+        when:
+        def result = RecordReplay.fromDump(file).topics { "ns-" + it }.publish(producer)
+        then:
+        result.records == 10
+        result.partitions == [new TopicPartition("ns-topic1", 0)] as Set
+        producer.history().collect { new String(it.value()) } == (0..<10).collect { "value" + it }
+        producer.history().every { it.topic() == "ns-topic1" && it.timestamp() == null }
+        new String(producer.history()[0].headers().lastHeader("eventType").value()) == "created"
+    }
+
+    def "Original intervals between records are shortened by the speed factor"() {
+        setup:
+        def file = dump([record("topic1", 0, 1000L), record("topic1", 1, 1400L)])
+        def producer = new MockProducer<byte[], byte[]>(true, new ByteArraySerializer(), new ByteArraySerializer())
+        when:
+        def result = RecordReplay.fromDump(file).rate(rate).publish(producer)
+        then:
+        result.duration >= minDuration
+        result.duration < maxDuration
+        where:
+        rate                              | minDuration             | maxDuration
+        RecordReplay.Rate.originalTiming() | Duration.ofMillis(400) | Duration.ofSeconds(5)
+        RecordReplay.Rate.speedUp(4)       | Duration.ofMillis(100) | Duration.ofMillis(400)
+        RecordReplay.Rate.maxSpeed()       | Duration.ZERO          | Duration.ofMillis(100)
+    }
+
+    def "Captured records are replayed topic by topic"() {
+        setup:
+        def captor = new RecordCaptor()
+        captor.capture(RecordSnapshot.builder().topic("topic1").key("k1").headers([eventType: "created"])
+                .value("v1").build())
+        captor.capture(RecordSnapshot.builder().topic("topic2").key("k2").headers([:]).value("v2").build())
+        def raw = new ConsumerRecord<byte[], byte[]>("topic1", 0, 0, "k3".bytes, "v3".bytes)
+        captor.capture(LazyRecordSnapshot.of(raw, new StringDeserializer(), new StringDeserializer(),
+                new SimpleKafkaHeaderMapper()))
+        Serializer<Object> serializer = { topic, data -> data instanceof byte[] ? data : data.toString().bytes }
+        def producer = new MockProducer<Object, Object>(true, serializer, serializer)
+        when:
+        RecordReplay.fromCaptor(captor, "topic1", "topic2").publish(producer)
+        then:
+        producer.history().collect { it.value() instanceof byte[] ? new String(it.value()) : it.value() } ==
+                ["v1", "v3", "v2"]
+        producer.history()*.topic() == ["topic1", "topic1", "topic2"]
+        new String(producer.history()[0].headers().lastHeader("eventType").value()) == "created"
+    }
+
+    def "Failed send fails the replay"() {
+        setup:
+        def file = dump([record("topic1", 0, 1000L)])
+        def producer = new MockProducer<byte[], byte[]>(false, new ByteArraySerializer(), new ByteArraySerializer()) {
+            @Override
+            synchronized void flush() {
+                errorNext(new KafkaException("broker is not available"))
+            }
+        }
+        when:
+        RecordReplay.fromDump(file).publish(producer)
+        then:
+        def e = thrown(IllegalStateException)
+        e.cause.message == "broker is not available"
+    }
+
+    def "Replay ends with the offset commit of consumer groups"() {
+        setup:
+        def node = new Node(0, "localhost", 9092)
+        def partition = new TopicPartition("topic1", 0)
+        def adminClient = new ClusterMetadataCacheTests.ConsumerGroupsAdminClient(node, [
+                new ConsumerGroupDescription("group1", false, [new MemberDescription("member", "client", "localhost",
+                        new MemberAssignment([partition] as Set))], "range", ConsumerGroupState.STABLE, node)
+        ])
+        adminClient.addTopic(false, "topic1", [new TopicPartitionInfo(0, node, [node], [node])], [:])
+        adminClient.updateEndOffsets([(partition): 1L])
+        adminClient.updateConsumerGroupOffsets([(partition): 1L])
+        def producer = new MockProducer<byte[], byte[]>(true, new ByteArraySerializer(), new ByteArraySerializer())
+        when:
+        def result = RecordReplay.fromDump(dump([record("topic1", 0, 1000L)])).awaitOffsetCommit(adminClient)
+                .publish(producer)
+        then:
+        result.records == 1
+        result.throughput > 0
+        cleanup:
+        adminClient.close(Duration.ZERO)
+    }
+
+    def "Speed factor must be positive"() {
+        when:
+        RecordReplay.Rate.speedUp(0)
+        then:
+        thrown(IllegalArgumentException)
+    }
+
+    private Path dump(List<ConsumerRecord<byte[], byte[]>> records) {
+        def file = directory.resolve("records-" + System.nanoTime() + ".kts")
+        def writer = new RecordDumpWriter(file, 4096)
+        records.each { writer.append(it) }
+        writer.close()
+        return file
+    }
+
+    private static ConsumerRecord<byte[], byte[]> record(String topic, int n, long timestamp) {
+        new ConsumerRecord<byte[], byte[]>(topic, 0, n, timestamp, TimestampType.CREATE_TIME, 0, 0,
+                ("key" + n).bytes, ("value" + n).bytes, new RecordHeaders([new RecordHeader("eventType",
+                "created".bytes)]), Optional.empty())
+    }
+}
@@ -0,0 +1,209 @@
+package pw.avvero.test.kafka
+
+import org.apache.kafka.clients.consumer.ConsumerRecord
+import org.apache.kafka.clients.producer.ProducerRecord
+import org.apache.kafka.common.serialization.StringDeserializer
+import org.springframework.kafka.support.SimpleKafkaHeaderMapper
+import spock.lang.Specification
+
+import java.nio.charset.StandardCharsets
+import java.util.concurrent.Callable
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.Executors
+
+class TestScopeTests extends Specification {
+
+    def "Records sent within the scope are marked with the id of the test"() {
+        setup:
+        def interceptor = new TestScopeInterceptor()
+        when:
+        def marked
+        try (def scope = TestScope.open("test1")) {
+            marked = interceptor.onSend(new ProducerRecord<Object, Object>("topic1", "key", "value"))
+        }
+        def unmarked = interceptor.onSend(new ProducerRecord<Object, Object>("topic1", "key", "value"))
+        then:
+        new String(marked.headers().lastHeader(TestScope.HEADER).value(), StandardCharsets.UTF_8) == "test1"
+        unmarked.headers().lastHeader(TestScope.HEADER) == null
+        TestScope.currentId() == null
+    }
+
+    def "Nested scope restores the previous one"() {
+        when:
+        def outer = TestScope.open("outer")
+        def inner = TestScope.open("inner")
+        then:
+        TestScope.currentId() == "inner"
+        when:
+        inner.close()
+        then:
+        TestScope.currentId() == "outer"
+        cleanup:
+        outer.close()
+    }
+
+    def "Pooled thread doesn't keep the scope of the test that started it"() {
+        setup:
+        def executor = Executors.newSingleThreadExecutor()
+        when:
+        def first
+        try (def scope = TestScope.open("test1")) {
+            first = executor.submit({ TestScope.currentId() } as Callable<String>).get()
+        }
+        def second
+        try (def scope = TestScope.open("test2")) {
+            second = executor.submit({ TestScope.currentId() } as Callable<String>).get()
+        }
+        then:
+        first == null
+        second == null
+        cleanup:
+        executor.shutdown()
+    }
+
+    def "Task submitted to the pool runs within the scope of the test"() {
+        setup:
+        def executor = Executors.newSingleThreadExecutor()
+        def decorator = TestScope.taskDecorator()
+        def ids = new CopyOnWriteArrayList<String>()
+        when:
+        ["test1", "test2"].each { testId ->
+            try (def scope = TestScope.open(testId)) {
+                executor.submit(decorator.decorate { ids.add(TestScope.currentId()) }).get()
+                ids.add(executor.submit(TestScope.wrap({ TestScope.currentId() } as Callable<String>)).get())
+            }
+        }
+        def after = executor.submit({ TestScope.currentId() } as Callable<String>).get()
+        then:
+        ids == ["test1", "test1", "test2", "test2"]
+        after == null
+        cleanup:
+        executor.shutdown()
+    }
+
+    def "Records are processed by listeners within the scope of the record"() {
+        setup:
+        def interceptor = new TestScopeRecordInterceptor()
+        def record = new ConsumerRecord<Object, Object>("topic1", 0, 0, "key", "value")
+        record.headers().add(TestScope.HEADER, "test1".getBytes(StandardCharsets.UTF_8))
+        when:
+        interceptor.intercept(record, null)
+        then:
+        TestScope.currentId() == "test1"
+        when:
+        interceptor.afterRecord(record, null)
+        then:
+        TestScope.currentId() == null
+    }
+
+    def "Tests running in parallel read only their own records"() {
+        setup:
+        def captor = new RecordCaptor()
+        def executor = Executors.newFixedThreadPool(4)
+        when:
+        def futures = (0..<4).collect { t ->
+            executor.submit({
+                def testId = "test" + t
+                10.times { captor.capture(record("topic1", "key", [(TestScope.HEADER): testId], it)) }
+                captor.scope(testId).awaitAtMost(10, 1000).getRecords("topic1", "key")
+            } as Callable<List<RecordSnapshot>>)
+        }
+        def records = futures*.get()
+        then:
+        records.every { it.size() == 10 }
+        (0..<4).every { t -> records[t].every { it.headers[TestScope.HEADER] == "test" + t } }
+        captor.getRecords("topic1").size() == 40
+        cleanup:
+        executor.shutdown()
+    }
+
+    def "Scope is found by raw header value"() {
+        setup:
+        def captor = new RecordCaptor()
+        def raw = new ConsumerRecord<byte[], byte[]>("topic1", 0, 0, "key".bytes, "value".bytes)
+        raw.headers().add(TestScope.HEADER, "test1".getBytes(StandardCharsets.UTF_8))
+        def lazy = LazyRecordSnapshot.of(raw, new StringDeserializer(), new StringDeserializer(),
+                new SimpleKafkaHeaderMapper())
+        when:
+        captor.capture(record("topic1", "key", [(TestScope.HEADER): "test1".getBytes(StandardCharsets.UTF_8)], 1))
+        captor.capture(lazy)
+        then:
+        captor.scope("test1").getRecords("topic1").size() == 2
+    }
+
+    def "Batch of records is split between scopes"() {
+        setup:
+        def captor = new RecordCaptor()
+        when:
+        captor.captureAll([
+                record("topic1", "key", [(TestScope.HEADER): "test1"], 1),
+                record("topic1", "key", [(TestScope.HEADER): "test2"], 2),
+                record("topic2", "key", [(TestScope.HEADER): "test1"], 3),
+                record("topic1", "key", [:], 4)
+        ])
+        then:
+        captor.scope("test1").getRecords("topic1")*.value == [1]
+        captor.scope("test1").getRecords("topic2")*.value == [3]
+        captor.scope("test2").getRecords("topic1")*.value == [2]
+        captor.getRecords("topic1")*.value == [1, 2, 4]
+    }
+
+    def "Discarded scope doesn't keep records"() {
+        setup:
+        def captor = new RecordCaptor()
+        captor.capture(record("topic1", "key", [(TestScope.HEADER): "test1"], 1))
+        when:
+        captor.discardScope("test1")
+        captor.capture(record("topic1", "key", [(TestScope.HEADER): "test1"], 2))
+        then:
+        captor.scope("test1").getRecords("topic1").isEmpty()
+        captor.getRecords("topic1").size() == 2
+    }
+
+    def "Discarded scope is not created again by records captured concurrently"() {
+        setup:
+        def captor = new RecordCaptor()
+        def executor = Executors.newFixedThreadPool(4)
+        when:
+        def futures = (0..<4).collect { thread ->
+            executor.submit {
+                1000.times { captor.capture(record("topic1", "key", [(TestScope.HEADER): "test" + it % 10], it)) }
+            }
+        }
+        10.times { captor.discardScope("test" + it) }
+        futures*.get()
+        then:
+        captor.scopes.values().every { it.is(RecordCaptor.DISCARDED) }
+        cleanup:
+        executor.shutdownNow()
+    }
+
+    def "Markers of discarded scopes expire"() {
+        setup:
+        def captor = new RecordCaptor()
+        def discarded = RecordCaptor.MAX_DISCARDED_SCOPES + 10
+        when:
+        discarded.times { captor.discardScope("test" + it) }
+        def reopened = captor.scope("test" + (discarded - 1))
+        discarded.times { captor.discardScope("other" + it) }
+        then: "the scope requested again after it was discarded is kept"
+        captor.scopes.size() == RecordCaptor.MAX_DISCARDED_SCOPES + 1
+        captor.scope("test" + (discarded - 1)).is(reopened)
+        captor.discardedScopes.size() == RecordCaptor.MAX_DISCARDED_SCOPES
+        when:
+        captor.capture(record("topic1", "key", [(TestScope.HEADER): "test0"], 1))
+        then:
+        captor.scope("test0").getRecords("topic1")*.value == [1]
+    }
+
+    def "Scope of the current thread is required"() {
+        when:
+        new RecordCaptor().scope()
+        then:
+        thrown(IllegalStateException)
+    }
+
+    private static RecordSnapshot record(String topic, Object key, Map<String, Object> headers, Object value) {
+        RecordSnapshot.builder().topic(topic).key(key).headers(headers).value(value).build()
+    }
+}
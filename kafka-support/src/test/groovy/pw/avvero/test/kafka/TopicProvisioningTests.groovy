@@ -0,0 +1,59 @@
+package pw.avvero.test.kafka
+
+import org.apache.kafka.clients.admin.DescribeTopicsOptions
+import org.apache.kafka.clients.admin.DescribeTopicsResult
+import org.apache.kafka.clients.admin.MockAdminClient
+import org.apache.kafka.clients.admin.NewTopic
+import org.apache.kafka.clients.admin.TopicDescription
+import org.apache.kafka.common.KafkaFuture
+import org.apache.kafka.common.Node
+import org.apache.kafka.common.TopicCollection
+import org.apache.kafka.common.TopicPartitionInfo
+import spock.lang.Specification
+
+import java.time.Duration
+
+class TopicProvisioningTests extends Specification {
+
+    def settings = KafkaSupportSettings.builder().topicProvisioningTimeout(Duration.ofMillis(300)).build()
+
+    def "Missing topics are created and existing topics are left as they are"() {
+        setup:
+        def kafka = new InMemoryKafka(2)
+        kafka.adminClient.createTopics([new NewTopic("topic1", 5, (short) 1)]).all().get()
+        when:
+        KafkaSupport.provisionTopics(kafka.adminClient, ["topic1", "topic2", "topic3"] as Set, settings)
+        then:
+        kafka.topics == ["topic1", "topic2", "topic3"] as Set
+        kafka.getPartitions("topic1") == 5
+        kafka.getPartitions("topic2") == 2
+        when:
+        KafkaSupport.provisionTopics(kafka.adminClient, ["topic1", "topic2"] as Set, settings)
+        then:
+        noExceptionThrown()
+        cleanup:
+        kafka.close()
+    }
+
+    def "Provisioning fails if partition leaders are not elected within the timeout"() {
+        setup:
+        def node = new Node(0, "localhost", 9092)
+        def adminClient = new MockAdminClient([node], node) {
+            @Override
+            DescribeTopicsResult describeTopics(TopicCollection topics, DescribeTopicsOptions options) {
+                def partitions = [new TopicPartitionInfo(0, null, [node], [])]
+                new DescribeTopicsResult(null, topics.topicNames().collectEntries {
+                    [(it): KafkaFuture.completedFuture(new TopicDescription(it, false, partitions))]
+                }) {}
+            }
+        }
+        adminClient.createTopics([new NewTopic("topic1", 1, (short) 1)]).all().get()
+        when:
+        KafkaSupport.provisionTopics(adminClient, ["topic1", "topic2"] as Set, settings)
+        then:
+        def e = thrown(IllegalStateException)
+        e.message.endsWith("partition leaders are not elected for topics: topic1, topic2")
+        cleanup:
+        adminClient.close()
+    }
+}
@@ -0,0 +1,40 @@
+package pw.avvero.test.kafka;
+
+import org.springframework.boot.autoconfigure.kafka.KafkaConnectionDetails;
+import org.springframework.boot.autoconfigure.kafka.KafkaProperties;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.kafka.core.ProducerFactory;
+
+import java.util.List;
+
+@TestConfiguration(proxyBeanMethods = false)
+public class InMemoryKafkaConfiguration {
+
+    @Bean
+    InMemoryKafka inMemoryKafka() {
+        return new InMemoryKafka();
+    }
+
+    @Bean
+    KafkaConnectionDetails kafkaConnectionDetails(InMemoryKafka kafka) {
+        return () -> List.of(kafka.getBootstrapServers());
+    }
+
+    @Bean
+    ProducerFactory<Object, Object> kafkaProducerFactory(InMemoryKafka kafka, KafkaProperties properties) {
+        return kafka.producerFactory(properties.buildProducerProperties(null));
+    }
+
+    @Bean
+    ConsumerFactory<Object, Object> kafkaConsumerFactory(InMemoryKafka kafka, KafkaProperties properties) {
+        return kafka.consumerFactory(properties.buildConsumerProperties(null));
+    }
+
+    @Bean
+    TopicProvisioner topicProvisioner(ApplicationContext applicationContext) {
+        return new TopicProvisioner(applicationContext);
+    }
+}
@@ -2,6 +2,8 @@ package pw.avvero.test.kafka;
 
 import org.springframework.boot.test.context.TestConfiguration;
 import org.springframework.context.annotation.Bean;
+import org.springframework.kafka.config.ContainerCustomizer;
+import org.springframework.kafka.listener.ConcurrentMessageListenerContainer;
 
 @TestConfiguration(proxyBeanMethods = false)
 public class RecordCaptorConfiguration {
@@ -14,4 +16,9 @@ public class RecordCaptorConfiguration {
     RecordCaptorConsumer recordCaptorConsumer(RecordCaptor recordCaptor) {
         return new RecordCaptorConsumer(recordCaptor, new RecordSnapshotMapper());
     }
+
+    @Bean
+    ContainerCustomizer<Object, Object, ConcurrentMessageListenerContainer<Object, Object>> partitionAssignmentCustomizer() {
+        return PartitionAssignmentListener.containerCustomizer();
+    }
 }